@@ -22,6 +22,7 @@ package ca.uhn.fhir.jpa.provider;
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDaoObservation;
 import ca.uhn.fhir.jpa.model.util.JpaConstants;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.elastic.ElasticsearchBootSvcImpl;
 import ca.uhn.fhir.model.api.annotation.Description;
 import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.rest.annotation.Operation;
@@ -34,6 +35,7 @@ import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.List;
 import java.util.Map;
@@ -41,6 +43,9 @@ import java.util.Map;
 // Can be removed when https://github.com/hapifhir/hapi-fhir/issues/7255 is resolved
 public abstract class BaseJpaResourceProviderObservation<T extends IBaseResource> extends BaseJpaResourceProvider<T> {
 
+	@Autowired(required = false)
+	private ElasticsearchBootSvcImpl myElasticsearchBootSvc;
+
 	/**
 	 * Observation/$lastn
 	 */
@@ -73,6 +78,10 @@ public abstract class BaseJpaResourceProviderObservation<T extends IBaseResource
 			@RawParam Map<String, List<String>> theAdditionalRawParams) {
 		startRequest(theServletRequest);
 		try {
+			if (myElasticsearchBootSvc != null) {
+				myElasticsearchBootSvc.verifyIndexesReady();
+			}
+
 			SearchParameterMap paramMap = new SearchParameterMap();
 			paramMap.add(org.hl7.fhir.r4.model.Observation.SP_CATEGORY, theCategory);
 			paramMap.add(org.hl7.fhir.r4.model.Observation.SP_CODE, theCode);
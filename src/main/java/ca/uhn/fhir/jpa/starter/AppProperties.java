@@ -13,6 +13,7 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Configuration;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -130,6 +131,7 @@ public class AppProperties {
 	private Integer reindex_thread_count = null;
 	private Integer expunge_thread_count = null;
 	private Elasticsearch elasticsearch = null;
+	private Mcp mcp = new Mcp();
 
 	private Integer bulk_export_file_retention_period_hours = 2;
 
@@ -858,6 +860,14 @@ public class AppProperties {
 		this.elasticsearch = elasticsearch;
 	}
 
+	public Mcp getMcp() {
+		return mcp;
+	}
+
+	public void setMcp(Mcp mcp) {
+		this.mcp = mcp;
+	}
+
 	public Integer getBulk_export_file_retention_period_hours() {
 		return bulk_export_file_retention_period_hours;
 	}
@@ -1218,7 +1228,34 @@ public class AppProperties {
 
 	public static class Elasticsearch {
 
+		/**
+		 * How Hibernate Search writes the documents of its resource index, which {@code $lastn} searches, to
+		 * Elasticsearch
+		 */
+		public enum IndexingMode {
+			/** in the request, the request waits until the documents are indexed */
+			SYNC,
+			/** after the commit, through a bounded in-memory queue; queued documents are lost on a crash */
+			ASYNC,
+			/** from a durable outbox table, filled in the same transaction and drained by a background processor */
+			OUTBOX
+		}
+
 		private String index_prefix = "";
+		private Integer fetch_chunk_size = 1000;
+		private Integer fetch_threads = 4;
+		private Boolean source_filtering_enabled = true;
+		private Integer max_connections = 100;
+		private Integer max_connections_per_route = 50;
+		private Integer io_thread_count = 0;
+		private Integer keep_alive_seconds = 60;
+		private Boolean compression_enabled = true;
+		private IndexingMode indexing_mode = IndexingMode.SYNC;
+		private Integer indexing_max_bulk_size = 100;
+		private Integer indexing_queue_size = 1000;
+		private Integer indexing_queue_count = 10;
+		private Integer indexing_outbox_batch_size = 50;
+		private Integer indexing_outbox_polling_interval_ms = 100;
 
 		public String getIndex_prefix() {
 			return index_prefix;
@@ -1227,5 +1264,166 @@ public class AppProperties {
 		public void setIndex_prefix(String index_prefix) {
 			this.index_prefix = index_prefix;
 		}
+
+		public Integer getFetch_chunk_size() {
+			return fetch_chunk_size;
+		}
+
+		public void setFetch_chunk_size(Integer fetch_chunk_size) {
+			this.fetch_chunk_size = fetch_chunk_size;
+		}
+
+		public Integer getFetch_threads() {
+			return fetch_threads;
+		}
+
+		public void setFetch_threads(Integer fetch_threads) {
+			this.fetch_threads = fetch_threads;
+		}
+
+		public Boolean getSource_filtering_enabled() {
+			return source_filtering_enabled;
+		}
+
+		public void setSource_filtering_enabled(Boolean source_filtering_enabled) {
+			this.source_filtering_enabled = source_filtering_enabled;
+		}
+
+		public Integer getMax_connections() {
+			return max_connections;
+		}
+
+		public void setMax_connections(Integer max_connections) {
+			this.max_connections = max_connections;
+		}
+
+		public Integer getMax_connections_per_route() {
+			return max_connections_per_route;
+		}
+
+		public void setMax_connections_per_route(Integer max_connections_per_route) {
+			this.max_connections_per_route = max_connections_per_route;
+		}
+
+		public Integer getIo_thread_count() {
+			return io_thread_count;
+		}
+
+		public void setIo_thread_count(Integer io_thread_count) {
+			this.io_thread_count = io_thread_count;
+		}
+
+		public Integer getKeep_alive_seconds() {
+			return keep_alive_seconds;
+		}
+
+		public void setKeep_alive_seconds(Integer keep_alive_seconds) {
+			this.keep_alive_seconds = keep_alive_seconds;
+		}
+
+		public Boolean getCompression_enabled() {
+			return compression_enabled;
+		}
+
+		public void setCompression_enabled(Boolean compression_enabled) {
+			this.compression_enabled = compression_enabled;
+		}
+
+		public IndexingMode getIndexing_mode() {
+			return indexing_mode;
+		}
+
+		public void setIndexing_mode(IndexingMode indexing_mode) {
+			this.indexing_mode = indexing_mode;
+		}
+
+		public Integer getIndexing_max_bulk_size() {
+			return indexing_max_bulk_size;
+		}
+
+		public void setIndexing_max_bulk_size(Integer indexing_max_bulk_size) {
+			this.indexing_max_bulk_size = indexing_max_bulk_size;
+		}
+
+		public Integer getIndexing_queue_size() {
+			return indexing_queue_size;
+		}
+
+		public void setIndexing_queue_size(Integer indexing_queue_size) {
+			this.indexing_queue_size = indexing_queue_size;
+		}
+
+		public Integer getIndexing_queue_count() {
+			return indexing_queue_count;
+		}
+
+		public void setIndexing_queue_count(Integer indexing_queue_count) {
+			this.indexing_queue_count = indexing_queue_count;
+		}
+
+		public Integer getIndexing_outbox_batch_size() {
+			return indexing_outbox_batch_size;
+		}
+
+		public void setIndexing_outbox_batch_size(Integer indexing_outbox_batch_size) {
+			this.indexing_outbox_batch_size = indexing_outbox_batch_size;
+		}
+
+		public Integer getIndexing_outbox_polling_interval_ms() {
+			return indexing_outbox_polling_interval_ms;
+		}
+
+		public void setIndexing_outbox_polling_interval_ms(Integer indexing_outbox_polling_interval_ms) {
+			this.indexing_outbox_polling_interval_ms = indexing_outbox_polling_interval_ms;
+		}
+	}
+
+	public static class Mcp {
+
+		private Boolean direct_dispatch_enabled = true;
+		private Integer max_concurrent_tool_calls = 32;
+		private Integer tool_call_queue_size = 256;
+		private Integer tool_call_timeout_seconds = 60;
+		private Map<String, Integer> tool_call_timeouts_seconds = new HashMap<>();
+
+		public Boolean getDirect_dispatch_enabled() {
+			return direct_dispatch_enabled;
+		}
+
+		public void setDirect_dispatch_enabled(Boolean direct_dispatch_enabled) {
+			this.direct_dispatch_enabled = direct_dispatch_enabled;
+		}
+
+		public Integer getMax_concurrent_tool_calls() {
+			return max_concurrent_tool_calls;
+		}
+
+		public void setMax_concurrent_tool_calls(Integer max_concurrent_tool_calls) {
+			this.max_concurrent_tool_calls = max_concurrent_tool_calls;
+		}
+
+		public Integer getTool_call_queue_size() {
+			return tool_call_queue_size;
+		}
+
+		public void setTool_call_queue_size(Integer tool_call_queue_size) {
+			this.tool_call_queue_size = tool_call_queue_size;
+		}
+
+		public Integer getTool_call_timeout_seconds() {
+			return tool_call_timeout_seconds;
+		}
+
+		public void setTool_call_timeout_seconds(Integer tool_call_timeout_seconds) {
+			this.tool_call_timeout_seconds = tool_call_timeout_seconds;
+		}
+
+		public Map<String, Integer> getTool_call_timeouts_seconds() {
+			return tool_call_timeouts_seconds;
+		}
+
+		public void setTool_call_timeouts_seconds(Map<String, Integer> tool_call_timeouts_seconds) {
+			this.tool_call_timeouts_seconds = tool_call_timeouts_seconds;
+		}
 	}
 }
@@ -26,4 +26,96 @@ public class CdsHooksProperties {
 	public void setClientIdHeaderName(String clientIdHeaderName) {
 		this.clientIdHeaderName = clientIdHeaderName;
 	}
+
+	private boolean prettyPrint = false;
+
+	public boolean isPrettyPrint() {
+		return prettyPrint;
+	}
+
+	public void setPrettyPrint(boolean prettyPrint) {
+		this.prettyPrint = prettyPrint;
+	}
+
+	private boolean modulePrefetchEnabled = false;
+
+	/**
+	 * Whether hook calls are prefetched by {@link ModuleConfigurationPrefetchSvc} instead of the CDS Hooks
+	 * module's template-based prefetch.
+	 */
+	public boolean isModulePrefetchEnabled() {
+		return modulePrefetchEnabled;
+	}
+
+	public void setModulePrefetchEnabled(boolean modulePrefetchEnabled) {
+		this.modulePrefetchEnabled = modulePrefetchEnabled;
+	}
+
+	private boolean prefetchCacheEnabled = false;
+
+	public boolean isPrefetchCacheEnabled() {
+		return prefetchCacheEnabled;
+	}
+
+	public void setPrefetchCacheEnabled(boolean prefetchCacheEnabled) {
+		this.prefetchCacheEnabled = prefetchCacheEnabled;
+	}
+
+	private int prefetchCacheTtlSeconds = 60;
+
+	public int getPrefetchCacheTtlSeconds() {
+		return prefetchCacheTtlSeconds;
+	}
+
+	public void setPrefetchCacheTtlSeconds(int prefetchCacheTtlSeconds) {
+		this.prefetchCacheTtlSeconds = prefetchCacheTtlSeconds;
+	}
+
+	private long prefetchCacheMaxEntries = 10_000;
+
+	public long getPrefetchCacheMaxEntries() {
+		return prefetchCacheMaxEntries;
+	}
+
+	public void setPrefetchCacheMaxEntries(long prefetchCacheMaxEntries) {
+		this.prefetchCacheMaxEntries = prefetchCacheMaxEntries;
+	}
+
+	private long prefetchDeadlineMillis = 500;
+
+	/**
+	 * Time budget for all prefetch queries of one hook call; queries still running when it expires are left out.
+	 */
+	public long getPrefetchDeadlineMillis() {
+		return prefetchDeadlineMillis;
+	}
+
+	public void setPrefetchDeadlineMillis(long prefetchDeadlineMillis) {
+		this.prefetchDeadlineMillis = prefetchDeadlineMillis;
+	}
+
+	private int prefetchThreads = 8;
+
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	public void setPrefetchThreads(int prefetchThreads) {
+		this.prefetchThreads = prefetchThreads;
+	}
+
+	private String prefetchLabsValueSetUrl;
+
+	/**
+	 * Canonical URL of a ValueSet holding the UDS lab codes, known to the hook's FHIR server. When set, the lab
+	 * prefetch searches with {@code code:in} instead of listing the codes; servers that reject the modifier get
+	 * the code lists.
+	 */
+	public String getPrefetchLabsValueSetUrl() {
+		return prefetchLabsValueSetUrl;
+	}
+
+	public void setPrefetchLabsValueSetUrl(String prefetchLabsValueSetUrl) {
+		this.prefetchLabsValueSetUrl = prefetchLabsValueSetUrl;
+	}
 }
@@ -6,13 +6,16 @@ import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
 import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceResponseJson;
 import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServicesJson;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonParser;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.entity.ContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +25,6 @@ import org.springframework.beans.factory.annotation.Qualifier;
 
 import java.io.IOException;
 import java.io.Serial;
-import java.util.stream.Collectors;
 
 import static org.opencds.cqf.fhir.cr.hapi.config.test.TestCdsHooksConfig.CDS_HOOKS_OBJECT_MAPPER_FACTORY;
 
@@ -39,13 +41,23 @@ public class CdsHooksServlet extends HttpServlet {
 	@Autowired
 	private ProviderConfiguration providerConfiguration;
 
+	@Autowired
+	private CdsHooksProperties cdsHooksProperties;
+
 	@Autowired
 	ICdsServiceRegistry cdsServiceRegistry;
 
+	@Autowired
+	private CdsServiceRegistryChangeTracker registryChangeTracker;
+
 	@Autowired
 	@Qualifier(CDS_HOOKS_OBJECT_MAPPER_FACTORY)
 	ObjectMapper objectMapper;
 
+	private transient ObjectWriter responseWriter;
+
+	private transient volatile Discovery discovery;
+
 	protected ProviderConfiguration getProviderConfiguration() {
 		return this.providerConfiguration;
 	}
@@ -62,19 +74,51 @@ public class CdsHooksServlet extends HttpServlet {
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
-		logger.info(request.getRequestURI());
+		logger.debug(request.getRequestURI());
 		if (!request.getRequestURL().toString().endsWith("/cds-services")
 				&& !request.getRequestURL().toString().endsWith("/cds-services/")) {
 			logger.error(request.getRequestURI());
 			throw new ServletException("This servlet is not configured to handle GET requests.");
 		}
 		ErrorHandling.setAccessControlHeaders(response, appProperties);
+		Discovery discovery = getDiscovery();
+		response.setHeader("ETag", discovery.etag());
+		response.setHeader("Cache-Control", "no-cache");
+		if (matchesEtag(request.getHeader("If-None-Match"), discovery.etag())) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
 		response.setHeader("Content-Type", ContentType.APPLICATION_JSON.getMimeType());
-		response.getWriter()
-				.println(new GsonBuilder()
-						.setPrettyPrinting()
-						.create()
-						.toJson(JsonParser.parseString(objectMapper.writeValueAsString(getServices()))));
+		response.setContentLength(discovery.body().length);
+		response.getOutputStream().write(discovery.body());
+	}
+
+	/**
+	 * The discovery document is rendered once and served from memory until the registry changes, so polling
+	 * EHRs (and their conditional requests) don't hit the registry or the serializer.
+	 */
+	private Discovery getDiscovery() throws IOException {
+		Discovery discovery = this.discovery;
+		long version = registryChangeTracker.getVersion();
+		if (discovery == null || discovery.version() != version) {
+			byte[] body = responseWriter().writeValueAsBytes(getServices());
+			discovery = new Discovery(version, body, "\"" + DigestUtils.sha256Hex(body) + "\"");
+			this.discovery = discovery;
+		}
+		return discovery;
+	}
+
+	private static boolean matchesEtag(String theIfNoneMatch, String theEtag) {
+		if (theIfNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : theIfNoneMatch.split(",")) {
+			String tag = StringUtils.removeStart(candidate.trim(), "W/");
+			if (tag.equals("*") || tag.equals(theEtag)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -85,24 +129,19 @@ public class CdsHooksServlet extends HttpServlet {
 				throw new ServletException(String.format(
 						"Invalid content type %s. Please use application/json.", request.getContentType()));
 			}
-			logger.info(request.getRequestURI());
+			logger.debug(request.getRequestURI());
 			String service = request.getPathInfo().replace("/", "");
 
-			String requestJson = request.getReader().lines().collect(Collectors.joining());
-			CdsHooksRequest cdsHooksRequest = objectMapper.readValue(requestJson, CdsHooksRequest.class);
-			logRequestInfo(cdsHooksRequest, requestJson);
+			CdsHooksRequest cdsHooksRequest = objectMapper.readValue(request.getInputStream(), CdsHooksRequest.class);
+			logRequestInfo(service, cdsHooksRequest);
 
 			CdsServiceResponseJson serviceResponseJson = cdsServiceRegistry.callService(service, cdsHooksRequest);
 
-			// Using GSON pretty print format as Jackson's is ugly
-			String jsonResponse = new GsonBuilder()
-					.disableHtmlEscaping()
-					.setPrettyPrinting()
-					.create()
-					.toJson(JsonParser.parseString(objectMapper.writeValueAsString(serviceResponseJson)));
-			logger.info(jsonResponse);
+			if (logger.isDebugEnabled()) {
+				logger.debug(objectMapper.writeValueAsString(serviceResponseJson));
+			}
 			response.setContentType("text/json;charset=UTF-8");
-			response.getWriter().println(jsonResponse);
+			responseWriter().writeValue(response.getOutputStream(), serviceResponseJson);
 		} catch (BaseServerResponseException e) {
 			ErrorHandling.handleError(response, "ERROR: Exception connecting to remote server.", e, appProperties);
 			logger.error(e.toString());
@@ -112,17 +151,33 @@ public class CdsHooksServlet extends HttpServlet {
 		}
 	}
 
-	private void logRequestInfo(CdsServiceRequestJson request, String jsonRequest) {
-		logger.info(jsonRequest);
-		logger.info("cds-hooks hook instance: {}", request.getHookInstance());
-		logger.info("cds-hooks local server address: {}", appProperties.getServer_address());
-		logger.info("cds-hooks fhir server address: {}", request.getFhirServer());
-		logger.info(
-				"cds-hooks cql_logging_enabled: {}",
-				this.getProviderConfiguration().getCqlLoggingEnabled());
+	/**
+	 * Responses are serialized straight to the servlet output stream, pretty printed only when
+	 * {@code hapi.fhir.cdshooks.prettyPrint} is set.
+	 */
+	private ObjectWriter responseWriter() {
+		if (responseWriter == null) {
+			ObjectWriter writer = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			responseWriter = cdsHooksProperties.isPrettyPrint() ? writer.withDefaultPrettyPrinter() : writer;
+		}
+		return responseWriter;
+	}
+
+	private void logRequestInfo(String service, CdsServiceRequestJson request) throws JsonProcessingException {
+		logger.info("cds-hooks service {} called, hook instance: {}", service, request.getHookInstance());
+		if (logger.isDebugEnabled()) {
+			logger.debug(objectMapper.writeValueAsString(request));
+			logger.debug("cds-hooks local server address: {}", appProperties.getServer_address());
+			logger.debug("cds-hooks fhir server address: {}", request.getFhirServer());
+			logger.debug(
+					"cds-hooks cql_logging_enabled: {}",
+					this.getProviderConfiguration().getCqlLoggingEnabled());
+		}
 	}
 
 	private CdsServicesJson getServices() {
 		return cdsServiceRegistry.getCdsServicesJson();
 	}
+
+	private record Discovery(long version, byte[] body, String etag) {}
 }
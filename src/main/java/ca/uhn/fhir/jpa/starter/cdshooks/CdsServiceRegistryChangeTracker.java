@@ -0,0 +1,46 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a version number of the CDS service registry that changes whenever a service is registered or
+ * unregistered, so the discovery document can be cached until the set of services actually changes.
+ * <p>
+ * Services are registered at runtime by the CR module (one per PlanDefinition) as well as by other callers of
+ * the registry, so the registry bean itself is wrapped rather than relying on a particular caller.
+ */
+public class CdsServiceRegistryChangeTracker implements BeanPostProcessor {
+
+	private final AtomicLong myVersion = new AtomicLong();
+
+	public long getVersion() {
+		return myVersion.get();
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object theBean, String theBeanName) {
+		if (!(theBean instanceof ICdsServiceRegistry registry)) {
+			return theBean;
+		}
+		return Proxy.newProxyInstance(
+				ICdsServiceRegistry.class.getClassLoader(),
+				new Class<?>[] {ICdsServiceRegistry.class},
+				(proxy, method, args) -> {
+					try {
+						return method.invoke(registry, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					} finally {
+						String name = method.getName();
+						if (name.startsWith("register") || name.startsWith("unregister")) {
+							myVersion.incrementAndGet();
+						}
+					}
+				});
+	}
+}
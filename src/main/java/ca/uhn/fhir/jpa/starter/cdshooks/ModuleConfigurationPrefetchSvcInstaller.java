@@ -0,0 +1,36 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchSvc;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Puts {@link ModuleConfigurationPrefetchSvc} in place of the {@link CdsPrefetchSvc} created by the CDS Hooks
+ * module, so the CDS service registry uses it for every hook call.
+ * <p>
+ * The module's bean definition cannot be overridden, so its instance is swapped once it has been initialised,
+ * the same way {@link CdsServiceRegistryChangeTracker} wraps the registry.
+ */
+public class ModuleConfigurationPrefetchSvcInstaller implements BeanPostProcessor, BeanFactoryAware {
+
+	private final String myPrefetchSvcBeanName;
+	private BeanFactory myBeanFactory;
+
+	public ModuleConfigurationPrefetchSvcInstaller(String thePrefetchSvcBeanName) {
+		myPrefetchSvcBeanName = thePrefetchSvcBeanName;
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory theBeanFactory) {
+		myBeanFactory = theBeanFactory;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object theBean, String theBeanName) {
+		if (theBean instanceof CdsPrefetchSvc && !(theBean instanceof ModuleConfigurationPrefetchSvc)) {
+			return myBeanFactory.getBean(myPrefetchSvcBeanName, ModuleConfigurationPrefetchSvc.class);
+		}
+		return theBean;
+	}
+}
@@ -0,0 +1,143 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out one {@link IGenericClient} per FHIR server base URL for CDS Hooks prefetch. All clients share a
+ * single pooled, keep-alive HTTP connection manager and never fetch the server's CapabilityStatement. Clients
+ * carry no authorization interceptor, since they are shared between hook calls; the access token of a hook
+ * call has to be sent per request instead.
+ * <p>
+ * Cancelling a prefetch that missed its deadline does not stop a blocking HTTP read, so the connect, socket and
+ * pool lease timeouts are bounded by the prefetch deadline: a slow FHIR server holds a prefetch thread for about
+ * as long as a hook call waits for it, not for HAPI's default 10 s. The clients use a {@link FhirContext} of their
+ * own, since HAPI takes the HTTP client for each request from the context's client factory.
+ * <p>
+ * Connection reuse is reported through the {@code cds.prefetch.http.requests} and
+ * {@code cds.prefetch.http.connections.created} counters, along with gauges for the pool state.
+ */
+public class PrefetchClientCache implements AutoCloseable {
+
+	static final int MAX_CACHED_CLIENTS = 64;
+
+	private final ApacheRestfulClientFactory myClientFactory;
+	private final CloseableHttpClient myHttpClient;
+	private final Map<String, IGenericClient> myClients = new ConcurrentHashMap<>();
+
+	/**
+	 * @param theRequestTimeout upper bound of the connect, socket and connection lease timeouts, normally the
+	 *                          prefetch deadline
+	 */
+	public PrefetchClientCache(FhirContext theFhirContext, MeterRegistry theMeterRegistry, Duration theRequestTimeout) {
+		this(theFhirContext, theMeterRegistry, 50, 20, (int) Math.min(theRequestTimeout.toMillis(), 30_000));
+	}
+
+	public PrefetchClientCache(
+			FhirContext theFhirContext,
+			MeterRegistry theMeterRegistry,
+			int theMaxConnections,
+			int theMaxConnectionsPerRoute,
+			int theTimeoutMillis) {
+		Counter requests = Counter.builder("cds.prefetch.http.requests")
+				.description("HTTP requests sent by CDS Hooks prefetch clients")
+				.register(theMeterRegistry);
+		Counter connectionsCreated = Counter.builder("cds.prefetch.http.connections.created")
+				.description("HTTP connections opened by CDS Hooks prefetch clients")
+				.register(theMeterRegistry);
+
+		HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = (route, config) -> {
+			connectionsCreated.increment();
+			return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+		};
+		Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", SSLConnectionSocketFactory.getSocketFactory())
+				.build();
+		PoolingHttpClientConnectionManager connectionManager =
+				new PoolingHttpClientConnectionManager(socketFactories, connectionFactory);
+		connectionManager.setMaxTotal(theMaxConnections);
+		connectionManager.setDefaultMaxPerRoute(theMaxConnectionsPerRoute);
+		connectionManager.setValidateAfterInactivity(2_000);
+
+		Gauge.builder("cds.prefetch.http.pool.leased", connectionManager, cm -> cm.getTotalStats()
+						.getLeased())
+				.register(theMeterRegistry);
+		Gauge.builder("cds.prefetch.http.pool.available", connectionManager, cm -> cm.getTotalStats()
+						.getAvailable())
+				.register(theMeterRegistry);
+		Gauge.builder("cds.prefetch.http.pool.pending", connectionManager, cm -> cm.getTotalStats()
+						.getPending())
+				.register(theMeterRegistry);
+		Gauge.builder("cds.prefetch.clients", myClients, Map::size).register(theMeterRegistry);
+
+		myHttpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(Math.min(theTimeoutMillis, 10_000))
+						.setConnectionRequestTimeout(theTimeoutMillis)
+						.setSocketTimeout(theTimeoutMillis)
+						.build())
+				.evictExpiredConnections()
+				.evictIdleConnections(30, TimeUnit.SECONDS)
+				.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> requests.increment())
+				.build();
+
+		// HAPI clients send each request through the HTTP client of their context's factory, not of the factory
+		// that created them, so the prefetch clients get a context of their own instead of the shared one
+		FhirContext fhirContext = new FhirContext(theFhirContext.getVersion().getVersion());
+		myClientFactory = new ApacheRestfulClientFactory(fhirContext);
+		myClientFactory.setHttpClient(myHttpClient);
+		fhirContext.setRestfulClientFactory(myClientFactory);
+		// scan the model now rather than within the deadline of the first hook call
+		fhirContext.getResourceTypes().forEach(fhirContext::getResourceDefinition);
+		myClientFactory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+	}
+
+	public IGenericClient getClient(String theServerBase) {
+		String key = StringUtils.removeEnd(theServerBase, "/");
+		IGenericClient client = myClients.get(key);
+		if (client != null) {
+			return client;
+		}
+		if (myClients.size() >= MAX_CACHED_CLIENTS) {
+			// still shares the connection pool, just not cached
+			return myClientFactory.newGenericClient(key);
+		}
+		return myClients.computeIfAbsent(key, myClientFactory::newGenericClient);
+	}
+
+	@Override
+	public void close() throws IOException {
+		myClients.clear();
+		myHttpClient.close();
+	}
+}
@@ -0,0 +1,187 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.starter.util.AfterCommit;
+import ca.uhn.fhir.sl.cache.Cache;
+import ca.uhn.fhir.sl.cache.CacheFactory;
+import ca.uhn.fhir.util.FhirTerser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-lived cache of CDS Hooks prefetch results, for EHRs that fire several hooks for the same patient in
+ * quick succession. Entries are keyed by FHIR server, patient, prefetch template and day, and by a fingerprint
+ * of the access token so results are never shared between callers with different authorizations.
+ * <p>
+ * Results are held in their JSON encoding and parsed again on every hit, so concurrent hook calls never share
+ * (and never modify) the same resource instance.
+ * <p>
+ * Registered as an interceptor on the JPA server, the cache drops all entries of a patient once a local write to a
+ * resource in that patient's compartment has committed; dropping them before the commit would let a concurrent hook
+ * cache the old state again. The keys are also indexed by patient, so that only that patient's entries are touched.
+ * A prefetch that was already running when the write committed may still return the old state; it passes the
+ * {@link #generation()} read before it started to {@link #put}, which drops its result if the patient was
+ * invalidated since.
+ * Writes made directly on a remote FHIR server are only picked up once the TTL expires.
+ */
+@Interceptor
+public class PrefetchResultCache {
+
+	private final FhirContext myFhirContext;
+	private final Cache<Key, String> myCache;
+	private final Cache<String, Set<Key>> myKeysByPatient;
+	private final AtomicLong myGeneration = new AtomicLong();
+	/** generation at which each patient was last invalidated, kept for as long as the entries it guards */
+	private final Cache<String, Long> myInvalidatedAt;
+	private volatile long myAllInvalidatedAt;
+	private final Counter myHits;
+	private final Counter myMisses;
+
+	public PrefetchResultCache(
+			FhirContext theFhirContext, Duration theTimeToLive, long theMaximumSize, MeterRegistry theMeterRegistry) {
+		myFhirContext = theFhirContext;
+		myCache = CacheFactory.build(theTimeToLive.toMillis(), theMaximumSize);
+		myKeysByPatient = CacheFactory.build(theTimeToLive.toMillis(), theMaximumSize);
+		myInvalidatedAt = CacheFactory.build(theTimeToLive.toMillis(), theMaximumSize);
+		myHits = Counter.builder("cds.prefetch.cache.requests")
+				.tag("result", "hit")
+				.register(theMeterRegistry);
+		myMisses = Counter.builder("cds.prefetch.cache.requests")
+				.tag("result", "miss")
+				.register(theMeterRegistry);
+		Gauge.builder("cds.prefetch.cache.size", myCache, Cache::estimatedSize).register(theMeterRegistry);
+	}
+
+	Key key(String theFhirServer, String thePatientId, String theTemplate, String theAccessToken) {
+		return new Key(
+				theFhirServer,
+				idPart(thePatientId),
+				theTemplate,
+				LocalDate.now(),
+				theAccessToken == null ? null : DigestUtils.sha256Hex(theAccessToken));
+	}
+
+	/**
+	 * @return a fresh copy of the cached result, or {@code null} on a miss
+	 */
+	IBaseResource getIfPresent(Key theKey) {
+		String cached = myCache.getIfPresent(theKey);
+		if (cached == null) {
+			myMisses.increment();
+			return null;
+		}
+		myHits.increment();
+		return myFhirContext.newJsonParser().parseResource(cached);
+	}
+
+	/**
+	 * @return the current invalidation generation, to be read before fetching a result that is then passed to
+	 * {@link #put}
+	 */
+	long generation() {
+		return myGeneration.get();
+	}
+
+	/**
+	 * Caches a result fetched after {@code theGeneration} was read, unless the patient has been invalidated since
+	 */
+	void put(Key theKey, long theGeneration, IBaseResource theResource) {
+		if (theResource == null || invalidatedSince(theKey.patientId(), theGeneration)) {
+			return;
+		}
+		Set<Key> keys = myKeysByPatient.get(theKey.patientId(), patientId -> ConcurrentHashMap.newKeySet());
+		keys.add(theKey);
+		// written again so the index entry expires no earlier than the cache entries it lists
+		myKeysByPatient.put(theKey.patientId(), keys);
+		myCache.put(theKey, myFhirContext.newJsonParser().encodeResourceToString(theResource));
+		// an invalidation running concurrently may have missed the entry just written
+		if (invalidatedSince(theKey.patientId(), theGeneration)) {
+			myCache.invalidate(theKey);
+		}
+	}
+
+	public void invalidatePatient(String thePatientId) {
+		String idPart = idPart(thePatientId);
+		myInvalidatedAt.put(idPart, myGeneration.incrementAndGet());
+		Set<Key> keys = myKeysByPatient.getIfPresent(idPart);
+		if (keys != null) {
+			myKeysByPatient.invalidate(idPart);
+			myCache.invalidateAll(keys);
+		}
+	}
+
+	public void invalidateAll() {
+		myAllInvalidatedAt = myGeneration.incrementAndGet();
+		myKeysByPatient.invalidateAll();
+		myCache.invalidateAll();
+	}
+
+	private boolean invalidatedSince(String thePatientId, long theGeneration) {
+		Long invalidatedAt = myInvalidatedAt.getIfPresent(thePatientId);
+		return myAllInvalidatedAt > theGeneration || (invalidatedAt != null && invalidatedAt > theGeneration);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		invalidateCompartmentOwners(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		invalidateCompartmentOwners(theOldResource);
+		invalidateCompartmentOwners(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		invalidateCompartmentOwners(theResource);
+	}
+
+	private void invalidateCompartmentOwners(IBaseResource theResource) {
+		if (theResource == null || myCache.estimatedSize() == 0) {
+			return;
+		}
+		Set<String> patientIds = patientIds(theResource);
+		if (!patientIds.isEmpty()) {
+			AfterCommit.run(() -> patientIds.forEach(this::invalidatePatient));
+		}
+	}
+
+	private Set<String> patientIds(IBaseResource theResource) {
+		if ("Patient".equals(myFhirContext.getResourceType(theResource))) {
+			return theResource.getIdElement().hasIdPart()
+					? Set.of(theResource.getIdElement().getIdPart())
+					: Collections.emptySet();
+		}
+		FhirTerser terser = myFhirContext.newTerser();
+		Set<String> patientIds = new HashSet<>();
+		for (IIdType owner :
+				terser.getCompartmentOwnersForResource("Patient", theResource, Collections.<String>emptySet())) {
+			if (owner.hasIdPart()) {
+				patientIds.add(owner.getIdPart());
+			}
+		}
+		return patientIds;
+	}
+
+	private static String idPart(String thePatientId) {
+		return thePatientId == null ? "" : thePatientId.replace("Patient/", "");
+	}
+
+	record Key(String fhirServer, String patientId, String template, LocalDate day, String tokenHash) {}
+}
@@ -1,25 +1,38 @@
 package ca.uhn.fhir.jpa.starter.cdshooks;
 
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
 import ca.uhn.fhir.jpa.starter.cr.*;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsHooksDaoAuthorizationSvc;
 import ca.uhn.hapi.fhir.cdshooks.config.CdsHooksConfig;
 import ca.uhn.hapi.fhir.cdshooks.svc.CdsHooksContextBooter;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchDaoSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchFhirClientSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsResolutionStrategySvc;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.fhir.cr.hapi.cdshooks.CdsCrSettings;
 import org.opencds.cqf.fhir.cr.hapi.config.CrCdsHooksConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
+import java.time.Duration;
+
 @Configuration
 @Conditional({CdsHooksConfigCondition.class, CrConfigCondition.class})
 @Import({RepositoryConfig.class, CrCdsHooksConfig.class, CrCommonConfig.class, CdsHooksConfig.class})
 public class StarterCdsHooksConfig {
 
+	static final String MODULE_PREFETCH_SVC = "moduleConfigurationPrefetchSvc";
+
 	@Bean
 	public CdsCrSettings cdsCrSettings(CdsHooksProperties cdsHooksProperties) {
 		CdsCrSettings settings = CdsCrSettings.getDefault();
@@ -44,6 +57,82 @@ public class StarterCdsHooksConfig {
 		return new ProviderConfiguration(cdsProperties, cqlRuntimeProperties);
 	}
 
+	/**
+	 * Cache for {@link ModuleConfigurationPrefetchSvc} prefetch results, invalidated by local writes. Only the
+	 * module prefetch uses it, so it is not created without it.
+	 */
+	@Bean
+	@ConditionalOnProperty(
+			prefix = "hapi.fhir.cdshooks",
+			name = {"module-prefetch-enabled", "prefetch-cache-enabled"},
+			havingValue = "true")
+	public PrefetchResultCache prefetchResultCache(
+			CdsHooksProperties cdsHooksProperties,
+			FhirContext fhirContext,
+			IInterceptorService interceptorService,
+			MeterRegistry meterRegistry) {
+		PrefetchResultCache cache = new PrefetchResultCache(
+				fhirContext,
+				Duration.ofSeconds(cdsHooksProperties.getPrefetchCacheTtlSeconds()),
+				cdsHooksProperties.getPrefetchCacheMaxEntries(),
+				meterRegistry);
+		interceptorService.registerInterceptor(cache);
+		return cache;
+	}
+
+	/**
+	 * Pooled FHIR clients for {@link ModuleConfigurationPrefetchSvc}, shared by all hook calls and closed with the
+	 * application context.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "hapi.fhir.cdshooks", name = "module-prefetch-enabled", havingValue = "true")
+	public PrefetchClientCache prefetchClientCache(
+			FhirContext fhirContext, MeterRegistry meterRegistry, CdsHooksProperties cdsHooksProperties) {
+		return new PrefetchClientCache(
+				fhirContext, meterRegistry, Duration.ofMillis(cdsHooksProperties.getPrefetchDeadlineMillis()));
+	}
+
+	/**
+	 * Not an autowire candidate: it is a {@link ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchSvc} too and
+	 * only reaches the CDS service registry through {@link #moduleConfigurationPrefetchSvcInstaller}.
+	 */
+	@Bean(name = MODULE_PREFETCH_SVC, destroyMethod = "close", autowireCandidate = false)
+	@ConditionalOnProperty(prefix = "hapi.fhir.cdshooks", name = "module-prefetch-enabled", havingValue = "true")
+	public ModuleConfigurationPrefetchSvc moduleConfigurationPrefetchSvc(
+			CdsResolutionStrategySvc cdsResolutionStrategySvc,
+			CdsPrefetchDaoSvc cdsPrefetchDaoSvc,
+			CdsPrefetchFhirClientSvc cdsPrefetchFhirClientSvc,
+			ICdsHooksDaoAuthorizationSvc cdsHooksDaoAuthorizationSvc,
+			IInterceptorBroadcaster interceptorBroadcaster,
+			CdsHooksProperties cdsHooksProperties,
+			PrefetchClientCache prefetchClientCache,
+			ObjectProvider<PrefetchResultCache> prefetchResultCache) {
+		return new ModuleConfigurationPrefetchSvc(
+				cdsResolutionStrategySvc,
+				cdsPrefetchDaoSvc,
+				cdsPrefetchFhirClientSvc,
+				cdsHooksDaoAuthorizationSvc,
+				interceptorBroadcaster,
+				cdsHooksProperties,
+				prefetchClientCache,
+				prefetchResultCache.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cdshooks", name = "module-prefetch-enabled", havingValue = "true")
+	public static ModuleConfigurationPrefetchSvcInstaller moduleConfigurationPrefetchSvcInstaller() {
+		return new ModuleConfigurationPrefetchSvcInstaller(MODULE_PREFETCH_SVC);
+	}
+
+	/**
+	 * Invalidates the cached {@code /cds-services} discovery document of {@link CdsHooksServlet} when services are
+	 * registered or unregistered.
+	 */
+	@Bean
+	public static CdsServiceRegistryChangeTracker cdsServiceRegistryChangeTracker() {
+		return new CdsServiceRegistryChangeTracker();
+	}
+
 	@Bean
 	ICdsHooksDaoAuthorizationSvc cdsHooksDaoAuthorizationSvc() {
 		return new CdsHooksDaoAuthorizationSvc();
@@ -268,7 +268,7 @@ public class FhirServerConfigCommon {
 
 		// Parallel Batch GET execution settings
 		jpaStorageSettings.setBundleBatchPoolSize(appProperties.getBundle_batch_pool_size());
-		jpaStorageSettings.setBundleBatchPoolSize(appProperties.getBundle_batch_pool_max_size());
+		jpaStorageSettings.setBundleBatchMaxPoolSize(appProperties.getBundle_batch_pool_max_size());
 
 		// Set store meta source information
 		ourLog.debug("Server configured to Store Meta Source: {}", appProperties.getStore_meta_source_information());
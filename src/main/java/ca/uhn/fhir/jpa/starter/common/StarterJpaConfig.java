@@ -49,6 +49,7 @@ import ca.uhn.fhir.jpa.starter.AppProperties;
 import ca.uhn.fhir.jpa.starter.annotations.OnCorsPresent;
 import ca.uhn.fhir.jpa.starter.annotations.OnImplementationGuidesPresent;
 import ca.uhn.fhir.jpa.starter.common.validation.IRepositoryValidationInterceptorFactory;
+import ca.uhn.fhir.jpa.starter.cr.CrCacheVersionEntity;
 import ca.uhn.fhir.jpa.starter.elastic.ElasticsearchBootSvcImpl;
 import ca.uhn.fhir.jpa.starter.ig.ExtendedPackageInstallationSpec;
 import ca.uhn.fhir.jpa.starter.ig.IImplementationGuideOperationProvider;
@@ -96,6 +97,7 @@ import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
 import org.springframework.http.HttpHeaders;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
@@ -154,7 +156,9 @@ public class StarterJpaConfig {
 			DataSource myDataSource,
 			ConfigurableListableBeanFactory myConfigurableListableBeanFactory,
 			FhirContext theFhirContext,
-			JpaStorageSettings theStorageSettings) {
+			JpaStorageSettings theStorageSettings,
+			AppProperties theAppProperties,
+			Environment theEnvironment) {
 		LocalContainerEntityManagerFactoryBean entityManagerFactoryBean =
 				HapiEntityManagerFactoryUtil.newEntityManagerFactory(
 						myConfigurableListableBeanFactory, theFhirContext, theStorageSettings);
@@ -184,6 +188,18 @@ public class StarterJpaConfig {
 
 		// Hibernate Search defaults
 		theJpaProperties.getProperties().putIfAbsent(HibernateOrmMapperSettings.ENABLED, "false");
+		if (elasticsearchSvc.isPresent() && theAppProperties.getElasticsearch() != null) {
+			applyElasticsearchIndexingSettings(theJpaProperties.getProperties(), theAppProperties.getElasticsearch());
+		}
+
+		if (Boolean.parseBoolean(theEnvironment.getProperty("hapi.fhir.cr.enabled"))
+				&& Boolean.parseBoolean(
+						theEnvironment.getProperty("hapi.fhir.cr.cql.runtime.cache_event_invalidation_enabled"))) {
+			// the row through which cluster nodes learn about Library and ValueSet changes, see CrCacheVersionSvc;
+			// only with event invalidation, so that schemas validated by Hibernate do not need the table otherwise
+			entityManagerFactoryBean.setPersistenceUnitPostProcessors(
+					unit -> unit.addManagedClassName(CrCacheVersionEntity.class.getName()));
+		}
 
 		entityManagerFactoryBean.setPersistenceUnitName("HAPI_PU");
 		entityManagerFactoryBean.setJpaPropertyMap(theJpaProperties.getProperties());
@@ -192,6 +208,40 @@ public class StarterJpaConfig {
 		return entityManagerFactoryBean;
 	}
 
+	/**
+	 * Moves Hibernate Search indexing of the resource index, which {@code $lastn} searches, out of the request when
+	 * configured. Documents are sent with the bulk API in batches of {@code indexing_max_bulk_size}; the indexing
+	 * queues are bounded, so writers block once {@code indexing_queue_size} works are pending. Explicit
+	 * {@code hibernate.search.*} properties take precedence.
+	 */
+	static void applyElasticsearchIndexingSettings(
+			Map<String, String> theProperties, AppProperties.Elasticsearch theSettings) {
+		theProperties.putIfAbsent(
+				"hibernate.search.backend.indexing.max_bulk_size",
+				String.valueOf(theSettings.getIndexing_max_bulk_size()));
+		theProperties.putIfAbsent(
+				"hibernate.search.backend.indexing.queue_size", String.valueOf(theSettings.getIndexing_queue_size()));
+		theProperties.putIfAbsent(
+				"hibernate.search.backend.indexing.queue_count", String.valueOf(theSettings.getIndexing_queue_count()));
+
+		switch (theSettings.getIndexing_mode()) {
+			case ASYNC -> theProperties.putIfAbsent(
+					"hibernate.search.indexing.plan.synchronization.strategy", "async");
+			case OUTBOX -> {
+				theProperties.putIfAbsent("hibernate.search.coordination.strategy", "outbox-polling");
+				theProperties.putIfAbsent(
+						"hibernate.search.coordination.event_processor.batch_size",
+						String.valueOf(theSettings.getIndexing_outbox_batch_size()));
+				theProperties.putIfAbsent(
+						"hibernate.search.coordination.event_processor.polling_interval",
+						String.valueOf(theSettings.getIndexing_outbox_polling_interval_ms()));
+			}
+			default -> {
+				// SYNC: Hibernate Search default
+			}
+		}
+	}
+
 	@Bean
 	@Primary
 	public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
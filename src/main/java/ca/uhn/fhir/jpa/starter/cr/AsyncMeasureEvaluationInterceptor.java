@@ -0,0 +1,195 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobInstance;
+import ca.uhn.fhir.batch2.model.JobInstanceStartRequest;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.batch.models.Batch2JobStartResponse;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.JsonUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Starts population {@code Measure/[id]/$evaluate-measure} requests sent with {@code Prefer: respond-async} as a
+ * {@link MeasureEvaluationJobConfig#JOB_EVALUATE_MEASURE} Batch2 job and answers {@code 202 Accepted} with a
+ * {@code Content-Location} to poll: the same operation with a {@code _jobId} parameter, which answers
+ * {@code 202 Accepted} while the job runs and the MeasureReport once it is complete.
+ * <p>
+ * Both the kick-off and the polling requests are taken over before the server resolves and authorizes the
+ * operation, so the {@link Pointcut#SERVER_INCOMING_REQUEST_PRE_HANDLED} hooks, e.g. operation rules of the
+ * authorization interceptor, are called for them here, and their responses go through the
+ * {@link Pointcut#SERVER_OUTGOING_RESPONSE} hooks. The caller is authorized once, at kick-off, to read the Group or
+ * to search Patients; the job stores the subject query with the tenant and the caller's name but no credentials, and
+ * its steps resolve and evaluate the subjects on system requests in that tenant, so the kick-off does not wait for
+ * them. A job can only be polled in the tenant and for the Measure it was started for, and by the same caller if one
+ * was authenticated.
+ * <p>
+ * The subject must be a Group or omitted (all patients in the caller's partition).
+ */
+@Interceptor
+public class AsyncMeasureEvaluationInterceptor {
+	private static final Logger ourLog = LoggerFactory.getLogger(AsyncMeasureEvaluationInterceptor.class);
+
+	static final String JOB_ID_PARAMETER = "_jobId";
+
+	private final IJobCoordinator myJobCoordinator;
+	private final MeasureOperationDispatcher myDispatcher;
+	private final int myChunkSize;
+
+	public AsyncMeasureEvaluationInterceptor(
+			IJobCoordinator theJobCoordinator, MeasureOperationDispatcher theDispatcher, int theChunkSize) {
+		myJobCoordinator = theJobCoordinator;
+		myDispatcher = theDispatcher;
+		myChunkSize = theChunkSize;
+	}
+
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+	public boolean startAsyncEvaluation(
+			RequestDetails theRequestDetails,
+			HttpServletRequest theServletRequest,
+			HttpServletResponse theServletResponse)
+			throws IOException {
+		if (theRequestDetails.getRequestType() != RequestTypeEnum.GET
+				|| !MeasureOperationDispatcher.EVALUATE_MEASURE.equals(theRequestDetails.getOperation())
+				|| !"Measure".equals(theRequestDetails.getResourceName())
+				|| theRequestDetails.getId() == null
+				|| !theRequestDetails.getId().hasIdPart()) {
+			return true;
+		}
+		Map<String, List<String>> parameters = MeasureOperationDispatcher.parameters(theRequestDetails);
+		String jobId = MeasureOperationDispatcher.single(parameters, JOB_ID_PARAMETER);
+		String prefer = theServletRequest.getHeader(Constants.HEADER_PREFER);
+		if (jobId == null && (prefer == null || !prefer.contains(Constants.HEADER_PREFER_RESPOND_ASYNC))) {
+			return true;
+		}
+
+		theRequestDetails.setRestOperationType(RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE);
+		myDispatcher.firePreHandled(theRequestDetails);
+		if (jobId != null) {
+			pollEvaluation(theRequestDetails, theServletRequest, theServletResponse, jobId);
+			return false;
+		}
+
+		String subject = MeasureOperationDispatcher.single(parameters, "subject");
+		String reportType = MeasureOperationDispatcher.single(parameters, "reportType");
+		if ((subject != null && !subject.startsWith("Group/"))
+				|| (reportType != null && !"population".equals(reportType))) {
+			throw new InvalidRequestException(
+					"Asynchronous $evaluate-measure supports population reports for a Group or all patients only");
+		}
+
+		// the caller's headers are only used here, to authorize the caller for the subjects
+		myDispatcher.authorizeSubjects(MeasureEvaluationRequest.of(theRequestDetails, theServletRequest), subject);
+
+		MeasureEvaluationJobParameters jobParameters = new MeasureEvaluationJobParameters();
+		jobParameters.setMeasureId(theRequestDetails.getId().getIdPart());
+		jobParameters.setServerBase(theRequestDetails.getFhirServerBase());
+		jobParameters.setSubject(subject);
+		jobParameters.setParameters(parameters);
+		jobParameters.setTenantId(theRequestDetails.getTenantId());
+		jobParameters.setRequestedBy(requestedBy(theServletRequest));
+		jobParameters.setChunkSize(myChunkSize);
+
+		JobInstanceStartRequest startRequest = new JobInstanceStartRequest();
+		startRequest.setJobDefinitionId(MeasureEvaluationJobConfig.JOB_EVALUATE_MEASURE);
+		startRequest.setParameters(jobParameters);
+		Batch2JobStartResponse started = myJobCoordinator.startInstance(theRequestDetails, startRequest);
+		ourLog.info(
+				"Started asynchronous evaluation of Measure/{} as job {}",
+				theRequestDetails.getId().getIdPart(),
+				started.getInstanceId());
+
+		String pollLocation = theRequestDetails.getFhirServerBase() + "/Measure/"
+				+ theRequestDetails.getId().getIdPart() + "/" + MeasureOperationDispatcher.EVALUATE_MEASURE + "?"
+				+ JOB_ID_PARAMETER + "=" + started.getInstanceId();
+		theServletResponse.setHeader(Constants.HEADER_CONTENT_LOCATION, pollLocation);
+		myDispatcher.respond(
+				theRequestDetails,
+				theServletRequest,
+				theServletResponse,
+				HttpServletResponse.SC_ACCEPTED,
+				informational("Measure evaluation started as job " + started.getInstanceId() + ", poll "
+						+ pollLocation + " for the MeasureReport"));
+		return false;
+	}
+
+	private void pollEvaluation(
+			RequestDetails theRequestDetails,
+			HttpServletRequest theServletRequest,
+			HttpServletResponse theServletResponse,
+			String theJobId)
+			throws IOException {
+		JobInstance instance = myJobCoordinator.getInstance(theJobId);
+		if (!MeasureEvaluationJobConfig.JOB_EVALUATE_MEASURE.equals(instance.getJobDefinitionId())) {
+			throw new ResourceNotFoundException("Unknown measure evaluation job " + theJobId);
+		}
+		MeasureEvaluationJobParameters parameters = instance.getParameters(MeasureEvaluationJobParameters.class);
+		if (!theRequestDetails.getId().getIdPart().equals(parameters.getMeasureId())
+				|| !Objects.equals(theRequestDetails.getTenantId(), parameters.getTenantId())
+				|| (parameters.getRequestedBy() != null
+						&& !parameters.getRequestedBy().equals(requestedBy(theServletRequest)))) {
+			throw new ResourceNotFoundException("Unknown measure evaluation job " + theJobId);
+		}
+
+		switch (instance.getStatus()) {
+			case COMPLETED -> {
+				MeasureReportJson result = JsonUtil.deserialize(instance.getReport(), MeasureReportJson.class);
+				MeasureReport report = myDispatcher
+						.getRestfulServer()
+						.getFhirContext()
+						.newJsonParser()
+						.parseResource(MeasureReport.class, result.getMeasureReport());
+				myDispatcher.respond(
+						theRequestDetails, theServletRequest, theServletResponse, HttpServletResponse.SC_OK, report);
+			}
+			case FAILED, CANCELLED -> throw new InternalErrorException("Measure evaluation job " + theJobId + " "
+					+ instance.getStatus() + ": " + instance.getErrorMessage());
+			default -> {
+				theServletResponse.setHeader(
+						"X-Progress", instance.getStatus() + " " + Math.round(instance.getProgress() * 100) + "%");
+				myDispatcher.respond(
+						theRequestDetails,
+						theServletRequest,
+						theServletResponse,
+						HttpServletResponse.SC_ACCEPTED,
+						informational("Measure evaluation job " + theJobId + " is " + instance.getStatus()));
+			}
+		}
+	}
+
+	/**
+	 * @return the name of the authenticated caller, or {@code null}
+	 */
+	private static String requestedBy(HttpServletRequest theServletRequest) {
+		Principal principal = theServletRequest.getUserPrincipal();
+		return principal != null ? principal.getName() : null;
+	}
+
+	private static OperationOutcome informational(String theDiagnostics) {
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue()
+				.setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+				.setCode(OperationOutcome.IssueType.INFORMATIONAL)
+				.setDiagnostics(theDiagnostics);
+		return outcome;
+	}
+}
@@ -0,0 +1,249 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.support.ValueSetExpansionOptions;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDaoValueSet;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.DataRequirement;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.RelatedArtifact;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.fhir.cr.hapi.common.ILibraryProcessorFactory;
+import org.opencds.cqf.fhir.cr.hapi.r4.R4MeasureEvaluatorSingleFactory;
+import org.opencds.cqf.fhir.utility.monad.Eithers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills the global CQL library and value set caches before the first real {@code $evaluate-measure} call pays for
+ * CQL-to-ELM translation and value set expansion. Each Measure is evaluated and each Library is evaluated once for
+ * a non-existent patient, and the value sets the Libraries depend on are expanded. The CR services and DAOs are called
+ * directly on a {@link SystemRequestDetails}, so the warm-up is neither rejected by an authorization interceptor nor
+ * limited to what a particular caller may see.
+ * <p>
+ * The warm-up runs once the application is ready and again after an {@code ImplementationGuide/$install}. As a
+ * {@link HealthIndicator} it reports {@code OUT_OF_SERVICE} until the startup warm-up has finished, so adding it to
+ * the readiness health group keeps traffic away from the instance until then.
+ */
+@Interceptor
+public class CqlCacheWarmer implements HealthIndicator, AutoCloseable {
+	private static final Logger ourLog = LoggerFactory.getLogger(CqlCacheWarmer.class);
+
+	static final String WARMUP_SUBJECT = "Patient/cql-cache-warmup";
+
+	private final DaoRegistry myDaoRegistry;
+	private final R4MeasureEvaluatorSingleFactory myMeasureServiceFactory;
+	private final ILibraryProcessorFactory myLibraryProcessorFactory;
+	private final CqlWarmupProperties myProperties;
+	private final ExecutorService myExecutor;
+	private final AtomicBoolean myStartupWarmupDone = new AtomicBoolean();
+	private final AtomicInteger myTotal = new AtomicInteger();
+	private final AtomicInteger myCompleted = new AtomicInteger();
+	private final AtomicInteger myFailed = new AtomicInteger();
+
+	public CqlCacheWarmer(
+			DaoRegistry theDaoRegistry,
+			R4MeasureEvaluatorSingleFactory theMeasureServiceFactory,
+			ILibraryProcessorFactory theLibraryProcessorFactory,
+			CqlWarmupProperties theProperties) {
+		myDaoRegistry = theDaoRegistry;
+		myMeasureServiceFactory = theMeasureServiceFactory;
+		myLibraryProcessorFactory = theLibraryProcessorFactory;
+		myProperties = theProperties;
+		AtomicInteger threadCounter = new AtomicInteger();
+		myExecutor = Executors.newFixedThreadPool(Math.max(1, theProperties.getParallelism()), runnable -> {
+			Thread thread = new Thread(runnable, "cql-warmup-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		warmUp().whenComplete((result, error) -> myStartupWarmupDone.set(true));
+	}
+
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY)
+	public void onImplementationGuideInstalled(RequestDetails theRequestDetails) {
+		if ("ImplementationGuide".equals(theRequestDetails.getResourceName())
+				&& "$install".equals(theRequestDetails.getOperation())) {
+			warmUp();
+		}
+	}
+
+	/**
+	 * Warms up the caches in the background.
+	 */
+	public CompletableFuture<Void> warmUp() {
+		return CompletableFuture.supplyAsync(this::collectTasks, myExecutor)
+				.thenCompose(tasks -> {
+					myTotal.addAndGet(tasks.size());
+					return CompletableFuture.allOf(tasks.stream()
+							.map(task -> CompletableFuture.runAsync(() -> run(task), myExecutor))
+							.toArray(CompletableFuture[]::new));
+				})
+				.whenComplete((result, error) -> {
+					if (error != null) {
+						ourLog.warn("CQL cache warm-up failed", error);
+					} else {
+						ourLog.info(
+								"CQL cache warm-up finished: {} of {} requests failed", myFailed.get(), myTotal.get());
+					}
+				});
+	}
+
+	private List<WarmupTask> collectTasks() {
+		List<WarmupTask> tasks = new ArrayList<>();
+		Set<String> valueSets = new LinkedHashSet<>();
+
+		for (IBaseResource resource : searchAll("Measure", new SystemRequestDetails())) {
+			Measure measure = (Measure) resource;
+			if (matches(myProperties.getMeasure_urls(), measure.getUrl())) {
+				IdType measureId = measure.getIdElement().toUnqualifiedVersionless();
+				tasks.add(new WarmupTask(measureId.getValue(), () -> evaluateMeasure(measureId)));
+			}
+		}
+		for (IBaseResource resource : searchAll("Library", new SystemRequestDetails())) {
+			Library library = (Library) resource;
+			if (!matches(myProperties.getLibrary_urls(), library.getUrl()) || !hasCql(library)) {
+				continue;
+			}
+			IdType libraryId = library.getIdElement().toUnqualifiedVersionless();
+			tasks.add(new WarmupTask(libraryId.getValue(), () -> evaluateLibrary(libraryId)));
+			valueSets.addAll(valueSets(library));
+		}
+		if (myProperties.getExpand_value_sets()) {
+			for (String valueSet : valueSets) {
+				tasks.add(new WarmupTask(valueSet, () -> expandValueSet(valueSet)));
+			}
+		}
+		ourLog.info("Warming up CQL caches with {} requests", tasks.size());
+		return tasks;
+	}
+
+	private void run(WarmupTask theTask) {
+		try {
+			theTask.action().run();
+		} catch (RuntimeException e) {
+			myFailed.incrementAndGet();
+			ourLog.warn("CQL cache warm-up for {} failed", theTask.target(), e);
+		} finally {
+			myCompleted.incrementAndGet();
+		}
+	}
+
+	private void evaluateMeasure(IdType theMeasureId) {
+		myMeasureServiceFactory
+				.create(new SystemRequestDetails())
+				.evaluate(
+						Eithers.forMiddle3(theMeasureId),
+						null,
+						null,
+						"subject",
+						WARMUP_SUBJECT,
+						null,
+						null,
+						null,
+						null,
+						null,
+						null,
+						null,
+						null);
+	}
+
+	private void evaluateLibrary(IdType theLibraryId) {
+		myLibraryProcessorFactory
+				.create(new SystemRequestDetails())
+				.evaluate(
+						Eithers.forMiddle3(theLibraryId),
+						WARMUP_SUBJECT,
+						null,
+						null,
+						true,
+						null,
+						null,
+						(IBaseResource) null,
+						null,
+						null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expandValueSet(String theUrl) {
+		((IFhirResourceDaoValueSet<ValueSet>) myDaoRegistry.getResourceDao(ValueSet.class))
+				.expandByIdentifier(theUrl, new ValueSetExpansionOptions());
+	}
+
+	private List<IBaseResource> searchAll(String theResourceType, RequestDetails theRequestDetails) {
+		return myDaoRegistry
+				.getResourceDao(theResourceType)
+				.search(SearchParameterMap.newSynchronous(), theRequestDetails)
+				.getAllResources();
+	}
+
+	private static boolean matches(List<String> theUrls, String theUrl) {
+		return theUrls == null || theUrls.isEmpty() || theUrls.contains(theUrl);
+	}
+
+	private static boolean hasCql(Library theLibrary) {
+		return theLibrary.getContent().stream()
+				.anyMatch(content -> "text/cql".equals(content.getContentType())
+						|| "application/elm+json".equals(content.getContentType()));
+	}
+
+	private static Set<String> valueSets(Library theLibrary) {
+		Set<String> valueSets = new LinkedHashSet<>();
+		for (DataRequirement requirement : theLibrary.getDataRequirement()) {
+			for (DataRequirement.DataRequirementCodeFilterComponent filter : requirement.getCodeFilter()) {
+				if (filter.hasValueSet()) {
+					valueSets.add(filter.getValueSet());
+				}
+			}
+		}
+		for (RelatedArtifact artifact : theLibrary.getRelatedArtifact()) {
+			if (artifact.getType() == RelatedArtifact.RelatedArtifactType.DEPENDSON
+					&& artifact.hasResource()
+					&& artifact.getResource().contains("/ValueSet/")) {
+				valueSets.add(artifact.getResource());
+			}
+		}
+		return valueSets;
+	}
+
+	@Override
+	public Health health() {
+		Health.Builder builder = myStartupWarmupDone.get() ? Health.up() : Health.outOfService();
+		return builder.withDetail("requests", myTotal.get())
+				.withDetail("completed", myCompleted.get())
+				.withDetail("failed", myFailed.get())
+				.build();
+	}
+
+	@Override
+	public void close() {
+		myExecutor.shutdownNow();
+	}
+
+	private record WarmupTask(String target, Runnable action) {}
+}
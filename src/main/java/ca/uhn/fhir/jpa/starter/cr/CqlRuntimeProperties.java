@@ -10,6 +10,28 @@ public class CqlRuntimeProperties {
 	private Boolean debug_logging_enabled = false;
 	private Boolean enable_validation = false;
 	private Boolean enable_expression_caching = true;
+	private Integer executor_core_pool_size = 2;
+	private Integer executor_max_pool_size = 2;
+	private Integer executor_queue_capacity = 1000;
+	private RejectionPolicy executor_rejection_policy = RejectionPolicy.CALLER_RUNS;
+	private Long library_cache_max_entries = 1000L;
+	private Long model_cache_max_entries = 100L;
+	private Long value_set_cache_max_codes = 2_000_000L;
+	private Long cache_expire_after_access_seconds = 0L;
+	private String elm_cache_directory;
+	private Boolean cache_event_invalidation_enabled = false;
+	private Long cache_poll_interval_ms;
+	private Long cache_version_poll_interval_ms = 1000L;
+
+	/**
+	 * What the CQL executor does with a task once all threads are busy and the queue is full.
+	 */
+	public enum RejectionPolicy {
+		/** Run the task on the submitting (request) thread, slowing callers down instead of failing them */
+		CALLER_RUNS,
+		/** Fail the task with a {@link java.util.concurrent.RejectedExecutionException} */
+		ABORT
+	}
 
 	public boolean isDebugLoggingEnabled() {
 		return debug_logging_enabled;
@@ -34,4 +56,123 @@ public class CqlRuntimeProperties {
 	public void EnableValidation(boolean enable_validation) {
 		this.enable_validation = enable_validation;
 	}
+
+	public int getExecutorCorePoolSize() {
+		return executor_core_pool_size;
+	}
+
+	public void setExecutorCorePoolSize(int executor_core_pool_size) {
+		this.executor_core_pool_size = executor_core_pool_size;
+	}
+
+	public int getExecutorMaxPoolSize() {
+		return executor_max_pool_size;
+	}
+
+	public void setExecutorMaxPoolSize(int executor_max_pool_size) {
+		this.executor_max_pool_size = executor_max_pool_size;
+	}
+
+	public int getExecutorQueueCapacity() {
+		return executor_queue_capacity;
+	}
+
+	public void setExecutorQueueCapacity(int executor_queue_capacity) {
+		this.executor_queue_capacity = executor_queue_capacity;
+	}
+
+	public RejectionPolicy getExecutorRejectionPolicy() {
+		return executor_rejection_policy;
+	}
+
+	public void setExecutorRejectionPolicy(RejectionPolicy executor_rejection_policy) {
+		this.executor_rejection_policy = executor_rejection_policy;
+	}
+
+	public long getLibraryCacheMaxEntries() {
+		return library_cache_max_entries;
+	}
+
+	public void setLibraryCacheMaxEntries(long library_cache_max_entries) {
+		this.library_cache_max_entries = library_cache_max_entries;
+	}
+
+	public long getModelCacheMaxEntries() {
+		return model_cache_max_entries;
+	}
+
+	public void setModelCacheMaxEntries(long model_cache_max_entries) {
+		this.model_cache_max_entries = model_cache_max_entries;
+	}
+
+	/**
+	 * The value set cache is bounded by the total number of codes across all cached expansions rather than by the
+	 * number of value sets.
+	 */
+	public long getValueSetCacheMaxCodes() {
+		return value_set_cache_max_codes;
+	}
+
+	public void setValueSetCacheMaxCodes(long value_set_cache_max_codes) {
+		this.value_set_cache_max_codes = value_set_cache_max_codes;
+	}
+
+	/**
+	 * Entries of the global CQL caches not used for this many seconds are evicted; {@code 0} disables expiry.
+	 */
+	public long getCacheExpireAfterAccessSeconds() {
+		return cache_expire_after_access_seconds;
+	}
+
+	public void setCacheExpireAfterAccessSeconds(long cache_expire_after_access_seconds) {
+		this.cache_expire_after_access_seconds = cache_expire_after_access_seconds;
+	}
+
+	public String getElmCacheDirectory() {
+		return elm_cache_directory;
+	}
+
+	public void setElmCacheDirectory(String elm_cache_directory) {
+		this.elm_cache_directory = elm_cache_directory;
+	}
+
+	/**
+	 * Whether Library and ValueSet changes are dropped from the caches when a local write commits and announced to the
+	 * other nodes through the {@code CR_CACHE_VERSION} table, which is then part of the persistence unit.
+	 */
+	public boolean isCacheEventInvalidationEnabled() {
+		return cache_event_invalidation_enabled;
+	}
+
+	public void setCacheEventInvalidationEnabled(boolean cache_event_invalidation_enabled) {
+		this.cache_event_invalidation_enabled = cache_event_invalidation_enabled;
+	}
+
+	/**
+	 * How often the Library and ValueSet change listeners compare all resources with the caches: by default every
+	 * second, or every ten minutes with event invalidation, where this is only the fallback for changes made on other
+	 * nodes, which are normally announced through the CR cache version row.
+	 */
+	public long getCachePollIntervalMs() {
+		if (cache_poll_interval_ms != null) {
+			return cache_poll_interval_ms;
+		}
+		return isCacheEventInvalidationEnabled() ? 600_000L : 1000L;
+	}
+
+	public void setCachePollIntervalMs(long cache_poll_interval_ms) {
+		this.cache_poll_interval_ms = cache_poll_interval_ms;
+	}
+
+	/**
+	 * How often each node reads the CR cache version row to learn about Library and ValueSet changes made on other
+	 * nodes.
+	 */
+	public long getCacheVersionPollIntervalMs() {
+		return cache_version_poll_interval_ms;
+	}
+
+	public void setCacheVersionPollIntervalMs(long cache_version_poll_interval_ms) {
+		this.cache_version_poll_interval_ms = cache_version_poll_interval_ms;
+	}
 }
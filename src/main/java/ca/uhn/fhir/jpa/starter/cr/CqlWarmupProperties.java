@@ -0,0 +1,63 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties(prefix = "hapi.fhir.cr.warmup")
+public class CqlWarmupProperties {
+	private Boolean enabled = false;
+	private Integer parallelism = 4;
+	private List<String> measure_urls = new ArrayList<>();
+	private List<String> library_urls = new ArrayList<>();
+	private Boolean expand_value_sets = true;
+
+	public Boolean getEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(Boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public Integer getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Canonical URLs of the Measures to warm up, all Measures if empty.
+	 */
+	public List<String> getMeasure_urls() {
+		return measure_urls;
+	}
+
+	public void setMeasure_urls(List<String> measure_urls) {
+		this.measure_urls = measure_urls;
+	}
+
+	/**
+	 * Canonical URLs of the Libraries to warm up, all Libraries if empty.
+	 */
+	public List<String> getLibrary_urls() {
+		return library_urls;
+	}
+
+	public void setLibrary_urls(List<String> library_urls) {
+		this.library_urls = library_urls;
+	}
+
+	public Boolean getExpand_value_sets() {
+		return expand_value_sets;
+	}
+
+	public void setExpand_value_sets(Boolean expand_value_sets) {
+		this.expand_value_sets = expand_value_sets;
+	}
+}
@@ -0,0 +1,95 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.starter.util.AfterCommit;
+import ca.uhn.fhir.util.FhirTerser;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the cached ELM of a Library, or the cached expansion of a ValueSet, as soon as a local write to that
+ * resource commits. Only the entries of the changed resource are removed, the rest of the CR caches stay warm.
+ * The {@code STORAGE_PRECOMMIT_*} hooks only capture what changed; the entries are dropped by {@link AfterCommit}
+ * once the transaction has committed, and not at all if it rolls back.
+ * <p>
+ * Within the same transaction the change is announced to the other nodes of a cluster through
+ * {@link CrCacheVersionSvc}, which makes them refresh their Library and ValueSet resource change listeners.
+ */
+@Interceptor
+public class CrCacheInvalidationInterceptor {
+	private static final Logger ourLog = LoggerFactory.getLogger(CrCacheInvalidationInterceptor.class);
+
+	private final FhirContext myFhirContext;
+	private final Map<VersionedIdentifier, CompiledLibrary> myLibraryCache;
+	private final Map<String, List<Code>> myValueSetCache;
+	private final CrCacheVersionSvc myCacheVersionSvc;
+
+	public CrCacheInvalidationInterceptor(
+			FhirContext theFhirContext,
+			Map<VersionedIdentifier, CompiledLibrary> theLibraryCache,
+			Map<String, List<Code>> theValueSetCache,
+			CrCacheVersionSvc theCacheVersionSvc) {
+		myFhirContext = theFhirContext;
+		myLibraryCache = theLibraryCache;
+		myValueSetCache = theValueSetCache;
+		myCacheVersionSvc = theCacheVersionSvc;
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		invalidateAfterCommit(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		invalidateAfterCommit(theOldResource);
+		invalidateAfterCommit(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		invalidateAfterCommit(theResource);
+	}
+
+	private void invalidateAfterCommit(IBaseResource theResource) {
+		if (theResource == null) {
+			return;
+		}
+		String resourceType = myFhirContext.getResourceType(theResource);
+		if (!"Library".equals(resourceType) && !"ValueSet".equals(resourceType)) {
+			return;
+		}
+		// read the identifiers now, the resource may be reused once the transaction is done
+		FhirTerser terser = myFhirContext.newTerser();
+		String name = terser.getSinglePrimitiveValueOrNull(theResource, "name");
+		String url = terser.getSinglePrimitiveValueOrNull(theResource, "url");
+		Runnable invalidation =
+				"Library".equals(resourceType) ? () -> invalidateLibrary(name) : () -> invalidateValueSet(url);
+
+		AfterCommit.run(invalidation);
+		myCacheVersionSvc.versionChanged();
+	}
+
+	void invalidateLibrary(String theName) {
+		if (theName != null && myLibraryCache.keySet().removeIf(id -> theName.equals(id.getId()))) {
+			ourLog.debug("Invalidated cached ELM of library {}", theName);
+		}
+	}
+
+	void invalidateValueSet(String theUrl) {
+		if (theUrl != null
+				&& myValueSetCache.keySet().removeIf(key -> key.equals(theUrl) || key.startsWith(theUrl + "|"))) {
+			ourLog.debug("Invalidated cached expansion of value set {}", theUrl);
+		}
+	}
+}
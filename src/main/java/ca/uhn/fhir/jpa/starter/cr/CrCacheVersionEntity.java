@@ -0,0 +1,38 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Single row whose version is raised within every transaction that writes a Library or ValueSet, so that the nodes
+ * of a cluster can tell with a primary key read that their CR caches are out of date.
+ */
+@Entity
+@Table(name = "CR_CACHE_VERSION")
+public class CrCacheVersionEntity {
+
+	@Id
+	@Column(name = "CACHE_NAME", length = 20, nullable = false)
+	private String myId;
+
+	@Column(name = "CHANGE_VERSION", nullable = false)
+	private long myVersion;
+
+	public String getId() {
+		return myId;
+	}
+
+	public void setId(String theId) {
+		myId = theId;
+	}
+
+	public long getVersion() {
+		return myVersion;
+	}
+
+	public void setVersion(long theVersion) {
+		myVersion = theVersion;
+	}
+}
@@ -0,0 +1,148 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.jpa.cache.IResourceChangeListenerCache;
+import ca.uhn.fhir.jpa.model.sched.HapiJob;
+import ca.uhn.fhir.jpa.model.sched.IHasScheduledJobs;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import jakarta.persistence.EntityManager;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells the nodes of a cluster that a Library or ValueSet has changed elsewhere. Every transaction that writes one
+ * raises the version of a single {@link CrCacheVersionEntity} row, and each node reads that row by primary key at
+ * {@code hapi.fhir.cr.cql.runtime.cache_version_poll_interval_ms}. Once the version has moved, the Library and
+ * ValueSet resource change listeners are refreshed right away, so they only have to poll the resources themselves
+ * as a fallback.
+ * <p>
+ * The row lock serializes the transactions writing Library and ValueSet resources, which are rare. The
+ * {@code CR_CACHE_VERSION} table is only part of the persistence unit when
+ * {@code hapi.fhir.cr.cql.runtime.cache_event_invalidation_enabled} is set: Hibernate creates it with
+ * {@code hbm2ddl.auto: update}, otherwise it has to be created with the DDL documented in {@code application.yaml},
+ * or {@code hbm2ddl.auto: validate} fails at startup. If the row cannot be created at startup despite the table,
+ * e.g. for lack of privileges, the version is neither raised nor polled and changes made on other nodes are only seen
+ * by the fallback polling.
+ */
+public class CrCacheVersionSvc implements IHasScheduledJobs {
+	private static final Logger ourLog = LoggerFactory.getLogger(CrCacheVersionSvc.class);
+
+	static final String ROW_ID = "cql";
+
+	private final EntityManager myEntityManager;
+	private final TransactionTemplate myTxTemplate;
+	private final long myPollIntervalMs;
+	private final List<IResourceChangeListenerCache> myListenerCaches = new CopyOnWriteArrayList<>();
+	private volatile boolean myEnabled;
+	private volatile long myLastSeenVersion;
+
+	public CrCacheVersionSvc(EntityManager theEntityManager, TransactionTemplate theTxTemplate, long thePollIntervalMs) {
+		myEntityManager = theEntityManager;
+		myTxTemplate = theTxTemplate;
+		myPollIntervalMs = thePollIntervalMs;
+	}
+
+	/**
+	 * Creates the version row if no node has done so yet and remembers its version.
+	 */
+	public void start() {
+		try {
+			myLastSeenVersion = readOrCreateVersion();
+			myEnabled = true;
+		} catch (RuntimeException e) {
+			ourLog.warn(
+					"Unable to use the CR_CACHE_VERSION table, Library and ValueSet changes made on other nodes are "
+							+ "only picked up by polling",
+					e);
+		}
+	}
+
+	private long readOrCreateVersion() {
+		try {
+			return myTxTemplate.execute(status -> {
+				CrCacheVersionEntity entity = myEntityManager.find(CrCacheVersionEntity.class, ROW_ID);
+				if (entity == null) {
+					entity = new CrCacheVersionEntity();
+					entity.setId(ROW_ID);
+					myEntityManager.persist(entity);
+				}
+				return entity.getVersion();
+			});
+		} catch (DataIntegrityViolationException e) {
+			// another node created the row first
+			return readVersion();
+		}
+	}
+
+	private long readVersion() {
+		return myTxTemplate.execute(
+				status -> myEntityManager.find(CrCacheVersionEntity.class, ROW_ID).getVersion());
+	}
+
+	/**
+	 * Refreshes the given change listener cache as soon as another node has changed a Library or ValueSet.
+	 */
+	public void refreshOnChange(IResourceChangeListenerCache theListenerCache) {
+		myListenerCaches.add(theListenerCache);
+	}
+
+	/**
+	 * Raises the version within the current transaction, so that the other nodes see it once the change commits.
+	 */
+	public void versionChanged() {
+		if (myEnabled) {
+			myEntityManager
+					.createQuery("UPDATE CrCacheVersionEntity v SET v.myVersion = v.myVersion + 1 WHERE v.myId = :id")
+					.setParameter("id", ROW_ID)
+					.executeUpdate();
+		}
+	}
+
+	void pollForChanges() {
+		if (!myEnabled) {
+			return;
+		}
+		long version;
+		try {
+			version = readVersion();
+		} catch (RuntimeException e) {
+			ourLog.warn("Unable to read the CR cache version", e);
+			return;
+		}
+		if (version == myLastSeenVersion) {
+			return;
+		}
+		myLastSeenVersion = version;
+		ourLog.debug("CR cache version changed to {}, refreshing the Library and ValueSet listeners", version);
+		myListenerCaches.forEach(IResourceChangeListenerCache::forceRefresh);
+	}
+
+	boolean isEnabled() {
+		return myEnabled;
+	}
+
+	@Override
+	public void scheduleJobs(ISchedulerService theSchedulerService) {
+		ScheduledJobDefinition jobDefinition = new ScheduledJobDefinition();
+		jobDefinition.setId(getClass().getName());
+		jobDefinition.setJobClass(Job.class);
+		theSchedulerService.scheduleLocalJob(myPollIntervalMs, jobDefinition);
+	}
+
+	public static class Job implements HapiJob {
+		@Autowired
+		private CrCacheVersionSvc myTarget;
+
+		@Override
+		public void execute(JobExecutionContext theContext) {
+			myTarget.pollForChanges();
+		}
+	}
+}
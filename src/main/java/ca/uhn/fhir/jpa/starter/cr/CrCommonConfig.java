@@ -1,16 +1,30 @@
 package ca.uhn.fhir.jpa.starter.cr;
 
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.cache.IResourceChangeEvent;
+import ca.uhn.fhir.jpa.cache.IResourceChangeListener;
+import ca.uhn.fhir.jpa.cache.IResourceChangeListenerCache;
 import ca.uhn.fhir.jpa.cache.IResourceChangeListenerRegistry;
 import ca.uhn.fhir.jpa.cache.ResourceChangeListenerRegistryInterceptor;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.provider.ResourceProviderFactory;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.google.common.collect.ForwardingMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.persistence.EntityManagerFactory;
 import org.cqframework.cql.cql2elm.CqlCompilerOptions;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
 import org.cqframework.cql.cql2elm.model.Model;
 import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.opencds.cqf.cql.engine.execution.CqlEngine;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.fhir.cql.EvaluationSettings;
@@ -23,19 +37,30 @@ import org.opencds.cqf.fhir.cr.measure.CareGapsProperties;
 import org.opencds.cqf.fhir.cr.measure.MeasureEvaluationOptions;
 import org.opencds.cqf.fhir.utility.ValidationProfile;
 import org.opencds.cqf.fhir.utility.client.TerminologyServerClientSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
 import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @Conditional({CrConfigCondition.class})
@@ -64,7 +89,8 @@ public class CrCommonConfig {
 			TerminologySettings theTerminologySettings,
 			Map<VersionedIdentifier, CompiledLibrary> theGlobalLibraryCache,
 			Map<ModelIdentifier, Model> theGlobalModelCache,
-			Map<String, List<Code>> theGlobalValueSetCache) {
+			Map<String, List<Code>> theGlobalValueSetCache,
+			ObjectProvider<PersistentElmCache> thePersistentElmCache) {
 		var evaluationSettings = EvaluationSettings.getDefault();
 		var cqlOptions = evaluationSettings.getCqlOptions();
 
@@ -138,17 +164,37 @@ public class CrCommonConfig {
 		evaluationSettings.setValueSetCache(theGlobalValueSetCache);
 		evaluationSettings.setRetrieveSettings(theRetrieveSettings);
 		evaluationSettings.setTerminologySettings(theTerminologySettings);
+		thePersistentElmCache.ifAvailable(
+				elmCache -> evaluationSettings.setLibrarySourceProviders(List.of(elmCache)));
 		return evaluationSettings;
 	}
 
+	/**
+	 * Executor for CQL work such as {@code $evaluate-measure} and care gaps. Sized through
+	 * {@code hapi.fhir.cr.cql.runtime.executor_*} and monitored under the {@code cql} executor name
+	 * ({@code executor.queued}, {@code executor.active}, {@code executor} task timer, {@code executor.idle} queue
+	 * wait timer).
+	 */
 	@Primary
 	@Bean
-	public ExecutorService cqlExecutor() {
-		CqlThreadFactory factory = new CqlThreadFactory();
-		ExecutorService executor = Executors.newFixedThreadPool(2, factory);
-		executor = new DelegatingSecurityContextExecutorService(executor);
+	public ExecutorService cqlExecutor(CqlRuntimeProperties cqlRuntimeProperties, MeterRegistry meterRegistry) {
+		int corePoolSize = cqlRuntimeProperties.getExecutorCorePoolSize();
+		int maxPoolSize = Math.max(corePoolSize, cqlRuntimeProperties.getExecutorMaxPoolSize());
+		RejectedExecutionHandler rejectionHandler =
+				cqlRuntimeProperties.getExecutorRejectionPolicy() == CqlRuntimeProperties.RejectionPolicy.ABORT
+						? new ThreadPoolExecutor.AbortPolicy()
+						: new ThreadPoolExecutor.CallerRunsPolicy();
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+				corePoolSize,
+				maxPoolSize,
+				60,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(cqlRuntimeProperties.getExecutorQueueCapacity()),
+				new CqlThreadFactory(),
+				rejectionHandler);
 
-		return executor;
+		ExecutorService executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPool, "cql");
+		return new DelegatingSecurityContextExecutorService(executor);
 	}
 
 	@Bean(name = "measure.CareGapsProperties")
@@ -181,29 +227,166 @@ public class CrCommonConfig {
 	}
 
 	@Bean
-	public Map<VersionedIdentifier, CompiledLibrary> globalLibraryCache() {
-		return new ConcurrentHashMap<>();
+	public Map<VersionedIdentifier, CompiledLibrary> globalLibraryCache(
+			CqlRuntimeProperties cqlRuntimeProperties,
+			MeterRegistry meterRegistry,
+			ObjectProvider<PersistentElmCache> persistentElmCache) {
+		Map<VersionedIdentifier, CompiledLibrary> cache = boundedCache(
+				"cql.library",
+				cqlRuntimeProperties.getLibraryCacheMaxEntries(),
+				(id, library) -> 1,
+				cqlRuntimeProperties,
+				meterRegistry);
+		PersistentElmCache elmCache = persistentElmCache.getIfAvailable();
+		return elmCache != null ? elmCache.writeThrough(cache) : cache;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.cql.runtime", name = "elm_cache_directory")
+	public PersistentElmCache persistentElmCache(
+			CqlRuntimeProperties cqlRuntimeProperties,
+			FhirContext fhirContext,
+			DaoRegistry daoRegistry,
+			IInterceptorService interceptorService)
+			throws IOException {
+		PersistentElmCache elmCache =
+				new PersistentElmCache(Path.of(cqlRuntimeProperties.getElmCacheDirectory()), fhirContext, daoRegistry);
+		interceptorService.registerInterceptor(elmCache);
+		return elmCache;
+	}
+
+	@Bean
+	public Map<ModelIdentifier, Model> globalModelCache(
+			CqlRuntimeProperties cqlRuntimeProperties, MeterRegistry meterRegistry) {
+		return boundedCache(
+				"cql.model",
+				cqlRuntimeProperties.getModelCacheMaxEntries(),
+				(id, model) -> 1,
+				cqlRuntimeProperties,
+				meterRegistry);
 	}
 
 	@Bean
-	public Map<ModelIdentifier, Model> globalModelCache() {
-		return new ConcurrentHashMap<>();
+	public Map<String, List<Code>> globalValueSetCache(
+			CqlRuntimeProperties cqlRuntimeProperties, MeterRegistry meterRegistry) {
+		return boundedCache(
+				"cql.valueset",
+				cqlRuntimeProperties.getValueSetCacheMaxCodes(),
+				(url, codes) -> Math.max(1, codes.size()),
+				cqlRuntimeProperties,
+				meterRegistry);
+	}
+
+	/**
+	 * The CR module only sees these caches as maps, so a Caffeine cache is handed out through its map view.
+	 * Hit/miss/eviction counts are exported as the {@code cache.*} meters tagged with the cache name. The CQL library
+	 * manager only calls {@code get}, {@code containsKey} and {@code put}, for which the map view records no
+	 * statistics, so {@code get} goes through {@link Cache#getIfPresent} instead. {@code containsKey} stays on the map
+	 * view: the library manager follows it with a {@code get}, which would otherwise count the same lookup twice.
+	 */
+	static <K, V> Map<K, V> boundedCache(
+			String name,
+			long maximumWeight,
+			Weigher<K, V> weigher,
+			CqlRuntimeProperties cqlRuntimeProperties,
+			MeterRegistry meterRegistry) {
+		Caffeine<K, V> builder = Caffeine.newBuilder()
+				.maximumWeight(maximumWeight)
+				.weigher(weigher)
+				.recordStats();
+		if (cqlRuntimeProperties.getCacheExpireAfterAccessSeconds() > 0) {
+			builder.expireAfterAccess(Duration.ofSeconds(cqlRuntimeProperties.getCacheExpireAfterAccessSeconds()));
+		}
+		Cache<K, V> cache = builder.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+		return new ForwardingMap<>() {
+			@Override
+			protected Map<K, V> delegate() {
+				return cache.asMap();
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public V get(Object theKey) {
+				return theKey != null ? cache.getIfPresent((K) theKey) : null;
+			}
+
+			@Override
+			public boolean containsKey(Object theKey) {
+				return theKey != null && cache.asMap().containsKey(theKey);
+			}
+
+			@Override
+			public void putAll(Map<? extends K, ? extends V> theMap) {
+				cache.putAll(theMap);
+			}
+		};
 	}
 
+	/**
+	 * Announces Library / ValueSet writes to the other nodes of a cluster through the CR_CACHE_VERSION row, so that
+	 * the change listeners below only have to poll as a fallback. The table's entity is only added to the persistence
+	 * unit with this property, see {@code StarterJpaConfig}.
+	 */
 	@Bean
-	public Map<String, List<Code>> globalValueSetCache() {
-		return new ConcurrentHashMap<>();
+	@ConditionalOnProperty(
+			prefix = "hapi.fhir.cr.cql.runtime",
+			name = "cache_event_invalidation_enabled",
+			havingValue = "true")
+	public CrCacheVersionSvc crCacheVersionSvc(
+			EntityManagerFactory theEntityManagerFactory,
+			PlatformTransactionManager theTransactionManager,
+			CqlRuntimeProperties theCqlRuntimeProperties) {
+		CrCacheVersionSvc svc = new CrCacheVersionSvc(
+				SharedEntityManagerCreator.createSharedEntityManager(theEntityManagerFactory),
+				new TransactionTemplate(theTransactionManager),
+				theCqlRuntimeProperties.getCacheVersionPollIntervalMs());
+		svc.start();
+		return svc;
+	}
+
+	/**
+	 * Invalidates the changed Library / ValueSet entries right after a local commit.
+	 */
+	@Bean
+	@ConditionalOnProperty(
+			prefix = "hapi.fhir.cr.cql.runtime",
+			name = "cache_event_invalidation_enabled",
+			havingValue = "true")
+	public CrCacheInvalidationInterceptor crCacheInvalidationInterceptor(
+			FhirContext theFhirContext,
+			EvaluationSettings theEvaluationSettings,
+			IInterceptorService theInterceptorService,
+			CrCacheVersionSvc theCacheVersionSvc) {
+		CrCacheInvalidationInterceptor interceptor = new CrCacheInvalidationInterceptor(
+				theFhirContext,
+				theEvaluationSettings.getLibraryCache(),
+				theEvaluationSettings.getValueSetCache(),
+				theCacheVersionSvc);
+		theInterceptorService.registerInterceptor(interceptor);
+		return interceptor;
 	}
 
 	@Bean
 	public ElmCacheResourceChangeListener elmCacheResourceChangeListener(
 			IResourceChangeListenerRegistry theResourceChangeListenerRegistry,
 			DaoRegistry theDaoRegistry,
-			EvaluationSettings theEvaluationSettings) {
+			EvaluationSettings theEvaluationSettings,
+			CqlRuntimeProperties theCqlRuntimeProperties,
+			ObjectProvider<PersistentElmCache> thePersistentElmCache,
+			ObjectProvider<CrCacheVersionSvc> theCacheVersionSvc) {
 		ElmCacheResourceChangeListener listener =
 				new ElmCacheResourceChangeListener(theDaoRegistry, theEvaluationSettings.getLibraryCache());
-		theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
-				"Library", SearchParameterMap.newSynchronous(), listener, 1000);
+		// a single Library listener, so that Library versions are polled once; the stored ELM goes first so that it is
+		// no longer served by the time the compiled library is dropped
+		PersistentElmCache elmCache = thePersistentElmCache.getIfAvailable();
+		IResourceChangeListenerCache listenerCache =
+				theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
+						"Library",
+						SearchParameterMap.newSynchronous(),
+						elmCache != null ? new ChainedResourceChangeListener(elmCache, listener) : listener,
+						theCqlRuntimeProperties.getCachePollIntervalMs());
+		theCacheVersionSvc.ifAvailable(svc -> svc.refreshOnChange(listenerCache));
 		return listener;
 	}
 
@@ -211,17 +394,45 @@ public class CrCommonConfig {
 	public CodeCacheResourceChangeListener codeCacheResourceChangeListener(
 			IResourceChangeListenerRegistry theResourceChangeListenerRegistry,
 			EvaluationSettings theEvaluationSettings,
-			DaoRegistry theDaoRegistry) {
+			DaoRegistry theDaoRegistry,
+			CqlRuntimeProperties theCqlRuntimeProperties,
+			ObjectProvider<CrCacheVersionSvc> theCacheVersionSvc) {
 
 		CodeCacheResourceChangeListener listener =
 				new CodeCacheResourceChangeListener(theDaoRegistry, theEvaluationSettings.getValueSetCache());
 		// registry
-		theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
-				"ValueSet", SearchParameterMap.newSynchronous(), listener, 1000);
+		IResourceChangeListenerCache listenerCache =
+				theResourceChangeListenerRegistry.registerResourceResourceChangeListener(
+						"ValueSet",
+						SearchParameterMap.newSynchronous(),
+						listener,
+						theCqlRuntimeProperties.getCachePollIntervalMs());
+		theCacheVersionSvc.ifAvailable(svc -> svc.refreshOnChange(listenerCache));
 
 		return listener;
 	}
 
+	/**
+	 * Hands every change to several listeners, in order.
+	 */
+	static class ChainedResourceChangeListener implements IResourceChangeListener {
+		private final List<IResourceChangeListener> myListeners;
+
+		ChainedResourceChangeListener(IResourceChangeListener... theListeners) {
+			myListeners = List.of(theListeners);
+		}
+
+		@Override
+		public void handleInit(Collection<IIdType> theResourceIds) {
+			myListeners.forEach(listener -> listener.handleInit(theResourceIds));
+		}
+
+		@Override
+		public void handleChange(IResourceChangeEvent theResourceChangeEvent) {
+			myListeners.forEach(listener -> listener.handleChange(theResourceChangeEvent));
+		}
+	}
+
 	@Bean
 	public ResourceChangeListenerRegistryInterceptor resourceChangeListenerRegistryInterceptor() {
 		return new ResourceChangeListenerRegistryInterceptor();
@@ -0,0 +1,52 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IJobStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.r4.model.MeasureReport;
+
+import java.util.List;
+
+/**
+ * Evaluates the measure for each subject of a chunk and emits the chunk's merged population report. Subjects are
+ * evaluated on system requests in the tenant of the kick-off request, which was authorized when the job was started.
+ * Chunks are persisted by Batch2, so after a restart only the chunks that had not completed are evaluated again.
+ */
+public class EvaluateSubjectsStep
+		implements IJobStepWorker<MeasureEvaluationJobParameters, SubjectChunkJson, MeasureReportJson> {
+
+	private final MeasureOperationDispatcher myDispatcher;
+
+	public EvaluateSubjectsStep(MeasureOperationDispatcher theDispatcher) {
+		myDispatcher = theDispatcher;
+	}
+
+	@Nonnull
+	@Override
+	public RunOutcome run(
+			@Nonnull StepExecutionDetails<MeasureEvaluationJobParameters, SubjectChunkJson> theStepExecutionDetails,
+			@Nonnull IJobDataSink<MeasureReportJson> theDataSink)
+			throws JobExecutionFailedException {
+		MeasureEvaluationJobParameters parameters = theStepExecutionDetails.getParameters();
+		List<String> subjects = theStepExecutionDetails.getData().getSubjects();
+
+		MeasureEvaluationRequest request = parameters.toEvaluationRequest();
+		MeasureReportMerger merger = new MeasureReportMerger();
+		for (String subject : subjects) {
+			merger.add(myDispatcher.evaluateJobSubject(request, subject));
+		}
+		MeasureReport report = merger.getReport();
+		if (report != null) {
+			String encoded = myDispatcher
+					.getRestfulServer()
+					.getFhirContext()
+					.newJsonParser()
+					.encodeResourceToString(report);
+			theDataSink.accept(new MeasureReportJson(subjects.size(), encoded));
+		}
+		return new RunOutcome(subjects.size());
+	}
+}
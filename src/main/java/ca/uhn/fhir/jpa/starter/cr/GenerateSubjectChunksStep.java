@@ -0,0 +1,45 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.batch2.api.IFirstJobStepWorker;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import jakarta.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * First step of the measure evaluation job: resolves the subjects, the Patient members of the Group or the ids of all
+ * Patients in the partition of the kick-off request, and splits them into work chunks. The caller was authorized for
+ * the subject when the job was started.
+ */
+public class GenerateSubjectChunksStep
+		implements IFirstJobStepWorker<MeasureEvaluationJobParameters, SubjectChunkJson> {
+
+	private final MeasureOperationDispatcher myDispatcher;
+
+	public GenerateSubjectChunksStep(MeasureOperationDispatcher theDispatcher) {
+		myDispatcher = theDispatcher;
+	}
+
+	@Nonnull
+	@Override
+	public RunOutcome run(
+			@Nonnull StepExecutionDetails<MeasureEvaluationJobParameters, VoidModel> theStepExecutionDetails,
+			@Nonnull IJobDataSink<SubjectChunkJson> theDataSink)
+			throws JobExecutionFailedException {
+		MeasureEvaluationJobParameters parameters = theStepExecutionDetails.getParameters();
+		List<String> subjects =
+				myDispatcher.jobSubjects(parameters.toEvaluationRequest(), parameters.getSubject());
+
+		int chunkSize = Math.max(1, parameters.getChunkSize());
+		for (int from = 0; from < subjects.size(); from += chunkSize) {
+			theDataSink.accept(new SubjectChunkJson(
+					new ArrayList<>(subjects.subList(from, Math.min(from + chunkSize, subjects.size())))));
+		}
+		return new RunOutcome(subjects.size());
+	}
+}
@@ -0,0 +1,60 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Batch2 job for asynchronous population {@code $evaluate-measure}: subjects are resolved and split into chunks,
+ * each chunk is evaluated on whichever node picks it up, and the chunk reports are reduced into the final
+ * MeasureReport. The job definition is registered with Batch2 by the {@code Batch2JobRegisterer}.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "hapi.fhir.cr.parallel-evaluation", name = "async-enabled", havingValue = "true")
+public class MeasureEvaluationJobConfig {
+
+	public static final String JOB_EVALUATE_MEASURE = "CR_EVALUATE_MEASURE";
+
+	@Bean
+	public JobDefinition<MeasureEvaluationJobParameters> measureEvaluationJobDefinition(
+			MeasureOperationDispatcher theDispatcher, FhirContext theFhirContext) {
+		return JobDefinition.newBuilder()
+				.setJobDefinitionId(JOB_EVALUATE_MEASURE)
+				.setJobDescription("Population $evaluate-measure")
+				.setJobDefinitionVersion(1)
+				.setParametersType(MeasureEvaluationJobParameters.class)
+				.gatedExecution()
+				.addFirstStep(
+						"generate-subject-chunks",
+						"Resolve the subjects and split them into chunks",
+						SubjectChunkJson.class,
+						new GenerateSubjectChunksStep(theDispatcher))
+				.addIntermediateStep(
+						"evaluate-subjects",
+						"Evaluate the measure for the subjects of a chunk",
+						MeasureReportJson.class,
+						new EvaluateSubjectsStep(theDispatcher))
+				.addFinalReducerStep(
+						"merge-reports",
+						"Merge the chunk reports into the population report",
+						MeasureReportJson.class,
+						new MergeMeasureReportsStep(theFhirContext))
+				.build();
+	}
+
+	@Bean
+	public AsyncMeasureEvaluationInterceptor asyncMeasureEvaluationInterceptor(
+			RestfulServer theRestfulServer,
+			IJobCoordinator theJobCoordinator,
+			MeasureOperationDispatcher theDispatcher,
+			ParallelEvaluationProperties theProperties) {
+		AsyncMeasureEvaluationInterceptor interceptor =
+				new AsyncMeasureEvaluationInterceptor(theJobCoordinator, theDispatcher, theProperties.getChunk_size());
+		theRestfulServer.registerInterceptor(interceptor);
+		return interceptor;
+	}
+}
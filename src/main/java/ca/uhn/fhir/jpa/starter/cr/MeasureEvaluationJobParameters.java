@@ -0,0 +1,101 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameters of an asynchronous {@code $evaluate-measure} job, captured from the kick-off request once the caller has
+ * been authorized. They hold the subject query, the tenant and the caller's name, never the caller's credentials; the
+ * subjects themselves are resolved by {@link GenerateSubjectChunksStep}.
+ */
+public class MeasureEvaluationJobParameters implements IModelJson {
+
+	/** Id part of the evaluated Measure */
+	@JsonProperty("measureId")
+	private String myMeasureId;
+
+	/** Base URL of the FHIR server as seen by the caller */
+	@JsonProperty("serverBase")
+	private String myServerBase;
+
+	/** A {@code Group/[id]}, or {@code null} for all patients */
+	@JsonProperty("subject")
+	private String mySubject;
+
+	@JsonProperty("parameters")
+	private Map<String, List<String>> myParameters;
+
+	/** Name of the authenticated caller who started the job, or {@code null} */
+	@JsonProperty("requestedBy")
+	private String myRequestedBy;
+
+	/** Tenant the kick-off request was addressed to, or {@code null} */
+	@JsonProperty("tenantId")
+	private String myTenantId;
+
+	@JsonProperty("chunkSize")
+	private int myChunkSize;
+
+	public String getMeasureId() {
+		return myMeasureId;
+	}
+
+	public void setMeasureId(String theMeasureId) {
+		myMeasureId = theMeasureId;
+	}
+
+	public String getServerBase() {
+		return myServerBase;
+	}
+
+	public void setServerBase(String theServerBase) {
+		myServerBase = theServerBase;
+	}
+
+	public String getSubject() {
+		return mySubject;
+	}
+
+	public void setSubject(String theSubject) {
+		mySubject = theSubject;
+	}
+
+	public Map<String, List<String>> getParameters() {
+		return myParameters;
+	}
+
+	public void setParameters(Map<String, List<String>> theParameters) {
+		myParameters = theParameters;
+	}
+
+	public String getRequestedBy() {
+		return myRequestedBy;
+	}
+
+	public void setRequestedBy(String theRequestedBy) {
+		myRequestedBy = theRequestedBy;
+	}
+
+	public String getTenantId() {
+		return myTenantId;
+	}
+
+	public void setTenantId(String theTenantId) {
+		myTenantId = theTenantId;
+	}
+
+	public int getChunkSize() {
+		return myChunkSize;
+	}
+
+	public void setChunkSize(int theChunkSize) {
+		myChunkSize = theChunkSize;
+	}
+
+	MeasureEvaluationRequest toEvaluationRequest() {
+		return new MeasureEvaluationRequest(myMeasureId, myParameters, Map.of(), myTenantId, myServerBase);
+	}
+}
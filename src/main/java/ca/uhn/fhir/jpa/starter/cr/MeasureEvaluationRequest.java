@@ -0,0 +1,33 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the per-subject evaluations of a population {@code $evaluate-measure} request need to know about it.
+ *
+ * @param measureId  id part of the evaluated Measure
+ * @param parameters operation parameters; {@code subject} is replaced for each subject
+ * @param headers    request headers the subject evaluations are authorized with, e.g. {@code Authorization}
+ * @param tenantId   tenant the request was addressed to, or {@code null}
+ * @param serverBase base URL of the FHIR server as seen by the caller
+ */
+public record MeasureEvaluationRequest(
+		String measureId,
+		Map<String, List<String>> parameters,
+		Map<String, List<String>> headers,
+		String tenantId,
+		String serverBase) {
+
+	static MeasureEvaluationRequest of(RequestDetails theRequestDetails, HttpServletRequest theServletRequest) {
+		return new MeasureEvaluationRequest(
+				theRequestDetails.getId().getIdPart(),
+				MeasureOperationDispatcher.parameters(theRequestDetails),
+				MeasureOperationDispatcher.headers(theServletRequest),
+				theRequestDetails.getTenantId(),
+				theRequestDetails.getFhirServerBase());
+	}
+}
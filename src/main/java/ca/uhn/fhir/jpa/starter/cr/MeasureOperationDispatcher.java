@@ -0,0 +1,313 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Group;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
+import org.opencds.cqf.fhir.cr.hapi.r4.R4MeasureEvaluatorSingleFactory;
+import org.opencds.cqf.fhir.utility.monad.Eithers;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs {@code $evaluate-measure} for single subjects with the CR measure service, for the parallel and asynchronous
+ * measure evaluation modes.
+ */
+public class MeasureOperationDispatcher {
+
+	static final String EVALUATE_MEASURE = "$evaluate-measure";
+
+	private final RestfulServer myRestfulServer;
+	private final DaoRegistry myDaoRegistry;
+	private final R4MeasureEvaluatorSingleFactory myMeasureServiceFactory;
+	private final StringTimePeriodHandler myTimePeriodHandler;
+
+	public MeasureOperationDispatcher(
+			RestfulServer theRestfulServer,
+			DaoRegistry theDaoRegistry,
+			R4MeasureEvaluatorSingleFactory theMeasureServiceFactory,
+			StringTimePeriodHandler theTimePeriodHandler) {
+		myRestfulServer = theRestfulServer;
+		myDaoRegistry = theDaoRegistry;
+		myMeasureServiceFactory = theMeasureServiceFactory;
+		myTimePeriodHandler = theTimePeriodHandler;
+	}
+
+	/**
+	 * Evaluates the measure for a single subject as a population report by calling the CR measure service directly.
+	 * <p>
+	 * Every subject is evaluated on a request of its own, which carries the headers and tenant of
+	 * {@code theRequest} and is passed through {@link Pointcut#SERVER_INCOMING_REQUEST_PRE_HANDLED} as an
+	 * {@code $evaluate-measure} request for that subject, so authorization and partitioning apply as they would to
+	 * a regular request.
+	 */
+	public MeasureReport evaluateSubject(MeasureEvaluationRequest theRequest, String theSubject) {
+		Map<String, List<String>> parameters = theRequest.parameters();
+		Map<String, String[]> requestParameters = new LinkedHashMap<>();
+		parameters.forEach((name, values) -> requestParameters.put(name, values.toArray(String[]::new)));
+		requestParameters.put("subject", new String[] {theSubject});
+
+		IdType measureId = new IdType("Measure", theRequest.measureId());
+		ServletRequestDetails requestDetails = newRequestDetails(
+				theRequest, RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE, "Measure", measureId);
+		requestDetails.setOperation(EVALUATE_MEASURE);
+		requestDetails.setParameters(requestParameters);
+		firePreHandled(requestDetails);
+
+		return evaluate(requestDetails, measureId, parameters, theSubject);
+	}
+
+	/**
+	 * Evaluates the measure for a single subject of an asynchronous evaluation job, whose caller has been authorized
+	 * by {@link #authorizeSubjects} when the job was started. The job holds no credentials: the subject is evaluated
+	 * on a system request in the tenant of the job.
+	 */
+	public MeasureReport evaluateJobSubject(MeasureEvaluationRequest theRequest, String theSubject) {
+		return evaluate(
+				jobRequestDetails(theRequest),
+				new IdType("Measure", theRequest.measureId()),
+				theRequest.parameters(),
+				theSubject);
+	}
+
+	/**
+	 * Authorizes the caller of an asynchronous evaluation for its subjects without resolving them: the caller reads
+	 * the Group, or, for all patients, the {@link Pointcut#SERVER_INCOMING_REQUEST_PRE_HANDLED} hooks are called for
+	 * a Patient search by the caller.
+	 */
+	public void authorizeSubjects(MeasureEvaluationRequest theRequest, String theSubject) {
+		if (theSubject != null) {
+			IdType groupId = new IdType(theSubject);
+			myDaoRegistry
+					.getResourceDao(Group.class)
+					.read(groupId, newRequestDetails(theRequest, RestOperationTypeEnum.READ, "Group", groupId));
+		} else {
+			firePreHandled(newRequestDetails(theRequest, RestOperationTypeEnum.SEARCH_TYPE, "Patient", null));
+		}
+	}
+
+	/**
+	 * Resolves the subjects of an asynchronous evaluation job on a system request in the tenant of the job: the
+	 * Patient members of the Group, or all Patients.
+	 */
+	public List<String> jobSubjects(MeasureEvaluationRequest theRequest, String theSubject) {
+		SystemRequestDetails requestDetails = jobRequestDetails(theRequest);
+		return theSubject != null ? groupPatients(theSubject, requestDetails) : allPatients(requestDetails);
+	}
+
+	private static SystemRequestDetails jobRequestDetails(MeasureEvaluationRequest theRequest) {
+		SystemRequestDetails requestDetails = new SystemRequestDetails();
+		requestDetails.setTenantId(theRequest.tenantId());
+		requestDetails.setFhirServerBase(theRequest.serverBase());
+		return requestDetails;
+	}
+
+	private MeasureReport evaluate(
+			RequestDetails theRequestDetails,
+			IdType theMeasureId,
+			Map<String, List<String>> theParameters,
+			String theSubject) {
+		return myMeasureServiceFactory
+				.create(theRequestDetails)
+				.evaluate(
+						Eithers.forMiddle3(theMeasureId),
+						myTimePeriodHandler.getStartZonedDateTime(
+								single(theParameters, "periodStart"), theRequestDetails),
+						myTimePeriodHandler.getEndZonedDateTime(single(theParameters, "periodEnd"), theRequestDetails),
+						"population",
+						theSubject,
+						single(theParameters, "lastReceivedOn"),
+						null,
+						null,
+						null,
+						null,
+						null,
+						single(theParameters, "productLine"),
+						single(theParameters, "practitioner"));
+	}
+
+	/**
+	 * Creates the request details for work done on behalf of {@code theRequest} outside of the servlet: they carry
+	 * its headers, tenant and server base.
+	 */
+	public ServletRequestDetails newRequestDetails(
+			MeasureEvaluationRequest theRequest,
+			RestOperationTypeEnum theOperationType,
+			String theResourceName,
+			IIdType theId) {
+		MockHttpServletRequest servletRequest = new MockHttpServletRequest("GET", "/" + theResourceName);
+		theRequest.headers().forEach((name, values) -> values.forEach(value -> servletRequest.addHeader(name, value)));
+
+		ServletRequestDetails requestDetails = new ServletRequestDetails(myRestfulServer.getInterceptorService());
+		requestDetails.setServletRequest(servletRequest);
+		requestDetails.setServer(myRestfulServer);
+		requestDetails.setRequestType(RequestTypeEnum.GET);
+		requestDetails.setFhirServerBase(theRequest.serverBase());
+		requestDetails.setTenantId(theRequest.tenantId());
+		requestDetails.setResourceName(theResourceName);
+		requestDetails.setRestOperationType(theOperationType);
+		requestDetails.setId(theId);
+		return requestDetails;
+	}
+
+	/**
+	 * Calls the {@link Pointcut#SERVER_INCOMING_REQUEST_PRE_HANDLED} hooks, e.g. the authorization interceptor, for
+	 * a request that is not handled by a method binding of the {@link RestfulServer}: either one taken over by an
+	 * interceptor before the server got to it, or one created by {@link #newRequestDetails}.
+	 */
+	public void firePreHandled(RequestDetails theRequestDetails) {
+		IInterceptorBroadcaster interceptorBroadcaster = myRestfulServer.getInterceptorService();
+		if (interceptorBroadcaster.hasHooks(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED)) {
+			HookParams params = new HookParams()
+					.add(RequestDetails.class, theRequestDetails)
+					.addIfMatchesType(ServletRequestDetails.class, theRequestDetails)
+					.add(RestOperationTypeEnum.class, theRequestDetails.getRestOperationType());
+			interceptorBroadcaster.callHooks(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED, params);
+		}
+	}
+
+	/**
+	 * @return the active Patient members of a Group, e.g. {@code Patient/123}, leaving out those whose period has ended
+	 */
+	public List<String> groupPatients(String theGroupId, RequestDetails theRequestDetails) {
+		Group group = myDaoRegistry.getResourceDao(Group.class).read(new IdType(theGroupId), theRequestDetails);
+		Date now = new Date();
+		List<String> patients = new ArrayList<>();
+		for (Group.GroupMemberComponent member : group.getMember()) {
+			String reference = member.getEntity().getReference();
+			boolean ended = member.hasPeriod()
+					&& member.getPeriod().hasEnd()
+					&& member.getPeriod().getEnd().before(now);
+			if (!member.getInactive() && !ended && reference != null && reference.startsWith("Patient/")) {
+				patients.add(reference);
+			}
+		}
+		return patients;
+	}
+
+	/**
+	 * @return all Patients on the server, e.g. {@code Patient/123}; only their ids are loaded
+	 */
+	public List<String> allPatients(RequestDetails theRequestDetails) {
+		return myDaoRegistry
+				.getResourceDao(Patient.class)
+				.searchForResourceIds(new SearchParameterMap(), theRequestDetails)
+				.stream()
+				.map(id -> id.toUnqualifiedVersionless().getValue())
+				.toList();
+	}
+
+	public RestfulServer getRestfulServer() {
+		return myRestfulServer;
+	}
+
+	static Map<String, List<String>> parameters(RequestDetails theRequestDetails) {
+		Map<String, List<String>> parameters = new LinkedHashMap<>();
+		theRequestDetails.getParameters().forEach((name, values) -> parameters.put(name, List.of(values)));
+		return parameters;
+	}
+
+	static Map<String, List<String>> headers(HttpServletRequest theServletRequest) {
+		Map<String, List<String>> headers = new LinkedHashMap<>();
+		for (String name : Collections.list(theServletRequest.getHeaderNames())) {
+			headers.put(name, Collections.list(theServletRequest.getHeaders(name)));
+		}
+		return headers;
+	}
+
+	static String single(Map<String, List<String>> theParameters, String theName) {
+		List<String> values = theParameters.get(theName);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * Sends a resource as the response of a request that an interceptor has taken over, calling the hooks the server
+	 * calls around a response it writes itself: {@link Pointcut#SERVER_OUTGOING_RESPONSE}, whose hooks may replace
+	 * the resource or answer the request themselves, before writing it and
+	 * {@link Pointcut#SERVER_PROCESSING_COMPLETED_NORMALLY} afterwards. The server calls
+	 * {@link Pointcut#SERVER_PROCESSING_COMPLETED} itself once the interceptor has returned {@code false}.
+	 */
+	void respond(
+			RequestDetails theRequestDetails,
+			HttpServletRequest theServletRequest,
+			HttpServletResponse theServletResponse,
+			int theStatus,
+			IBaseResource theResource)
+			throws IOException {
+		IInterceptorBroadcaster interceptorBroadcaster = myRestfulServer.getInterceptorService();
+		IBaseResource resource = theResource;
+		int status = theStatus;
+		if (interceptorBroadcaster.hasHooks(Pointcut.SERVER_OUTGOING_RESPONSE)) {
+			ResponseDetails responseDetails = new ResponseDetails(resource);
+			responseDetails.setResponseCode(status);
+			HookParams params = new HookParams()
+					.add(RequestDetails.class, theRequestDetails)
+					.addIfMatchesType(ServletRequestDetails.class, theRequestDetails)
+					.add(IBaseResource.class, resource)
+					.add(ResponseDetails.class, responseDetails)
+					.add(HttpServletRequest.class, theServletRequest)
+					.add(HttpServletResponse.class, theServletResponse);
+			if (!interceptorBroadcaster.callHooks(Pointcut.SERVER_OUTGOING_RESPONSE, params)) {
+				return;
+			}
+			resource = responseDetails.getResponseResource();
+			status = responseDetails.getResponseCode();
+		}
+
+		writeResource(theRequestDetails, theServletResponse, status, resource);
+
+		if (interceptorBroadcaster.hasHooks(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY)) {
+			HookParams params = new HookParams()
+					.add(RequestDetails.class, theRequestDetails)
+					.addIfMatchesType(ServletRequestDetails.class, theRequestDetails);
+			interceptorBroadcaster.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY, params);
+		}
+	}
+
+	/**
+	 * Writes a resource as the response of a request that an interceptor has taken over, honouring the
+	 * requested encoding and pretty printing.
+	 */
+	private void writeResource(
+			RequestDetails theRequestDetails,
+			HttpServletResponse theServletResponse,
+			int theStatus,
+			IBaseResource theResource)
+			throws IOException {
+		EncodingEnum encoding = RestfulServerUtils.determineResponseEncodingWithDefault(theRequestDetails)
+				.getEncoding();
+		IParser parser = encoding.newParser(myRestfulServer.getFhirContext())
+				.setPrettyPrint(RestfulServerUtils.prettyPrintResponse(myRestfulServer, theRequestDetails));
+		theServletResponse.setStatus(theStatus);
+		theServletResponse.setCharacterEncoding("UTF-8");
+		theServletResponse.setContentType(encoding.getResourceContentTypeNonLegacy());
+		parser.encodeResourceToWriter(theResource, theServletResponse.getWriter());
+	}
+}
@@ -0,0 +1,40 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A (partial) MeasureReport passed between the steps of the measure evaluation job, and the job's final report.
+ */
+public class MeasureReportJson implements IModelJson {
+
+	@JsonProperty("subjectCount")
+	private int mySubjectCount;
+
+	/** The MeasureReport encoded as FHIR JSON */
+	@JsonProperty("measureReport")
+	private String myMeasureReport;
+
+	public MeasureReportJson() {}
+
+	public MeasureReportJson(int theSubjectCount, String theMeasureReport) {
+		mySubjectCount = theSubjectCount;
+		myMeasureReport = theMeasureReport;
+	}
+
+	public int getSubjectCount() {
+		return mySubjectCount;
+	}
+
+	public void setSubjectCount(int theSubjectCount) {
+		mySubjectCount = theSubjectCount;
+	}
+
+	public String getMeasureReport() {
+		return myMeasureReport;
+	}
+
+	public void setMeasureReport(String theMeasureReport) {
+		myMeasureReport = theMeasureReport;
+	}
+}
@@ -0,0 +1,423 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupComponent;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupPopulationComponent;
+import org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupStratifierComponent;
+import org.hl7.fhir.r4.model.MeasureReport.StratifierGroupComponent;
+import org.hl7.fhir.r4.model.MeasureReport.StratifierGroupComponentComponent;
+import org.hl7.fhir.r4.model.MeasureReport.StratifierGroupPopulationComponent;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Combines population {@link MeasureReport}s evaluated over disjoint sets of subjects into the report the CR module
+ * would have produced for all of them at once: population counts are summed per group, stratifier and stratum,
+ * proportion scores are recomputed from the summed counts, and the rest of the report is unioned.
+ * <p>
+ * Contained resources are merged by content: the supplemental data Observations, which hold a count per value, are
+ * summed, and the subject lists referenced by {@code subjectResults} are concatenated. Local references to
+ * contained resources, e.g. from the supplemental data extensions, are renumbered to point at the merged ones.
+ * Evaluated resources and report extensions are unioned, including the extensions of the evaluated resources.
+ */
+final class MeasureReportMerger {
+
+	private static final FhirContext ourFhirContext = FhirContext.forR4Cached();
+
+	private MeasureReport myReport;
+
+	// Indexes over myReport, kept up to date as reports are added so that adding one costs the size of that report,
+	// not of the report merged so far
+	private final Map<String, GroupIndex> myGroups = new HashMap<>();
+	private final Map<String, Reference> myEvaluatedResources = new HashMap<>();
+	private final Map<String, Set<String>> myEvaluatedResourceExtensions = new HashMap<>();
+	private final Set<String> myExtensions = new HashSet<>();
+	private final Map<String, Resource> myContainedById = new HashMap<>();
+	private final Map<String, Resource> myContainedByContent = new HashMap<>();
+	private final Set<String> mySubjectListIds = new HashSet<>();
+
+	/**
+	 * Adds the report of further subjects. The report is copied, it is not modified.
+	 */
+	void add(MeasureReport theSource) {
+		MeasureReport source = theSource.copy();
+		if (myReport == null) {
+			myReport = source;
+			index();
+			return;
+		}
+		Set<Resource> mergedSubjectLists = Collections.newSetFromMap(new IdentityHashMap<>());
+		mergeContained(source);
+
+		for (MeasureReportGroupComponent sourceGroup : source.getGroup()) {
+			String key = key(sourceGroup.getId(), sourceGroup.getCode());
+			GroupIndex group = myGroups.get(key);
+			if (group == null) {
+				myReport.addGroup(sourceGroup);
+				myGroups.put(key, new GroupIndex(sourceGroup));
+				continue;
+			}
+			mergeGroupPopulations(group, sourceGroup.getPopulation(), mergedSubjectLists);
+			mergeStratifiers(group, sourceGroup, mergedSubjectLists);
+		}
+		if (!mergedSubjectLists.isEmpty()) {
+			myReport.getContained().removeIf(mergedSubjectLists::contains);
+		}
+
+		for (Reference reference : source.getEvaluatedResource()) {
+			Reference existing = myEvaluatedResources.putIfAbsent(reference.getReference(), reference);
+			if (existing == null) {
+				myReport.addEvaluatedResource(reference);
+			} else if (reference.hasExtension()) {
+				Set<String> keys = myEvaluatedResourceExtensions.computeIfAbsent(
+						reference.getReference(), ref -> extensionKeys(existing.getExtension()));
+				mergeExtensions(existing.getExtension(), keys, reference.getExtension());
+			}
+		}
+		mergeExtensions(myReport.getExtension(), myExtensions, source.getExtension());
+	}
+
+	/**
+	 * @return the merged report, or {@code null} if no report was added
+	 */
+	MeasureReport getReport() {
+		return myReport;
+	}
+
+	private void index() {
+		for (MeasureReportGroupComponent group : myReport.getGroup()) {
+			myGroups.putIfAbsent(key(group.getId(), group.getCode()), new GroupIndex(group));
+		}
+		for (Reference reference : myReport.getEvaluatedResource()) {
+			myEvaluatedResources.putIfAbsent(reference.getReference(), reference);
+		}
+		myExtensions.addAll(extensionKeys(myReport.getExtension()));
+		mySubjectListIds.addAll(subjectResultIds(myReport));
+		for (Resource contained : myReport.getContained()) {
+			String id = localId(contained);
+			myContainedById.put(id, contained);
+			if (!mySubjectListIds.contains(id)) {
+				myContainedByContent.putIfAbsent(contentKey(contained), contained);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the measure score of every group and stratum from its population counts, as
+	 * {@code (numerator - numerator-exclusion) / (denominator - denominator-exclusion - denominator-exception)}.
+	 * Groups without a numerator and denominator (cohort measures) are left untouched.
+	 */
+	static void scoreProportions(MeasureReport theReport) {
+		for (MeasureReportGroupComponent group : theReport.getGroup()) {
+			Map<String, Integer> counts = group.getPopulation().stream()
+					.collect(Collectors.toMap(
+							p -> populationCode(p.getCode()),
+							MeasureReportGroupPopulationComponent::getCount,
+							Integer::sum));
+			if (isProportion(counts)) {
+				group.setMeasureScore(score(counts));
+			}
+			for (MeasureReportGroupStratifierComponent stratifier : group.getStratifier()) {
+				for (StratifierGroupComponent stratum : stratifier.getStratum()) {
+					Map<String, Integer> stratumCounts = stratum.getPopulation().stream()
+							.collect(Collectors.toMap(
+									p -> populationCode(p.getCode()),
+									StratifierGroupPopulationComponent::getCount,
+									Integer::sum));
+					if (isProportion(stratumCounts)) {
+						stratum.setMeasureScore(score(stratumCounts));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the contained resources of {@code theSource} to the report, merging those that only differ in their count,
+	 * and points the local references of {@code theSource} at the resources they ended up as.
+	 */
+	private void mergeContained(MeasureReport theSource) {
+		Set<String> sourceSubjectLists = subjectResultIds(theSource);
+		Map<String, String> ids = new HashMap<>();
+		for (Resource contained : theSource.getContained()) {
+			String id = localId(contained);
+			boolean subjectList = sourceSubjectLists.contains(id);
+			String contentKey = subjectList ? null : contentKey(contained);
+			Resource match = subjectList ? null : myContainedByContent.get(contentKey);
+			if (match != null) {
+				addCount(match, contained);
+				ids.put(id, localId(match));
+				continue;
+			}
+			String newId = id;
+			for (int i = 1; myContainedById.containsKey(newId); i++) {
+				newId = id + "-" + i;
+			}
+			ids.put(id, newId);
+			contained.setId(newId);
+			myReport.addContained(contained);
+			myContainedById.put(newId, contained);
+			if (subjectList) {
+				mySubjectListIds.add(newId);
+			} else {
+				myContainedByContent.put(contentKey, contained);
+			}
+		}
+
+		for (Reference reference :
+				ourFhirContext.newTerser().getAllPopulatedChildElementsOfType(theSource, Reference.class)) {
+			String value = reference.getReference();
+			if (value != null && value.startsWith("#") && ids.containsKey(value.substring(1))) {
+				reference.setReference("#" + ids.get(value.substring(1)));
+			}
+		}
+	}
+
+	private void mergeGroupPopulations(
+			GroupIndex theTarget,
+			List<MeasureReportGroupPopulationComponent> theSource,
+			Set<Resource> theMergedSubjectLists) {
+		for (MeasureReportGroupPopulationComponent source : theSource) {
+			String key = key(source.getId(), source.getCode());
+			MeasureReportGroupPopulationComponent population = theTarget.populations.get(key);
+			if (population == null) {
+				theTarget.group.addPopulation(source);
+				theTarget.populations.put(key, source);
+			} else {
+				population.setCount(population.getCount() + source.getCount());
+				mergeSubjectResults(population.getSubjectResults(), source.getSubjectResults(), theMergedSubjectLists);
+			}
+		}
+	}
+
+	private void mergeStratifiers(
+			GroupIndex theTarget, MeasureReportGroupComponent theSource, Set<Resource> theMergedSubjectLists) {
+		for (MeasureReportGroupStratifierComponent sourceStratifier : theSource.getStratifier()) {
+			String stratifierKey = key(sourceStratifier.getId(), sourceStratifier.getCodeFirstRep());
+			StratifierIndex stratifier = theTarget.stratifiers.get(stratifierKey);
+			if (stratifier == null) {
+				theTarget.group.addStratifier(sourceStratifier);
+				theTarget.stratifiers.put(stratifierKey, new StratifierIndex(sourceStratifier));
+				continue;
+			}
+			for (StratifierGroupComponent sourceStratum : sourceStratifier.getStratum()) {
+				String stratumKey = stratumKey(sourceStratum);
+				StratumIndex stratum = stratifier.strata.get(stratumKey);
+				if (stratum == null) {
+					stratifier.stratifier.addStratum(sourceStratum);
+					stratifier.strata.put(stratumKey, new StratumIndex(sourceStratum));
+					continue;
+				}
+				for (StratifierGroupPopulationComponent source : sourceStratum.getPopulation()) {
+					String key = key(source.getId(), source.getCode());
+					StratifierGroupPopulationComponent population = stratum.populations.get(key);
+					if (population == null) {
+						stratum.stratum.addPopulation(source);
+						stratum.populations.put(key, source);
+					} else {
+						population.setCount(population.getCount() + source.getCount());
+						mergeSubjectResults(
+								population.getSubjectResults(), source.getSubjectResults(), theMergedSubjectLists);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends the subjects listed by {@code theSource} to the list referenced by {@code theTarget}. Both lists are
+	 * contained in the report at this point; the source list is collected in {@code theMergedSubjectLists}, to be
+	 * dropped once all its entries have moved.
+	 */
+	private void mergeSubjectResults(Reference theTarget, Reference theSource, Set<Resource> theMergedSubjectLists) {
+		if (!theSource.hasReference()) {
+			return;
+		}
+		if (!theTarget.hasReference()) {
+			theTarget.setReference(theSource.getReference());
+			return;
+		}
+		if (contained(theTarget) instanceof ListResource target
+				&& contained(theSource) instanceof ListResource source
+				&& target != source) {
+			source.getEntry().forEach(target::addEntry);
+			String sourceId = localId(source);
+			myContainedById.remove(sourceId);
+			mySubjectListIds.remove(sourceId);
+			theMergedSubjectLists.add(source);
+		}
+	}
+
+	private static void mergeExtensions(List<Extension> theTarget, Set<String> theTargetKeys, List<Extension> theSource) {
+		for (Extension extension : theSource) {
+			if (theTargetKeys.add(extensionKey(extension))) {
+				theTarget.add(extension);
+			}
+		}
+	}
+
+	private static Set<String> extensionKeys(List<Extension> theExtensions) {
+		Set<String> keys = new HashSet<>();
+		theExtensions.forEach(extension -> keys.add(extensionKey(extension)));
+		return keys;
+	}
+
+	private static String extensionKey(Extension theExtension) {
+		return ourFhirContext.newJsonParser().encodeToString(theExtension);
+	}
+
+	/**
+	 * Supplemental data Observations of a population report carry the number of subjects with a value; two of them
+	 * that agree on everything else are counts of the same value.
+	 */
+	private static void addCount(Resource theTarget, Resource theSource) {
+		if (theTarget instanceof Observation target
+				&& theSource instanceof Observation source
+				&& target.getValue() instanceof IntegerType targetCount
+				&& source.getValue() instanceof IntegerType sourceCount) {
+			targetCount.setValue(targetCount.getValue() + sourceCount.getValue());
+		}
+	}
+
+	private static String contentKey(Resource theResource) {
+		Resource copy = theResource.copy();
+		copy.setId((String) null);
+		if (copy instanceof Observation observation && observation.getValue() instanceof IntegerType) {
+			observation.setValue(null);
+		}
+		return ourFhirContext.newJsonParser().encodeResourceToString(copy);
+	}
+
+	private static Set<String> subjectResultIds(MeasureReport theReport) {
+		Set<String> ids = new HashSet<>();
+		for (MeasureReportGroupComponent group : theReport.getGroup()) {
+			group.getPopulation().forEach(p -> addLocalId(ids, p.getSubjectResults()));
+			for (MeasureReportGroupStratifierComponent stratifier : group.getStratifier()) {
+				for (StratifierGroupComponent stratum : stratifier.getStratum()) {
+					stratum.getPopulation().forEach(p -> addLocalId(ids, p.getSubjectResults()));
+				}
+			}
+		}
+		return ids;
+	}
+
+	private static void addLocalId(Set<String> theIds, Reference theReference) {
+		String value = theReference.getReference();
+		if (value != null && value.startsWith("#")) {
+			theIds.add(value.substring(1));
+		}
+	}
+
+	private Resource contained(Reference theReference) {
+		String value = theReference.getReference();
+		return value != null && value.startsWith("#") ? myContainedById.get(value.substring(1)) : null;
+	}
+
+	private static String localId(Resource theResource) {
+		String id = theResource.getIdElement().getIdPart();
+		return id != null && id.startsWith("#") ? id.substring(1) : id;
+	}
+
+	private static boolean isProportion(Map<String, Integer> theCounts) {
+		return theCounts.containsKey("numerator") && theCounts.containsKey("denominator");
+	}
+
+	private static Quantity score(Map<String, Integer> theCounts) {
+		int numerator = theCounts.get("numerator") - theCounts.getOrDefault("numerator-exclusion", 0);
+		int denominator = theCounts.get("denominator")
+				- theCounts.getOrDefault("denominator-exclusion", 0)
+				- theCounts.getOrDefault("denominator-exception", 0);
+		return denominator > 0 ? new Quantity((double) numerator / denominator) : null;
+	}
+
+	private static String stratumKey(StratifierGroupComponent theStratum) {
+		StringBuilder key = new StringBuilder(conceptKey(theStratum.getValue()));
+		for (StratifierGroupComponentComponent component : theStratum.getComponent()) {
+			key.append('|')
+					.append(conceptKey(component.getCode()))
+					.append('=')
+					.append(conceptKey(component.getValue()));
+		}
+		return key.toString();
+	}
+
+	private static String key(String theId, CodeableConcept theCode) {
+		return theId != null ? theId : conceptKey(theCode);
+	}
+
+	private static String conceptKey(CodeableConcept theConcept) {
+		if (theConcept == null || theConcept.isEmpty()) {
+			return "";
+		}
+		if (theConcept.hasCoding()) {
+			return theConcept.getCodingFirstRep().getSystem() + "#" + theConcept.getCodingFirstRep().getCode();
+		}
+		return theConcept.getText();
+	}
+
+	private static String populationCode(CodeableConcept theCode) {
+		return theCode.hasCoding() ? theCode.getCodingFirstRep().getCode() : theCode.getText();
+	}
+
+	private static <T> Map<String, T> index(List<T> theElements, Function<T, String> theKey) {
+		Map<String, T> index = new HashMap<>();
+		for (T element : theElements) {
+			index.putIfAbsent(theKey.apply(element), element);
+		}
+		return index;
+	}
+
+	private static final class GroupIndex {
+		private final MeasureReportGroupComponent group;
+		private final Map<String, MeasureReportGroupPopulationComponent> populations;
+		private final Map<String, StratifierIndex> stratifiers = new HashMap<>();
+
+		private GroupIndex(MeasureReportGroupComponent theGroup) {
+			group = theGroup;
+			populations = index(theGroup.getPopulation(), p -> key(p.getId(), p.getCode()));
+			for (MeasureReportGroupStratifierComponent stratifier : theGroup.getStratifier()) {
+				stratifiers.putIfAbsent(
+						key(stratifier.getId(), stratifier.getCodeFirstRep()), new StratifierIndex(stratifier));
+			}
+		}
+	}
+
+	private static final class StratifierIndex {
+		private final MeasureReportGroupStratifierComponent stratifier;
+		private final Map<String, StratumIndex> strata = new HashMap<>();
+
+		private StratifierIndex(MeasureReportGroupStratifierComponent theStratifier) {
+			stratifier = theStratifier;
+			for (StratifierGroupComponent stratum : theStratifier.getStratum()) {
+				strata.putIfAbsent(stratumKey(stratum), new StratumIndex(stratum));
+			}
+		}
+	}
+
+	private static final class StratumIndex {
+		private final StratifierGroupComponent stratum;
+		private final Map<String, StratifierGroupPopulationComponent> populations;
+
+		private StratumIndex(StratifierGroupComponent theStratum) {
+			stratum = theStratum;
+			populations = index(theStratum.getPopulation(), p -> key(p.getId(), p.getCode()));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.batch2.api.ChunkExecutionDetails;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IReductionStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.model.ChunkOutcome;
+import ca.uhn.fhir.context.FhirContext;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Reference;
+
+/**
+ * Final step of the measure evaluation job: merges the chunk reports into the population report, which Batch2
+ * stores as the job instance report.
+ */
+public class MergeMeasureReportsStep
+		implements IReductionStepWorker<MeasureEvaluationJobParameters, MeasureReportJson, MeasureReportJson> {
+
+	private final FhirContext myFhirContext;
+	private final MeasureReportMerger myMerger = new MeasureReportMerger();
+	private int mySubjectCount;
+
+	public MergeMeasureReportsStep(FhirContext theFhirContext) {
+		myFhirContext = theFhirContext;
+	}
+
+	@Nonnull
+	@Override
+	public ChunkOutcome consume(
+			ChunkExecutionDetails<MeasureEvaluationJobParameters, MeasureReportJson> theChunkDetails) {
+		MeasureReportJson chunk = theChunkDetails.getData();
+		MeasureReport chunkReport =
+				myFhirContext.newJsonParser().parseResource(MeasureReport.class, chunk.getMeasureReport());
+		myMerger.add(chunkReport);
+		mySubjectCount += chunk.getSubjectCount();
+		return ChunkOutcome.SUCCESS();
+	}
+
+	@Nonnull
+	@Override
+	public RunOutcome run(
+			@Nonnull StepExecutionDetails<MeasureEvaluationJobParameters, MeasureReportJson> theStepExecutionDetails,
+			@Nonnull IJobDataSink<MeasureReportJson> theDataSink)
+			throws JobExecutionFailedException {
+		MeasureReport report = myMerger.getReport() != null ? myMerger.getReport() : new MeasureReport();
+		MeasureReportMerger.scoreProportions(report);
+		report.setId((String) null);
+		String subject = theStepExecutionDetails.getParameters().getSubject();
+		if (subject != null) {
+			report.setSubject(new Reference(subject));
+		}
+		theDataSink.accept(
+				new MeasureReportJson(mySubjectCount, myFhirContext.newJsonParser().encodeResourceToString(report)));
+		return new RunOutcome(mySubjectCount);
+	}
+
+	@Nonnull
+	@Override
+	public IReductionStepWorker<MeasureEvaluationJobParameters, MeasureReportJson, MeasureReportJson> newInstance() {
+		return new MergeMeasureReportsStep(myFhirContext);
+	}
+}
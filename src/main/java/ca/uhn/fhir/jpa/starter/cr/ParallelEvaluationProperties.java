@@ -0,0 +1,66 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "hapi.fhir.cr.parallel-evaluation")
+public class ParallelEvaluationProperties {
+	private Boolean enabled = false;
+	private Boolean async_enabled = false;
+	private Integer parallelism = 0;
+	private Integer chunk_size = 25;
+	private Integer min_subjects = 50;
+
+	public Boolean getEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(Boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Run {@code $evaluate-measure} requests sent with {@code Prefer: respond-async} as a Batch2 job.
+	 */
+	public Boolean getAsync_enabled() {
+		return async_enabled;
+	}
+
+	public void setAsync_enabled(Boolean async_enabled) {
+		this.async_enabled = async_enabled;
+	}
+
+	/**
+	 * Number of worker threads, {@code 0} for one per available processor.
+	 */
+	public Integer getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Patients per work item, for both the parallel and the asynchronous (Batch2 work chunk) evaluation.
+	 */
+	public Integer getChunk_size() {
+		return chunk_size;
+	}
+
+	public void setChunk_size(Integer chunk_size) {
+		this.chunk_size = chunk_size;
+	}
+
+	/**
+	 * Groups with fewer members are evaluated by the CR module as usual.
+	 */
+	public Integer getMin_subjects() {
+		return min_subjects;
+	}
+
+	public void setMin_subjects(Integer min_subjects) {
+		this.min_subjects = min_subjects;
+	}
+}
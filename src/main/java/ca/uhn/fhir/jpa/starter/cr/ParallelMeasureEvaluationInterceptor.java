@@ -0,0 +1,135 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Takes over population {@code Measure/[id]/$evaluate-measure} requests whose subject is a Group and evaluates the
+ * group's patients in parallel with a {@link ParallelMeasureEvaluator}. Each patient is evaluated by the CR measure
+ * service on a request carrying the caller's headers and tenant, and the per-patient reports are merged.
+ * <p>
+ * The request is taken over before the server resolves and authorizes the operation, so the
+ * {@link Pointcut#SERVER_INCOMING_REQUEST_PRE_HANDLED} hooks, e.g. operation rules of the authorization interceptor,
+ * are called for it here before anything is read as the caller or evaluated. Whether to take the request over is
+ * decided beforehand on a system request, so the hooks are called either here or by the server, never twice. The
+ * merged report goes through the {@link Pointcut#SERVER_OUTGOING_RESPONSE} and
+ * {@link Pointcut#SERVER_PROCESSING_COMPLETED_NORMALLY} hooks like any response the server writes.
+ * <p>
+ * Only GET requests for proportion and cohort measures are handled; everything else, including groups smaller than
+ * {@code hapi.fhir.cr.parallel_evaluation.min_subjects}, is left to the CR module. Requests asking for
+ * {@code respond-async} are left to {@link AsyncMeasureEvaluationInterceptor}.
+ */
+@Interceptor
+public class ParallelMeasureEvaluationInterceptor {
+	private static final Logger ourLog = LoggerFactory.getLogger(ParallelMeasureEvaluationInterceptor.class);
+
+	private static final Set<String> SUPPORTED_SCORING = Set.of("proportion", "cohort");
+
+	private final MeasureOperationDispatcher myDispatcher;
+	private final DaoRegistry myDaoRegistry;
+	private final ParallelMeasureEvaluator myEvaluator;
+	private final int myMinSubjects;
+
+	public ParallelMeasureEvaluationInterceptor(
+			MeasureOperationDispatcher theDispatcher,
+			DaoRegistry theDaoRegistry,
+			ParallelMeasureEvaluator theEvaluator,
+			int theMinSubjects) {
+		myDispatcher = theDispatcher;
+		myDaoRegistry = theDaoRegistry;
+		myEvaluator = theEvaluator;
+		myMinSubjects = theMinSubjects;
+	}
+
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+	public boolean evaluateGroupInParallel(
+			RequestDetails theRequestDetails,
+			HttpServletRequest theServletRequest,
+			HttpServletResponse theServletResponse)
+			throws IOException {
+		String prefer = theServletRequest.getHeader(Constants.HEADER_PREFER);
+		if (theRequestDetails.getRequestType() != RequestTypeEnum.GET
+				|| (prefer != null && prefer.contains(Constants.HEADER_PREFER_RESPOND_ASYNC))
+				|| !MeasureOperationDispatcher.EVALUATE_MEASURE.equals(theRequestDetails.getOperation())
+				|| !"Measure".equals(theRequestDetails.getResourceName())
+				|| theRequestDetails.getId() == null
+				|| !theRequestDetails.getId().hasIdPart()) {
+			return true;
+		}
+		Map<String, List<String>> parameters = MeasureOperationDispatcher.parameters(theRequestDetails);
+		String subject = MeasureOperationDispatcher.single(parameters, "subject");
+		String reportType = MeasureOperationDispatcher.single(parameters, "reportType");
+		if (subject == null
+				|| !subject.startsWith("Group/")
+				|| (reportType != null && !"population".equals(reportType))) {
+			return true;
+		}
+
+		// decide whether to take the request over before any server hook sees it, so that the hooks are called once,
+		// either here or by the server when the request falls through
+		SystemRequestDetails systemRequest = new SystemRequestDetails();
+		systemRequest.setTenantId(theRequestDetails.getTenantId());
+		IdType measureId = new IdType("Measure", theRequestDetails.getId().getIdPart());
+		try {
+			if (!isSupportedScoring(myDaoRegistry.getResourceDao(Measure.class).read(measureId, systemRequest))
+					|| myDispatcher.groupPatients(subject, systemRequest).size() < Math.max(1, myMinSubjects)) {
+				return true;
+			}
+		} catch (ResourceNotFoundException | ResourceGoneException e) {
+			// answered by the server, after the caller has been authorized
+			return true;
+		}
+
+		theRequestDetails.setRestOperationType(RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE);
+		myDispatcher.firePreHandled(theRequestDetails);
+
+		// read again as the caller, now that the operation has been authorized
+		Measure measure = myDaoRegistry.getResourceDao(Measure.class).read(measureId, theRequestDetails);
+		List<String> patients = myDispatcher.groupPatients(subject, theRequestDetails);
+
+		ourLog.debug("Evaluating {} for {} patients of {} in parallel", measure.getIdPart(), patients.size(), subject);
+		MeasureEvaluationRequest request = MeasureEvaluationRequest.of(theRequestDetails, theServletRequest);
+		MeasureReport report =
+				myEvaluator.evaluate(patients, patient -> myDispatcher.evaluateSubject(request, patient));
+		if (report == null) {
+			// the hooks have been called, the request can no longer fall through
+			throw new InvalidRequestException(subject + " no longer has active Patient members");
+		}
+		report.setId((String) null);
+		report.setSubject(new Reference(subject));
+		myDispatcher.respond(
+				theRequestDetails, theServletRequest, theServletResponse, HttpServletResponse.SC_OK, report);
+		return false;
+	}
+
+	/**
+	 * Measures without a measure level scoring, e.g. with a scoring per group, are left to the CR module
+	 */
+	private static boolean isSupportedScoring(Measure theMeasure) {
+		return theMeasure.hasScoring()
+				&& SUPPORTED_SCORING.contains(theMeasure.getScoring().getCodingFirstRep().getCode());
+	}
+}
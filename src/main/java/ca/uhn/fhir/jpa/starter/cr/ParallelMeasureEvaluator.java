@@ -0,0 +1,75 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import org.hl7.fhir.r4.model.MeasureReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+/**
+ * Evaluates a population measure subject by subject on a work-stealing pool. Subjects are split into chunks, each
+ * chunk is evaluated on one worker and the chunk reports are merged in subject order with
+ * {@link MeasureReportMerger}, so the result does not depend on scheduling.
+ */
+public class ParallelMeasureEvaluator implements AutoCloseable {
+
+	private final ForkJoinPool myPool;
+	private final int myChunkSize;
+
+	public ParallelMeasureEvaluator(int theParallelism, int theChunkSize) {
+		int parallelism = theParallelism > 0 ? theParallelism : Runtime.getRuntime().availableProcessors();
+		myPool = new ForkJoinPool(
+				parallelism,
+				pool -> {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("cr-measure-" + thread.getPoolIndex());
+					return thread;
+				},
+				null,
+				false);
+		myChunkSize = Math.max(1, theChunkSize);
+	}
+
+	/**
+	 * @param theSubjectIds      subjects to evaluate, e.g. {@code Patient/123}
+	 * @param theSubjectEvaluator evaluates the measure for a single subject as a population report
+	 * @return the report for all subjects, or {@code null} if there are none
+	 */
+	public MeasureReport evaluate(List<String> theSubjectIds, Function<String, MeasureReport> theSubjectEvaluator) {
+		List<ForkJoinTask<MeasureReport>> chunks = new ArrayList<>();
+		for (int from = 0; from < theSubjectIds.size(); from += myChunkSize) {
+			List<String> chunk = theSubjectIds.subList(from, Math.min(from + myChunkSize, theSubjectIds.size()));
+			chunks.add(myPool.submit(() -> evaluateChunk(chunk, theSubjectEvaluator)));
+		}
+
+		MeasureReportMerger merger = new MeasureReportMerger();
+		for (ForkJoinTask<MeasureReport> chunk : chunks) {
+			MeasureReport chunkReport = chunk.join();
+			if (chunkReport != null) {
+				merger.add(chunkReport);
+			}
+		}
+		MeasureReport report = merger.getReport();
+		if (report != null) {
+			MeasureReportMerger.scoreProportions(report);
+		}
+		return report;
+	}
+
+	private static MeasureReport evaluateChunk(
+			List<String> theSubjectIds, Function<String, MeasureReport> theSubjectEvaluator) {
+		MeasureReportMerger merger = new MeasureReportMerger();
+		for (String subjectId : theSubjectIds) {
+			merger.add(theSubjectEvaluator.apply(subjectId));
+		}
+		return merger.getReport();
+	}
+
+	@Override
+	public void close() {
+		myPool.shutdownNow();
+	}
+}
@@ -0,0 +1,435 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.cache.IResourceChangeEvent;
+import ca.uhn.fhir.jpa.cache.IResourceChangeListener;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.FhirTerser;
+import com.google.common.collect.ForwardingMap;
+import kotlinx.io.Buffer;
+import kotlinx.io.BuffersJvmKt;
+import kotlinx.io.Source;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.cqframework.cql.cql2elm.LibraryContentType;
+import org.cqframework.cql.cql2elm.LibrarySourceProvider;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.elm.serializing.DefaultElmLibraryWriterProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the ELM of compiled CQL libraries in a local directory so that a restart does not have to translate all CQL
+ * again.
+ * <p>
+ * Libraries put into the global library cache are written through to {@code [key]-[hash].json}, where the key is
+ * taken over the canonical URL, or the name for libraries without a namespace, and the version of the library, and
+ * the hash over the content of the stored Library resource when the library was put; the file is not written if the
+ * Library has changed since. Older files of the same library are removed. As a
+ * {@link LibrarySourceProvider} the cache offers these files as compiled ELM content, which the CQL library manager
+ * prefers over translating the CQL source when its compiler options match.
+ * <p>
+ * Files are only served while the hash still matches the Library resource. The hashes are kept in memory: they are
+ * loaded with one search over all Libraries on first use, so edits made while the server was down are picked up, and
+ * kept current by the {@code STORAGE_PRECOMMIT_*} hooks for local writes and as an {@link IResourceChangeListener}
+ * for writes on other nodes. A Library being written is not served from disk until its transaction has completed.
+ */
+@Interceptor
+public class PersistentElmCache implements LibrarySourceProvider, IResourceChangeListener, AutoCloseable {
+	private static final Logger ourLog = LoggerFactory.getLogger(PersistentElmCache.class);
+
+	private static final String ELM_JSON = "application/elm+json";
+	private static final int LIBRARY_PAGE_SIZE = 500;
+
+	/**
+	 * Marks a key that more than one Library with different content resolves to
+	 */
+	private static final String AMBIGUOUS = "";
+
+	private final Path myDirectory;
+	private final FhirContext myFhirContext;
+	private final DaoRegistry myDaoRegistry;
+	private final ExecutorService myWriter;
+
+	/**
+	 * Keys and content hash of each Library, by resource ID
+	 */
+	private final Map<String, LibraryEntry> myLibraries = new HashMap<>();
+
+	/**
+	 * Libraries with a write in progress, which are not served until the transaction has completed
+	 */
+	private final Set<String> myPendingIds = new HashSet<>();
+
+	private volatile Map<String, String> myHashesByKey;
+
+	public PersistentElmCache(Path theDirectory, FhirContext theFhirContext, DaoRegistry theDaoRegistry)
+			throws IOException {
+		this(
+				theDirectory,
+				theFhirContext,
+				theDaoRegistry,
+				Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "elm-cache-writer");
+					thread.setDaemon(true);
+					return thread;
+				}));
+	}
+
+	PersistentElmCache(
+			Path theDirectory, FhirContext theFhirContext, DaoRegistry theDaoRegistry, ExecutorService theWriter)
+			throws IOException {
+		myDirectory = Files.createDirectories(theDirectory);
+		myFhirContext = theFhirContext;
+		myDaoRegistry = theDaoRegistry;
+		myWriter = theWriter;
+	}
+
+	/**
+	 * Wraps the in-memory library cache so that newly compiled libraries are persisted in the background.
+	 */
+	public Map<VersionedIdentifier, CompiledLibrary> writeThrough(Map<VersionedIdentifier, CompiledLibrary> theCache) {
+		return new ForwardingMap<>() {
+			@Override
+			protected Map<VersionedIdentifier, CompiledLibrary> delegate() {
+				return theCache;
+			}
+
+			@Override
+			public CompiledLibrary put(VersionedIdentifier theKey, CompiledLibrary theValue) {
+				CompiledLibrary previous = super.put(theKey, theValue);
+				if (previous != theValue) {
+					persistLater(theKey, theValue);
+				}
+				return previous;
+			}
+
+			@Override
+			public void putAll(Map<? extends VersionedIdentifier, ? extends CompiledLibrary> theMap) {
+				standardPutAll(theMap);
+			}
+		};
+	}
+
+	@Override
+	public Source getLibrarySource(VersionedIdentifier theLibraryIdentifier) {
+		// only compiled content is served, the CQL source comes from the Library resources
+		return null;
+	}
+
+	@Override
+	public Source getLibraryContent(VersionedIdentifier theLibraryIdentifier, LibraryContentType theType) {
+		if (theType != LibraryContentType.JSON) {
+			return null;
+		}
+		Path file = file(theLibraryIdentifier);
+		if (file == null || !Files.isReadable(file)) {
+			return null;
+		}
+		// read into the heap rather than mapping the file, the ELM is parsed right away and the file may be replaced
+		try (InputStream stream = Files.newInputStream(file)) {
+			Buffer buffer = new Buffer();
+			BuffersJvmKt.transferFrom(buffer, stream);
+			ourLog.debug("Loaded ELM of {} from {}", theLibraryIdentifier.getId(), file);
+			return buffer;
+		} catch (IOException e) {
+			ourLog.warn("Unable to read cached ELM {}", file, e);
+			return null;
+		}
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		if (isLibrary(theResource)) {
+			replaceOnCompletion(theResource.getIdElement().getIdPart(), null, entry(theResource));
+		}
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		if (isLibrary(theNewResource)) {
+			replaceOnCompletion(
+					theNewResource.getIdElement().getIdPart(), entry(theOldResource), entry(theNewResource));
+		}
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		if (isLibrary(theResource)) {
+			replaceOnCompletion(theResource.getIdElement().getIdPart(), entry(theResource), null);
+		}
+	}
+
+	@Override
+	public void handleInit(Collection<IIdType> theResourceIds) {
+		// the index is loaded on first use
+	}
+
+	@Override
+	public void handleChange(IResourceChangeEvent theResourceChangeEvent) {
+		List<IIdType> changed = new ArrayList<>(theResourceChangeEvent.getCreatedResourceIds());
+		changed.addAll(theResourceChangeEvent.getUpdatedResourceIds());
+		for (IIdType id : changed) {
+			LibraryEntry entry;
+			try {
+				entry = entry(myDaoRegistry
+						.getResourceDao("Library")
+						.read(id.toUnqualifiedVersionless(), SystemRequestDetails.forAllPartitions()));
+			} catch (ResourceNotFoundException | ResourceGoneException e) {
+				entry = null;
+			}
+			replace(id.getIdPart(), entry);
+		}
+		for (IIdType id : theResourceChangeEvent.getDeletedResourceIds()) {
+			replace(id.getIdPart(), null);
+		}
+	}
+
+	/**
+	 * Stops serving the Library right away and records its new state once the transaction has completed: the new
+	 * entry if it committed, the old one if it rolled back.
+	 */
+	private void replaceOnCompletion(String theId, LibraryEntry theOldEntry, LibraryEntry theNewEntry) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			replace(theId, theNewEntry);
+			return;
+		}
+		LibraryEntry previous;
+		synchronized (this) {
+			myPendingIds.add(theId);
+			previous = myLibraries.remove(theId);
+			rebuildKeys();
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCompletion(int theStatus) {
+				synchronized (PersistentElmCache.this) {
+					myPendingIds.remove(theId);
+				}
+				LibraryEntry entry = theStatus == STATUS_COMMITTED ? theNewEntry : theOldEntry;
+				replace(theId, entry);
+				removeFilesLater(previous, entry);
+			}
+		});
+	}
+
+	private void replace(String theId, LibraryEntry theEntry) {
+		LibraryEntry previous;
+		synchronized (this) {
+			if (myPendingIds.contains(theId)) {
+				return;
+			}
+			previous = theEntry != null ? myLibraries.put(theId, theEntry) : myLibraries.remove(theId);
+			rebuildKeys();
+		}
+		removeFilesLater(previous, theEntry);
+	}
+
+	private void removeFilesLater(LibraryEntry thePrevious, LibraryEntry theCurrent) {
+		if (thePrevious != null && !thePrevious.equals(theCurrent)) {
+			myWriter.execute(() -> thePrevious.keys().forEach(key -> removeFiles(key, null)));
+		}
+	}
+
+	/**
+	 * Writes the ELM to the file for the content of the Library at the time it was put into the cache, which is what
+	 * was compiled, unless the Library has changed by the time the file is written.
+	 */
+	private void persistLater(VersionedIdentifier theIdentifier, CompiledLibrary theLibrary) {
+		if (theLibrary == null || theLibrary.getLibrary() == null) {
+			return;
+		}
+		Path file = file(theIdentifier);
+		if (file != null) {
+			myWriter.execute(() -> persist(theIdentifier, theLibrary, file));
+		}
+	}
+
+	private void persist(VersionedIdentifier theIdentifier, CompiledLibrary theLibrary, Path theFile) {
+		try {
+			if (Files.exists(theFile) || !theFile.equals(file(theIdentifier))) {
+				return;
+			}
+			String elm =
+					DefaultElmLibraryWriterProvider.INSTANCE.create(ELM_JSON).writeAsString(theLibrary.getLibrary());
+			Path temp = Files.createTempFile(myDirectory, "elm-", ".tmp");
+			Files.writeString(temp, elm, StandardCharsets.UTF_8);
+			Files.move(temp, theFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if (!theFile.equals(file(theIdentifier))) {
+				// the Library changed while the file was written
+				Files.deleteIfExists(theFile);
+				return;
+			}
+			removeFiles(key(theIdentifier), theFile);
+			ourLog.debug("Stored ELM of {} in {}", theIdentifier.getId(), theFile);
+		} catch (Exception e) {
+			ourLog.warn("Unable to store ELM of {}", theIdentifier.getId(), e);
+		}
+	}
+
+	/**
+	 * Removes the files stored for a key, except {@code theCurrent}
+	 */
+	private void removeFiles(String theKey, Path theCurrent) {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(myDirectory, prefix(theKey) + "*.json")) {
+			for (Path file : files) {
+				if (!file.equals(theCurrent)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			ourLog.warn("Unable to remove cached ELM of {}", theKey, e);
+		}
+	}
+
+	/**
+	 * @return the cache file for the current content of the library, or {@code null} if there is no single such
+	 * 	Library
+	 */
+	private Path file(VersionedIdentifier theIdentifier) {
+		String key = key(theIdentifier);
+		String hash = hashesByKey().get(key);
+		if (hash == null || AMBIGUOUS.equals(hash)) {
+			return null;
+		}
+		return myDirectory.resolve(prefix(key) + hash + ".json");
+	}
+
+	private Map<String, String> hashesByKey() {
+		Map<String, String> hashes = myHashesByKey;
+		if (hashes == null) {
+			loadLibraries();
+			hashes = myHashesByKey;
+		}
+		return hashes;
+	}
+
+	/**
+	 * Indexes all Libraries, paging through them rather than loading them in one synchronous search
+	 */
+	private synchronized void loadLibraries() {
+		if (myHashesByKey != null) {
+			return;
+		}
+		IBundleProvider results = myDaoRegistry
+				.getResourceDao("Library")
+				.search(new SearchParameterMap(), SystemRequestDetails.forAllPartitions());
+		for (int from = 0; ; from += LIBRARY_PAGE_SIZE) {
+			List<IBaseResource> page = results.getResources(from, from + LIBRARY_PAGE_SIZE);
+			if (page.isEmpty()) {
+				break;
+			}
+			for (IBaseResource library : page) {
+				String id = library.getIdElement().getIdPart();
+				if (!myPendingIds.contains(id)) {
+					myLibraries.putIfAbsent(id, entry(library));
+				}
+			}
+		}
+		myHashesByKey = Map.of();
+		rebuildKeys();
+		ourLog.info("Indexed {} Libraries for the ELM cache in {}", myLibraries.size(), myDirectory);
+	}
+
+	/**
+	 * Recomputes the hashes by key after a change, once the Libraries have been loaded
+	 */
+	private void rebuildKeys() {
+		if (myHashesByKey == null) {
+			return;
+		}
+		Map<String, String> hashes = new HashMap<>();
+		for (LibraryEntry entry : myLibraries.values()) {
+			for (String key : entry.keys()) {
+				hashes.merge(key, entry.hash(), (first, second) -> first.equals(second) ? first : AMBIGUOUS);
+			}
+		}
+		myHashesByKey = hashes;
+	}
+
+	private boolean isLibrary(IBaseResource theResource) {
+		return theResource != null && "Library".equals(myFhirContext.getResourceType(theResource));
+	}
+
+	/**
+	 * @return the keys the Library can be looked up by, and the hash of its content
+	 */
+	private LibraryEntry entry(IBaseResource theLibrary) {
+		// Library.url, name, version and content are the same in all FHIR versions
+		FhirTerser terser = myFhirContext.newTerser();
+		String url = terser.getSinglePrimitiveValueOrNull(theLibrary, "url");
+		String name = terser.getSinglePrimitiveValueOrNull(theLibrary, "name");
+		String version = terser.getSinglePrimitiveValueOrNull(theLibrary, "version");
+		List<String> keys = new ArrayList<>();
+		if (url != null) {
+			keys.add(key(url.contains("|") ? url.substring(0, url.indexOf('|')) : url, version));
+		}
+		if (name != null) {
+			keys.add(key(name, version));
+		}
+
+		// hash the content types along with the data or URL
+		StringBuilder content = new StringBuilder();
+		for (IBase attachment : terser.getValues(theLibrary, "content")) {
+			content.append(terser.getSinglePrimitiveValueOrNull(attachment, "contentType")).append(':');
+			content.append(terser.getSinglePrimitiveValueOrNull(attachment, "data")).append(':');
+			content.append(terser.getSinglePrimitiveValueOrNull(attachment, "url")).append('\n');
+		}
+		return new LibraryEntry(List.copyOf(keys), DigestUtils.sha256Hex(content.toString()));
+	}
+
+	/**
+	 * @return the canonical URL and version of the library, or its name and version if it has no namespace
+	 */
+	private static String key(VersionedIdentifier theIdentifier) {
+		String canonical = theIdentifier.getSystem() != null
+				? theIdentifier.getSystem() + "/Library/" + theIdentifier.getId()
+				: theIdentifier.getId();
+		return key(canonical, theIdentifier.getVersion());
+	}
+
+	private static String key(String theCanonicalOrName, String theVersion) {
+		return theCanonicalOrName + "|" + (theVersion != null ? theVersion : "");
+	}
+
+	private static String prefix(String theKey) {
+		return DigestUtils.sha256Hex(theKey).substring(0, 16) + "-";
+	}
+
+	@Override
+	public void close() {
+		myWriter.shutdown();
+	}
+
+	private record LibraryEntry(List<String> keys, String hash) {}
+}
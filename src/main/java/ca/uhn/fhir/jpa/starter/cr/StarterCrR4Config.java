@@ -1,6 +1,10 @@
 package ca.uhn.fhir.jpa.starter.cr;
 
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.starter.annotations.OnR4Condition;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import org.opencds.cqf.fhir.cr.hapi.common.ILibraryProcessorFactory;
+import org.opencds.cqf.fhir.cr.hapi.common.StringTimePeriodHandler;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.ApplyOperationConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.CrR4Config;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.DataRequirementsOperationConfig;
@@ -9,6 +13,9 @@ import org.opencds.cqf.fhir.cr.hapi.config.r4.ExtractOperationConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.PackageOperationConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.PopulateOperationConfig;
 import org.opencds.cqf.fhir.cr.hapi.config.r4.QuestionnaireOperationConfig;
+import org.opencds.cqf.fhir.cr.hapi.r4.R4MeasureEvaluatorSingleFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
@@ -24,6 +31,55 @@ import org.springframework.context.annotation.Import;
 	ExtractOperationConfig.class,
 	PackageOperationConfig.class,
 	PopulateOperationConfig.class,
-	QuestionnaireOperationConfig.class
+	QuestionnaireOperationConfig.class,
+	MeasureEvaluationJobConfig.class
 })
-public class StarterCrR4Config {}
+public class StarterCrR4Config {
+
+	@Bean
+	public MeasureOperationDispatcher measureOperationDispatcher(
+			RestfulServer theRestfulServer,
+			DaoRegistry theDaoRegistry,
+			R4MeasureEvaluatorSingleFactory theMeasureServiceFactory,
+			StringTimePeriodHandler theTimePeriodHandler) {
+		return new MeasureOperationDispatcher(
+				theRestfulServer, theDaoRegistry, theMeasureServiceFactory, theTimePeriodHandler);
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.parallel-evaluation", name = "enabled", havingValue = "true")
+	public ParallelMeasureEvaluator parallelMeasureEvaluator(ParallelEvaluationProperties theProperties) {
+		return new ParallelMeasureEvaluator(theProperties.getParallelism(), theProperties.getChunk_size());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.parallel-evaluation", name = "enabled", havingValue = "true")
+	public ParallelMeasureEvaluationInterceptor parallelMeasureEvaluationInterceptor(
+			RestfulServer theRestfulServer,
+			MeasureOperationDispatcher theDispatcher,
+			DaoRegistry theDaoRegistry,
+			ParallelMeasureEvaluator theEvaluator,
+			ParallelEvaluationProperties theProperties) {
+		ParallelMeasureEvaluationInterceptor interceptor = new ParallelMeasureEvaluationInterceptor(
+				theDispatcher, theDaoRegistry, theEvaluator, theProperties.getMin_subjects());
+		theRestfulServer.registerInterceptor(interceptor);
+		return interceptor;
+	}
+
+	/**
+	 * Named so that it shows up as {@code cqlCacheWarmer} in the actuator health groups.
+	 */
+	@Bean(name = "cqlCacheWarmer")
+	@ConditionalOnProperty(prefix = "hapi.fhir.cr.warmup", name = "enabled", havingValue = "true")
+	public CqlCacheWarmer cqlCacheWarmer(
+			RestfulServer theRestfulServer,
+			DaoRegistry theDaoRegistry,
+			R4MeasureEvaluatorSingleFactory theMeasureServiceFactory,
+			ILibraryProcessorFactory theLibraryProcessorFactory,
+			CqlWarmupProperties theProperties) {
+		CqlCacheWarmer warmer = new CqlCacheWarmer(
+				theDaoRegistry, theMeasureServiceFactory, theLibraryProcessorFactory, theProperties);
+		theRestfulServer.registerInterceptor(warmer);
+		return warmer;
+	}
+}
@@ -0,0 +1,26 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class SubjectChunkJson implements IModelJson {
+
+	@JsonProperty("subjects")
+	private List<String> mySubjects;
+
+	public SubjectChunkJson() {}
+
+	public SubjectChunkJson(List<String> theSubjects) {
+		mySubjects = theSubjects;
+	}
+
+	public List<String> getSubjects() {
+		return mySubjects;
+	}
+
+	public void setSubjects(List<String> theSubjects) {
+		mySubjects = theSubjects;
+	}
+}
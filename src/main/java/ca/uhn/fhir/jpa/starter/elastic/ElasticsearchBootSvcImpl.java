@@ -9,7 +9,9 @@ import ca.uhn.fhir.jpa.search.lastn.json.ObservationJson;
 import ca.uhn.fhir.jpa.starter.AppProperties;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.server.storage.IResourcePersistentId;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
@@ -17,7 +19,12 @@ import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.indices.ExistsRequest;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import jakarta.servlet.http.HttpServletResponse;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.stereotype.Service;
 
@@ -25,13 +32,22 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Service
 @Conditional(ElasticConfigCondition.class)
 public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
+	private static final Logger ourLog = LoggerFactory.getLogger(ElasticsearchBootSvcImpl.class);
 
 	// Index Constants
 	public static final String OBSERVATION_INDEX_BASE_NAME = "observation_index";
@@ -41,8 +57,12 @@ public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
 
 	// Aggregation Constants
 
+	private static final long INITIAL_BOOTSTRAP_BACKOFF_MILLIS = 500;
+	private static final long MAX_BOOTSTRAP_BACKOFF_MILLIS = 60_000;
+
 	// Observation index document element names
 	private static final String OBSERVATION_IDENTIFIER_FIELD_NAME = "identifier";
+	private static final String OBSERVATION_RESOURCE_FIELD_NAME = "resource";
 
 	// Code index document element names
 	private static final String CODE_HASH = "codingcode_system_hash";
@@ -54,6 +74,16 @@ public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
 
 	private final FhirContext myContext;
 
+	private final ExecutorService myFetchExecutor;
+	private int myFetchChunkSize = 1000;
+	private boolean mySourceFilteringEnabled = true;
+
+	private final ScheduledExecutorService myScheduler;
+
+	private volatile boolean myIndexesReady;
+	private volatile int myBootstrapAttempts;
+	private volatile String myBootstrapError;
+
 	// Prefixed index names
 	private String observationIndexName = OBSERVATION_INDEX_BASE_NAME;
 	private String observationCodeIndexName = OBSERVATION_CODE_INDEX_BASE_NAME;
@@ -63,9 +93,14 @@ public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
 		myContext = fhirContext;
 		myElasticsearchClient = client;
 
-		// Determine index prefix from configuration
+		// Determine index prefix and fetch settings from configuration
+		int fetchThreads = 4;
 		if (appProperties.getElasticsearch() != null) {
-			String indexPrefix = appProperties.getElasticsearch().getIndex_prefix();
+			AppProperties.Elasticsearch elasticsearch = appProperties.getElasticsearch();
+			myFetchChunkSize = Math.max(1, elasticsearch.getFetch_chunk_size());
+			fetchThreads = Math.max(1, elasticsearch.getFetch_threads());
+			mySourceFilteringEnabled = elasticsearch.getSource_filtering_enabled();
+			String indexPrefix = elasticsearch.getIndex_prefix();
 			if (indexPrefix != null
 					&& !sanitizeElasticsearchIndexName(indexPrefix).isEmpty()) {
 				// Set prefixed index names
@@ -73,13 +108,73 @@ public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
 				this.observationCodeIndexName = indexPrefix + "-" + OBSERVATION_CODE_INDEX_BASE_NAME;
 			}
 		}
+		AtomicInteger threadCount = new AtomicInteger();
+		myFetchExecutor = Executors.newFixedThreadPool(fetchThreads, runnable -> {
+			Thread thread = new Thread(runnable, "es-observation-fetch-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
 
+		// A slow or restarting cluster must not hold up or fail the startup, the indexes are verified in the
+		// background and $lastn answers 503 until that is done
+		myScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "es-observation-index");
+			thread.setDaemon(true);
+			return thread;
+		});
+		myScheduler.execute(this::bootstrapIndexes);
+	}
+
+	private void bootstrapIndexes() {
+		myBootstrapAttempts++;
 		try {
 			createObservationIndexIfMissing();
 			createObservationCodeIndexIfMissing();
-		} catch (IOException theE) {
-			throw new RuntimeException(Msg.code(1175) + "Failed to create document index", theE);
+		} catch (Exception e) {
+			long backoff = INITIAL_BOOTSTRAP_BACKOFF_MILLIS << Math.min(myBootstrapAttempts, 10);
+			long delay = Math.min(MAX_BOOTSTRAP_BACKOFF_MILLIS, backoff);
+			myBootstrapError = e.getMessage();
+			ourLog.warn(
+					"Unable to verify Elasticsearch indexes (attempt {}), retrying in {} ms: {}",
+					myBootstrapAttempts,
+					delay,
+					e.getMessage());
+			myScheduler.schedule(this::bootstrapIndexes, delay, TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		myIndexesReady = true;
+		myBootstrapError = null;
+		ourLog.info("Elasticsearch indexes {} and {} are ready", observationIndexName, observationCodeIndexName);
+	}
+
+	public boolean isIndexesReady() {
+		return myIndexesReady;
+	}
+
+	/**
+	 * @throws UnclassifiedServerFailureException with status 503 while the indexes have not been verified yet
+	 */
+	public void verifyIndexesReady() {
+		if (!myIndexesReady) {
+			throw new UnclassifiedServerFailureException(
+					HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					Msg.code(2902) + "Elasticsearch indexes are not available yet, please retry later");
+		}
+	}
+
+	/**
+	 * Backs the {@code lastn} actuator health component
+	 */
+	Health health() {
+		Health.Builder builder = myIndexesReady ? Health.up() : Health.outOfService();
+		builder.withDetail("observationIndex", observationIndexName)
+				.withDetail("observationCodeIndex", observationCodeIndexName)
+				.withDetail("attempts", myBootstrapAttempts);
+		if (myBootstrapError != null) {
+			builder.withDetail("error", myBootstrapError);
 		}
+		return builder.build();
 	}
 
 	/**
@@ -157,17 +252,58 @@ public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
 
 	@Override
 	public void close() {
-		// nothing
+		myFetchExecutor.shutdownNow();
+		myScheduler.shutdownNow();
 	}
 
+	/**
+	 * Loads the Observations in chunks of at most {@code fetch_chunk_size} documents, so that a {@code $lastn} over
+	 * many patients stays within the index's max result window. Chunks are fetched and parsed in parallel.
+	 * <p>
+	 * The HAPI FHIR {@code SearchBuilder} only loads search results from Elasticsearch when resources are stored in
+	 * the Hibernate Search index, and then does so through {@code IFulltextSearchSvc#getResources}; it does not call
+	 * this method for {@code $lastn}.
+	 */
 	@Override
 	public List<IBaseResource> getObservationResources(Collection<? extends IResourcePersistentId> thePids) {
-		SearchRequest searchRequest = buildObservationResourceSearchRequest(thePids);
+		verifyIndexesReady();
+		List<String> ids = thePids.stream().map(Object::toString).collect(Collectors.toList());
+		List<List<String>> chunks = Lists.partition(ids, myFetchChunkSize);
+		if (chunks.size() <= 1) {
+			return ids.isEmpty() ? new ArrayList<>() : fetchObservationResources(ids);
+		}
+
+		List<Future<List<IBaseResource>>> futures = new ArrayList<>(chunks.size());
+		for (List<String> chunk : chunks) {
+			futures.add(myFetchExecutor.submit(() -> fetchObservationResources(chunk)));
+		}
+		List<IBaseResource> resources = new ArrayList<>(ids.size());
+		try {
+			for (Future<List<IBaseResource>> future : futures) {
+				resources.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.forEach(future -> future.cancel(true));
+			throw new InternalErrorException(Msg.code(2900) + "Interrupted while loading observation documents", e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new InternalErrorException(Msg.code(2901) + "Unable to load observation documents", e.getCause());
+		}
+		return resources;
+	}
+
+	private List<IBaseResource> fetchObservationResources(List<String> theIds) {
+		SearchRequest searchRequest = buildObservationResourceSearchRequest(theIds);
 		try {
 			SearchResponse<ObservationJson> observationDocumentResponse =
 					myElasticsearchClient.search(searchRequest, ObservationJson.class);
 			List<Hit<ObservationJson>> observationDocumentHits =
 					observationDocumentResponse.hits().hits();
+			// parsers are not thread-safe, each chunk gets its own
 			IParser parser = TolerantJsonParser.createWithLenientErrorHandling(myContext, null);
 			Class<? extends IBaseResource> resourceType =
 					myContext.getResourceDefinition(OBSERVATION_RESOURCE_NAME).getImplementingClass();
@@ -181,23 +317,26 @@ public class ElasticsearchBootSvcImpl implements IElasticsearchSvc {
 					.collect(Collectors.toList());
 		} catch (IOException theE) {
 			throw new InvalidRequestException(
-					Msg.code(2003) + "Unable to execute observation document query for provided IDs " + thePids, theE);
+					Msg.code(2003) + "Unable to execute observation document query for provided IDs " + theIds, theE);
 		}
 	}
 
-	private SearchRequest buildObservationResourceSearchRequest(Collection<? extends IResourcePersistentId> thePids) {
-		List<FieldValue> values = thePids.stream()
-				.map(Object::toString)
-				.map(v -> FieldValue.of(v))
-				.collect(Collectors.toList());
+	private SearchRequest buildObservationResourceSearchRequest(List<String> theIds) {
+		List<FieldValue> values = theIds.stream().map(v -> FieldValue.of(v)).collect(Collectors.toList());
 
-		return SearchRequest.of(sr -> sr.index(observationIndexName)
-				.query(qb -> qb.bool(bb -> bb.must(bbm -> {
-					bbm.terms(terms ->
-							terms.field(OBSERVATION_IDENTIFIER_FIELD_NAME).terms(termsb -> termsb.value(values)));
-					return bbm;
-				})))
-				.size(thePids.size()));
+		return SearchRequest.of(sr -> {
+			sr.index(observationIndexName)
+					.query(qb -> qb.bool(bb -> bb.must(bbm -> {
+						bbm.terms(terms -> terms.field(OBSERVATION_IDENTIFIER_FIELD_NAME)
+								.terms(termsb -> termsb.value(values)));
+						return bbm;
+					})))
+					.size(theIds.size());
+			if (mySourceFilteringEnabled) {
+				sr.source(source -> source.filter(filter -> filter.includes(OBSERVATION_RESOURCE_FIELD_NAME)));
+			}
+			return sr;
+		});
 	}
 
 	@VisibleForTesting
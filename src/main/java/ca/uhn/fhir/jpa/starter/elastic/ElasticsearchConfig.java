@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.starter.elastic;
 
+import ca.uhn.fhir.jpa.starter.AppProperties;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
@@ -7,8 +8,11 @@ import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
@@ -27,7 +31,15 @@ import java.util.List;
 public class ElasticsearchConfig {
 
 	@Bean
-	public RestClient elasticsearchRestClient(ElasticsearchProperties properties) {
+	public RestClient elasticsearchRestClient(ElasticsearchProperties properties, AppProperties appProperties) {
+		AppProperties.Elasticsearch transport = appProperties.getElasticsearch() != null
+				? appProperties.getElasticsearch()
+				: new AppProperties.Elasticsearch();
+		return restClientBuilder(properties, transport).build();
+	}
+
+	static RestClientBuilder restClientBuilder(
+			ElasticsearchProperties properties, AppProperties.Elasticsearch transport) {
 		List<String> uris = properties.getUris();
 
 		HttpHost[] hosts = uris.stream()
@@ -36,16 +48,35 @@ public class ElasticsearchConfig {
 				.toArray(HttpHost[]::new);
 
 		RestClientBuilder builder = RestClient.builder(hosts);
+		builder.setCompressionEnabled(transport.getCompression_enabled());
 
-		// Configure authentication if credentials are provided
-		if (properties.getUsername() != null && properties.getPassword() != null) {
-			BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-			credentialsProvider.setCredentials(
-					AuthScope.ANY, new UsernamePasswordCredentials(properties.getUsername(), properties.getPassword()));
+		long maxKeepAliveMillis = transport.getKeep_alive_seconds() * 1000L;
+		builder.setHttpClientConfigCallback(httpClientBuilder -> {
+			// Configure authentication if credentials are provided
+			if (properties.getUsername() != null && properties.getPassword() != null) {
+				BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+				credentialsProvider.setCredentials(
+						AuthScope.ANY,
+						new UsernamePasswordCredentials(properties.getUsername(), properties.getPassword()));
+				httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+			}
 
-			builder.setHttpClientConfigCallback(
-					httpClientBuilder -> httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider));
-		}
+			// The library defaults (30 connections, 10 per route) throttle concurrent $lastn queries
+			httpClientBuilder
+					.setMaxConnTotal(transport.getMax_connections())
+					.setMaxConnPerRoute(transport.getMax_connections_per_route())
+					.setKeepAliveStrategy((response, context) -> {
+						long serverKeepAlive =
+								DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+						return serverKeepAlive > 0 ? Math.min(serverKeepAlive, maxKeepAliveMillis) : maxKeepAliveMillis;
+					});
+			if (transport.getIo_thread_count() > 0) {
+				httpClientBuilder.setDefaultIOReactorConfig(IOReactorConfig.custom()
+						.setIoThreadCount(transport.getIo_thread_count())
+						.build());
+			}
+			return httpClientBuilder;
+		});
 
 		// Configure connection and socket timeouts if needed
 		builder.setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
@@ -58,7 +89,16 @@ public class ElasticsearchConfig {
 								? (int) properties.getSocketTimeout().toMillis()
 								: 60000));
 
-		return builder.build();
+		return builder;
+	}
+
+	/**
+	 * Shows up as the {@code lastn} health component, {@code OUT_OF_SERVICE} until the Elasticsearch indexes are
+	 * verified.
+	 */
+	@Bean
+	public HealthIndicator lastnHealthIndicator(ElasticsearchBootSvcImpl elasticsearchBootSvc) {
+		return elasticsearchBootSvc::health;
 	}
 
 	@Bean
@@ -0,0 +1,66 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the {@code operations} argument of the batch tool into a FHIR {@code batch} Bundle made of GET entries.
+ * The JPA server executes the GET entries of a batch in parallel on the pool sized by
+ * {@code hapi.fhir.bundle_batch_pool_size} / {@code bundle_batch_pool_max_size}, so the bundle is all the
+ * batch tool needs to fan out its reads and searches.
+ */
+public class BatchBundleFactory {
+
+	static final int MAX_OPERATIONS = 100;
+
+	private BatchBundleFactory() {}
+
+	/**
+	 * @return the Bundle as a JSON object tree, ready for {@link McpJson#toResource} or the servlet request body
+	 * @throws IllegalArgumentException if an operation is malformed
+	 */
+	public static Map<String, Object> toBatchBundle(Object operations) {
+		if (!(operations instanceof List<?> operationList) || operationList.isEmpty()) {
+			throw new IllegalArgumentException("Missing or invalid 'operations', expected a non-empty array");
+		}
+		if (operationList.size() > MAX_OPERATIONS) {
+			throw new IllegalArgumentException(
+					"Too many operations in batch: " + operationList.size() + ", maximum is " + MAX_OPERATIONS);
+		}
+
+		List<Map<String, Object>> entries = new ArrayList<>(operationList.size());
+		for (int i = 0; i < operationList.size(); i++) {
+			if (!(operationList.get(i) instanceof Map<?, ?> operation)) {
+				throw new IllegalArgumentException("Operation " + i + " is not an object");
+			}
+			entries.add(Map.of("request", Map.of("method", "GET", "url", toUrl(operation, i))));
+		}
+
+		Map<String, Object> bundle = new LinkedHashMap<>();
+		bundle.put("resourceType", "Bundle");
+		bundle.put("type", "batch");
+		bundle.put("entry", entries);
+		return bundle;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String toUrl(Map<?, ?> operation, int index) {
+		if (!(operation.get("resourceType") instanceof String resourceType) || resourceType.isBlank()) {
+			throw new IllegalArgumentException("Operation " + index + ": missing or invalid 'resourceType'");
+		}
+		Object type = operation.get("operation");
+		if ("read".equals(type)) {
+			if (!(operation.get("id") instanceof String id) || id.isBlank()) {
+				throw new IllegalArgumentException("Operation " + index + ": missing or invalid 'id'");
+			}
+			return resourceType + "/" + id;
+		} else if ("search".equals(type)) {
+			String query = DaoToolDispatcher.toQueryString((Map<String, Object>) operation);
+			return query.isEmpty() ? resourceType : resourceType + "?" + query;
+		}
+		throw new IllegalArgumentException(
+				"Operation " + index + ": unsupported operation '" + type + "', expected 'read' or 'search'");
+	}
+}
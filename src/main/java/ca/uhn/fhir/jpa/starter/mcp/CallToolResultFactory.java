@@ -1,10 +1,9 @@
 package ca.uhn.fhir.jpa.starter.mcp;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.modelcontextprotocol.spec.McpSchema;
 import org.springframework.stereotype.Component;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Component
@@ -18,16 +17,31 @@ public class CallToolResultFactory {
 				"response", response,
 				"status", status);
 
-		ObjectMapper objectMapper = new ObjectMapper();
-		String jacksonData;
-		try {
-			jacksonData = objectMapper.writeValueAsString(payload);
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e);
+		return McpSchema.CallToolResult.builder()
+				.addContent(new McpSchema.TextContent(McpJson.writeValueAsString(payload)))
+				.build();
+	}
+
+	/**
+	 * Result for one page of a paged search. {@code total} and {@code continuationToken} are omitted when
+	 * unknown or when there are no further pages.
+	 */
+	public static McpSchema.CallToolResult page(
+			String resourceType, Interaction interaction, String response, Integer total, String continuationToken) {
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put("resourceType", resourceType);
+		payload.put("interaction", interaction);
+		payload.put("response", response);
+		payload.put("status", 200);
+		if (total != null) {
+			payload.put("total", total);
+		}
+		if (continuationToken != null) {
+			payload.put("continuationToken", continuationToken);
 		}
 
 		return McpSchema.CallToolResult.builder()
-				.addContent(new McpSchema.TextContent(jacksonData))
+				.addContent(new McpSchema.TextContent(McpJson.writeValueAsString(payload)))
 				.build();
 	}
 
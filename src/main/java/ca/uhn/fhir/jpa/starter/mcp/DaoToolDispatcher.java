@@ -0,0 +1,517 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.api.dao.IFhirSystemDao;
+import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.model.valueset.BundleTypeEnum;
+import ca.uhn.fhir.rest.api.BundleLinks;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.IVersionSpecificBundleFactory;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.util.UrlUtil;
+import io.modelcontextprotocol.spec.McpSchema;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Executes MCP tool calls directly against the DAO layer instead of pushing a mock servlet request through
+ * {@link RestfulServer#handleRequest}. The resulting resource is encoded exactly once into the tool result.
+ * <p>
+ * Requests are issued with a {@link ServletRequestDetails} that carries the {@link RestfulServer} interceptor
+ * service and the HTTP headers of the MCP caller, so the storage pointcuts (authorization, consent, partition
+ * selection) fire just as they do for HTTP traffic and header-based rules see the caller's credentials. The server
+ * pointcuts the servlet would invoke around the call are invoked explicitly: {@code SERVER_INCOMING_REQUEST_*}
+ * before it, {@link Pointcut#SERVER_OUTGOING_RESPONSE} with the result, which interceptors may replace, and
+ * {@code SERVER_PROCESSING_COMPLETED*} at the end.
+ * <p>
+ * When the server identifies tenants from the request URL, tool calls are left to the servlet path so that the
+ * tenant is resolved by the same strategy as for HTTP traffic.
+ */
+public class DaoToolDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(DaoToolDispatcher.class);
+
+	private static final Set<Interaction> SUPPORTED_INTERACTIONS = EnumSet.of(
+			Interaction.READ,
+			Interaction.SEARCH,
+			Interaction.SEARCH_PAGED,
+			Interaction.NEXT_PAGE,
+			Interaction.CREATE,
+			Interaction.UPDATE,
+			Interaction.DELETE,
+			Interaction.BATCH);
+
+	private final FhirContext fhirContext;
+	private final DaoRegistry daoRegistry;
+	private final MatchUrlService matchUrlService;
+	private final RestfulServer restfulServer;
+	private final String serverBase;
+	private final boolean urlBasedTenants;
+
+	/**
+	 * @param urlBasedTenants whether the server identifies the tenant from the request URL, in which case every
+	 *                        interaction is left to the servlet
+	 */
+	public DaoToolDispatcher(
+			FhirContext fhirContext,
+			DaoRegistry daoRegistry,
+			MatchUrlService matchUrlService,
+			RestfulServer restfulServer,
+			String serverBase,
+			boolean urlBasedTenants) {
+		this.fhirContext = fhirContext;
+		this.daoRegistry = daoRegistry;
+		this.matchUrlService = matchUrlService;
+		this.restfulServer = restfulServer;
+		this.serverBase = serverBase;
+		this.urlBasedTenants = urlBasedTenants;
+	}
+
+	/**
+	 * @return whether the interaction can be served without going through the servlet layer
+	 */
+	public boolean supports(Interaction interaction) {
+		return !urlBasedTenants && SUPPORTED_INTERACTIONS.contains(interaction);
+	}
+
+	public McpSchema.CallToolResult dispatch(
+			McpCallerContext caller, Map<String, Object> arguments, Interaction interaction) {
+		if (!supports(interaction)) {
+			return CallToolResultFactory.failure("Unsupported interaction: " + interaction);
+		}
+		Invocation invocation = new Invocation(caller);
+		if (interaction == Interaction.NEXT_PAGE) {
+			return execute(invocation, () -> nextPage(invocation, arguments));
+		}
+		if (interaction == Interaction.BATCH) {
+			return execute(invocation, () -> batch(invocation, arguments));
+		}
+		if (!(arguments.get("resourceType") instanceof String resourceType) || resourceType.isBlank()) {
+			return CallToolResultFactory.failure("Missing or invalid 'resourceType'");
+		}
+
+		return execute(invocation, () -> {
+			IFhirResourceDao<IBaseResource> dao = daoRegistry.getResourceDao(resourceType);
+			return switch (interaction) {
+				case READ -> read(invocation, dao, resourceType, arguments);
+				case SEARCH -> search(invocation, dao, resourceType, arguments);
+				case SEARCH_PAGED -> searchPaged(invocation, dao, resourceType, arguments);
+				case CREATE -> create(invocation, dao, resourceType, arguments);
+				case UPDATE -> update(invocation, dao, resourceType, arguments);
+				case DELETE -> delete(invocation, dao, resourceType, arguments);
+				default -> CallToolResultFactory.failure("Unsupported interaction: " + interaction);
+			};
+		});
+	}
+
+	private McpSchema.CallToolResult execute(Invocation invocation, Supplier<McpSchema.CallToolResult> call) {
+		boolean completedNormally = false;
+		try {
+			McpSchema.CallToolResult result = call.get();
+			completedNormally = true;
+			return result;
+		} catch (HandledByInterceptorException e) {
+			return CallToolResultFactory.failure(e.getMessage());
+		} catch (BaseServerResponseException e) {
+			return CallToolResultFactory.failure(
+					String.format("FHIR server error %d: %s", e.getStatusCode(), e.getMessage()));
+		} catch (IllegalArgumentException e) {
+			return CallToolResultFactory.failure(e.getMessage());
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			return CallToolResultFactory.failure("Unexpected error: " + e.getMessage());
+		} finally {
+			invocation.complete(completedNormally);
+		}
+	}
+
+	private McpSchema.CallToolResult read(
+			Invocation invocation,
+			IFhirResourceDao<IBaseResource> dao,
+			String resourceType,
+			Map<String, Object> arguments) {
+		IIdType id = newId(resourceType, requireId(arguments));
+		RequestDetails requestDetails = invocation.start(resourceType, RestOperationTypeEnum.READ, id);
+		IBaseResource resource = dao.read(id, requestDetails);
+		return success(invocation, resourceType, Interaction.READ, resource, 200);
+	}
+
+	/**
+	 * Returns the first page of the search with the self and next links the servlet would add, so that the remaining
+	 * results can be fetched from the FHIR endpoint.
+	 */
+	private McpSchema.CallToolResult search(
+			Invocation invocation,
+			IFhirResourceDao<IBaseResource> dao,
+			String resourceType,
+			Map<String, Object> arguments) {
+		String queryString = toQueryString(arguments);
+		SearchParameterMap searchParameterMap = matchUrlService.translateMatchUrl(
+				resourceType + "?" + queryString, fhirContext.getResourceDefinition(resourceType));
+		RequestDetails requestDetails = invocation.start(resourceType, RestOperationTypeEnum.SEARCH_TYPE, null);
+		IBundleProvider results = dao.search(searchParameterMap, requestDetails);
+
+		int pageSize = pageSize(searchParameterMap.getCount());
+		List<IBaseResource> resources = results.getResources(0, pageSize);
+		Integer total = results.size();
+
+		BundleLinks links = new BundleLinks(serverBase, Collections.emptySet(), false, BundleTypeEnum.SEARCHSET);
+		links.setSelf(serverBase + "/" + resourceType + (queryString.isEmpty() ? "" : "?" + queryString));
+		boolean hasMore = total != null ? pageSize < total : resources.size() >= pageSize;
+		if (hasMore) {
+			links.setNext(nextLink(requestDetails, results, pageSize, pageSize));
+		}
+
+		IVersionSpecificBundleFactory bundleFactory = fhirContext.newBundleFactory();
+		bundleFactory.addRootPropertiesToBundle(results.getUuid(), links, total, results.getPublished());
+		bundleFactory.addResourcesToBundle(resources, BundleTypeEnum.SEARCHSET, serverBase, null, null);
+		return success(invocation, resourceType, Interaction.SEARCH, bundleFactory.getResourceBundle(), 200);
+	}
+
+	/**
+	 * @return the {@code _getpages} link the servlet would put on the page, the results being kept by the paging
+	 * 	provider so that the link can be followed on the FHIR endpoint
+	 */
+	private String nextLink(RequestDetails requestDetails, IBundleProvider results, int offset, int pageSize) {
+		String searchId = results.getUuid();
+		if (searchId == null) {
+			searchId = restfulServer.getPagingProvider().storeResultList(requestDetails, results);
+		}
+		return serverBase + "?" + Constants.PARAM_PAGINGACTION + "=" + UrlUtil.escapeUrlParam(searchId) + "&"
+				+ Constants.PARAM_PAGINGOFFSET + "=" + offset + "&" + Constants.PARAM_COUNT + "=" + pageSize + "&"
+				+ Constants.PARAM_BUNDLETYPE + "=" + BundleTypeEnum.SEARCHSET.getCode();
+	}
+
+	/**
+	 * Runs the search and returns only its first page together with a continuation token, leaving the
+	 * remaining results in the search persisted by the paging provider.
+	 */
+	private McpSchema.CallToolResult searchPaged(
+			Invocation invocation,
+			IFhirResourceDao<IBaseResource> dao,
+			String resourceType,
+			Map<String, Object> arguments) {
+		SearchParameterMap searchParameterMap = matchUrlService.translateMatchUrl(
+				resourceType + "?" + toQueryString(arguments), fhirContext.getResourceDefinition(resourceType));
+		int pageSize = pageSize(requestedCount(arguments, searchParameterMap.getCount()));
+		searchParameterMap.setCount(pageSize);
+		RequestDetails requestDetails = invocation.start(resourceType, RestOperationTypeEnum.SEARCH_TYPE, null);
+		IBundleProvider results = dao.search(searchParameterMap, requestDetails);
+		return page(invocation, resourceType, Interaction.SEARCH_PAGED, results, 0, pageSize);
+	}
+
+	private McpSchema.CallToolResult nextPage(Invocation invocation, Map<String, Object> arguments) {
+		if (!(arguments.get("continuationToken") instanceof String token) || token.isBlank()) {
+			throw new IllegalArgumentException("Missing or invalid 'continuationToken'");
+		}
+		SearchContinuationToken continuation = SearchContinuationToken.decode(token);
+		RequestDetails requestDetails =
+				invocation.start(continuation.getResourceType(), RestOperationTypeEnum.GET_PAGE, null);
+		IBundleProvider results =
+				restfulServer.getPagingProvider().retrieveResultList(requestDetails, continuation.getSearchId());
+		if (results == null) {
+			return CallToolResultFactory.failure(
+					"Search " + continuation.getSearchId() + " has expired or does not exist, please search again");
+		}
+		int pageSize = pageSize(continuation.getCount());
+		return page(
+				invocation,
+				continuation.getResourceType(),
+				Interaction.NEXT_PAGE,
+				results,
+				continuation.getOffset(),
+				pageSize);
+	}
+
+	private McpSchema.CallToolResult page(
+			Invocation invocation,
+			String resourceType,
+			Interaction interaction,
+			IBundleProvider results,
+			int offset,
+			int pageSize) {
+		List<IBaseResource> resources = results.getResources(offset, offset + pageSize);
+		Integer total = results.size();
+
+		IVersionSpecificBundleFactory bundleFactory = fhirContext.newBundleFactory();
+		bundleFactory.addRootPropertiesToBundle(
+				results.getUuid(),
+				new BundleLinks(serverBase, Collections.emptySet(), false, BundleTypeEnum.SEARCHSET),
+				total,
+				results.getPublished());
+		bundleFactory.addResourcesToBundle(resources, BundleTypeEnum.SEARCHSET, serverBase, null, null);
+		String body = McpJson.encode(fhirContext, invocation.respond(bundleFactory.getResourceBundle(), 200));
+
+		int nextOffset = offset + pageSize;
+		boolean hasMore = total != null ? nextOffset < total : resources.size() >= pageSize;
+		String continuationToken = null;
+		if (hasMore && results.getUuid() != null) {
+			continuationToken = new SearchContinuationToken(resourceType, results.getUuid(), nextOffset, pageSize)
+					.encode();
+		}
+		return CallToolResultFactory.page(resourceType, interaction, body, total, continuationToken);
+	}
+
+	/**
+	 * Submits the operations as a FHIR batch through the system DAO, which runs the GET entries in parallel on
+	 * the bundle batch pool.
+	 */
+	private McpSchema.CallToolResult batch(Invocation invocation, Map<String, Object> arguments) {
+		Map<String, Object> batchBundle = BatchBundleFactory.toBatchBundle(arguments.get("operations"));
+		IBaseBundle bundle = (IBaseBundle) McpJson.toResource(fhirContext, batchBundle);
+		RequestDetails requestDetails = invocation.start(null, RestOperationTypeEnum.TRANSACTION, null);
+		requestDetails.setResource(bundle);
+		IFhirSystemDao<IBaseBundle, ?> systemDao = daoRegistry.getSystemDao();
+		IBaseBundle response = systemDao.transaction(requestDetails, bundle);
+		return success(invocation, "Bundle", Interaction.BATCH, response, 200);
+	}
+
+	private McpSchema.CallToolResult create(
+			Invocation invocation,
+			IFhirResourceDao<IBaseResource> dao,
+			String resourceType,
+			Map<String, Object> arguments) {
+		IBaseResource resource = parseResourceBody(arguments);
+		RequestDetails requestDetails = invocation.start(resourceType, RestOperationTypeEnum.CREATE, null);
+		requestDetails.setResource(resource);
+		DaoMethodOutcome outcome = dao.create(resource, requestDetails);
+		int status = Boolean.FALSE.equals(outcome.getCreated()) ? 200 : 201;
+		return success(invocation, resourceType, Interaction.CREATE, representation(outcome), status);
+	}
+
+	private McpSchema.CallToolResult update(
+			Invocation invocation,
+			IFhirResourceDao<IBaseResource> dao,
+			String resourceType,
+			Map<String, Object> arguments) {
+		IIdType id = newId(resourceType, requireId(arguments));
+		IBaseResource resource = parseResourceBody(arguments);
+		resource.setId(id);
+		RequestDetails requestDetails = invocation.start(resourceType, RestOperationTypeEnum.UPDATE, id);
+		requestDetails.setResource(resource);
+		DaoMethodOutcome outcome = dao.update(resource, requestDetails);
+		int status = Boolean.TRUE.equals(outcome.getCreated()) ? 201 : 200;
+		return success(invocation, resourceType, Interaction.UPDATE, representation(outcome), status);
+	}
+
+	private McpSchema.CallToolResult delete(
+			Invocation invocation,
+			IFhirResourceDao<IBaseResource> dao,
+			String resourceType,
+			Map<String, Object> arguments) {
+		IIdType id = newId(resourceType, requireId(arguments));
+		RequestDetails requestDetails = invocation.start(resourceType, RestOperationTypeEnum.DELETE, id);
+		DaoMethodOutcome outcome = dao.delete(id, requestDetails);
+		if (outcome.getOperationOutcome() == null) {
+			return CallToolResultFactory.failure("Empty successful response for " + Interaction.DELETE);
+		}
+		return success(invocation, resourceType, Interaction.DELETE, outcome.getOperationOutcome(), 200);
+	}
+
+	private McpSchema.CallToolResult success(
+			Invocation invocation, String resourceType, Interaction interaction, IBaseResource resource, int status) {
+		String body = McpJson.encode(fhirContext, invocation.respond(resource, status));
+		return CallToolResultFactory.success(resourceType, interaction, body, status);
+	}
+
+	/**
+	 * The request one tool call is executed as, and the server pointcuts around it
+	 */
+	private final class Invocation {
+
+		private final McpCallerContext caller;
+		private ServletRequestDetails requestDetails;
+
+		private Invocation(McpCallerContext caller) {
+			this.caller = caller;
+		}
+
+		/**
+		 * Builds the request and invokes the pointcuts the servlet invokes before handing it to a provider
+		 *
+		 * @throws HandledByInterceptorException if an interceptor has answered the request itself
+		 */
+		ServletRequestDetails start(String resourceType, RestOperationTypeEnum operationType, IIdType id) {
+			RequestTypeEnum requestType =
+					switch (operationType) {
+						case CREATE, TRANSACTION -> RequestTypeEnum.POST;
+						case UPDATE -> RequestTypeEnum.PUT;
+						case DELETE -> RequestTypeEnum.DELETE;
+						default -> RequestTypeEnum.GET;
+					};
+			requestDetails = new ServletRequestDetails(restfulServer.getInterceptorService());
+			requestDetails.setServletRequest(
+					caller.newServletRequest(requestType.name(), "/" + (resourceType != null ? resourceType : "")));
+			requestDetails.setServletResponse(new MockHttpServletResponse());
+			requestDetails.setServer(restfulServer);
+			requestDetails.setRequestType(requestType);
+			requestDetails.setFhirServerBase(serverBase);
+			requestDetails.setResourceName(resourceType);
+			requestDetails.setRestOperationType(operationType);
+			requestDetails.setId(id);
+
+			IInterceptorBroadcaster interceptorBroadcaster = restfulServer.getInterceptorService();
+			if (interceptorBroadcaster.hasHooks(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)) {
+				HookParams params = new HookParams()
+						.add(RequestDetails.class, requestDetails)
+						.add(ServletRequestDetails.class, requestDetails)
+						.add(HttpServletRequest.class, requestDetails.getServletRequest())
+						.add(HttpServletResponse.class, requestDetails.getServletResponse());
+				if (!interceptorBroadcaster.callHooks(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED, params)) {
+					throw new HandledByInterceptorException(requestDetails);
+				}
+			}
+			if (interceptorBroadcaster.hasHooks(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED)) {
+				HookParams params = new HookParams()
+						.add(RequestDetails.class, requestDetails)
+						.add(ServletRequestDetails.class, requestDetails)
+						.add(RestOperationTypeEnum.class, operationType);
+				interceptorBroadcaster.callHooks(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED, params);
+			}
+			return requestDetails;
+		}
+
+		/**
+		 * @return the resource to return, which {@link Pointcut#SERVER_OUTGOING_RESPONSE} hooks may have replaced
+		 * @throws HandledByInterceptorException if an interceptor has answered the request itself
+		 */
+		IBaseResource respond(IBaseResource resource, int status) {
+			IInterceptorBroadcaster interceptorBroadcaster = restfulServer.getInterceptorService();
+			if (requestDetails == null || !interceptorBroadcaster.hasHooks(Pointcut.SERVER_OUTGOING_RESPONSE)) {
+				return resource;
+			}
+			ResponseDetails responseDetails = new ResponseDetails(resource);
+			responseDetails.setResponseCode(status);
+			HookParams params = new HookParams()
+					.add(RequestDetails.class, requestDetails)
+					.add(ServletRequestDetails.class, requestDetails)
+					.add(IBaseResource.class, resource)
+					.add(ResponseDetails.class, responseDetails)
+					.add(HttpServletRequest.class, requestDetails.getServletRequest())
+					.add(HttpServletResponse.class, requestDetails.getServletResponse());
+			if (!interceptorBroadcaster.callHooks(Pointcut.SERVER_OUTGOING_RESPONSE, params)) {
+				throw new HandledByInterceptorException(requestDetails);
+			}
+			return responseDetails.getResponseResource();
+		}
+
+		void complete(boolean normally) {
+			if (requestDetails == null) {
+				return;
+			}
+			IInterceptorBroadcaster interceptorBroadcaster = restfulServer.getInterceptorService();
+			HookParams params = new HookParams()
+					.add(RequestDetails.class, requestDetails)
+					.add(ServletRequestDetails.class, requestDetails);
+			if (normally && interceptorBroadcaster.hasHooks(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY)) {
+				interceptorBroadcaster.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY, params);
+			}
+			if (interceptorBroadcaster.hasHooks(Pointcut.SERVER_PROCESSING_COMPLETED)) {
+				interceptorBroadcaster.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED, params);
+			}
+		}
+	}
+
+	/**
+	 * An interceptor returned {@code false}, having written its own response instead of letting the call proceed
+	 */
+	private static class HandledByInterceptorException extends RuntimeException {
+
+		HandledByInterceptorException(ServletRequestDetails requestDetails) {
+			super(describe((MockHttpServletResponse) requestDetails.getServletResponse()));
+		}
+
+		private static String describe(MockHttpServletResponse response) {
+			try {
+				return String.format(
+						"Request was answered by an interceptor with status %d: %s",
+						response.getStatus(), response.getContentAsString());
+			} catch (UnsupportedEncodingException e) {
+				return "Request was answered by an interceptor with status " + response.getStatus();
+			}
+		}
+	}
+
+	private IBaseResource representation(DaoMethodOutcome outcome) {
+		return outcome.getResource() != null ? outcome.getResource() : outcome.getOperationOutcome();
+	}
+
+	private IBaseResource parseResourceBody(Map<String, Object> arguments) {
+		return McpJson.toResource(fhirContext, arguments.get("resource"));
+	}
+
+	private int pageSize(Integer requestedCount) {
+		var pagingProvider = restfulServer.getPagingProvider();
+		if (requestedCount == null || requestedCount <= 0) {
+			return pagingProvider.getDefaultPageSize();
+		}
+		return Math.min(requestedCount, pagingProvider.getMaximumPageSize());
+	}
+
+	private static Integer requestedCount(Map<String, Object> arguments, Integer fallback) {
+		Object count = arguments.get("count");
+		if (count instanceof Number number) {
+			return number.intValue();
+		} else if (count instanceof String string && !string.isBlank()) {
+			return Integer.parseInt(string);
+		}
+		return fallback;
+	}
+
+	private IIdType newId(String resourceType, String id) {
+		return fhirContext.getVersion().newIdType().setValue(resourceType + "/" + id);
+	}
+
+	private static String requireId(Map<String, Object> arguments) {
+		if (!(arguments.get("id") instanceof String id) || id.isBlank()) {
+			throw new IllegalArgumentException("Missing or invalid 'id'");
+		}
+		return id;
+	}
+
+	static String toQueryString(Map<String, Object> arguments) {
+		Object query = arguments.get("query");
+		if (query == null) {
+			query = arguments.get("searchParams");
+		}
+		if (query instanceof String queryString) {
+			return queryString.startsWith("?") ? queryString.substring(1) : queryString;
+		}
+		if (query instanceof Map<?, ?> queryMap) {
+			return queryMap.entrySet().stream()
+					.map(e -> UrlUtil.escapeUrlParam(e.getKey().toString()) + "="
+							+ UrlUtil.escapeUrlParam(e.getValue().toString()))
+					.collect(Collectors.joining("&"));
+		}
+		return "";
+	}
+}
@@ -5,12 +5,15 @@ import ca.uhn.fhir.rest.api.RequestTypeEnum;
 public enum Interaction {
 	CALL_CDS_HOOK("call-cds-hook"),
 	SEARCH("search"),
+	SEARCH_PAGED("search-paged"),
+	NEXT_PAGE("next-page"),
 	READ("read"),
 	CREATE("create"),
 	UPDATE("update"),
 	DELETE("delete"),
 	PATCH("patch"),
-	TRANSACTION("transaction");
+	TRANSACTION("transaction"),
+	BATCH("batch");
 
 	private final String name;
 
@@ -24,8 +27,8 @@ public enum Interaction {
 
 	public RequestTypeEnum asRequestType() {
 		return switch (this) {
-			case SEARCH, READ -> RequestTypeEnum.GET;
-			case CREATE, TRANSACTION, CALL_CDS_HOOK -> RequestTypeEnum.POST;
+			case SEARCH, SEARCH_PAGED, NEXT_PAGE, READ -> RequestTypeEnum.GET;
+			case CREATE, TRANSACTION, BATCH, CALL_CDS_HOOK -> RequestTypeEnum.POST;
 			case UPDATE -> RequestTypeEnum.PUT;
 			case DELETE -> RequestTypeEnum.DELETE;
 			case PATCH -> RequestTypeEnum.PATCH;
@@ -0,0 +1,86 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import io.modelcontextprotocol.common.McpTransportContext;
+import io.modelcontextprotocol.server.McpSyncServerExchange;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The HTTP headers of the MCP request that carried a tool call, such as {@code Authorization}. They are captured
+ * by the transport and replayed on the FHIR request the tool call is turned into, so header-based authorization
+ * sees the credentials of the MCP caller rather than an anonymous request.
+ */
+public final class McpCallerContext {
+
+	public static final McpCallerContext EMPTY = new McpCallerContext(Map.of());
+
+	private static final String TRANSPORT_CONTEXT_KEY = McpCallerContext.class.getName();
+
+	/**
+	 * Headers describing the MCP message itself rather than the caller; the FHIR request sets its own.
+	 */
+	private static final Set<String> TRANSPORT_HEADERS = Set.of(
+			"accept",
+			"accept-encoding",
+			"connection",
+			"content-encoding",
+			"content-length",
+			"content-type",
+			"host",
+			"last-event-id",
+			"mcp-protocol-version",
+			"mcp-session-id",
+			"transfer-encoding");
+
+	private final Map<String, List<String>> headers;
+
+	private McpCallerContext(Map<String, List<String>> headers) {
+		this.headers = headers;
+	}
+
+	/**
+	 * Transport context extractor for the MCP servlet transport.
+	 */
+	public static McpTransportContext extract(HttpServletRequest request) {
+		Map<String, List<String>> headers = new LinkedHashMap<>();
+		for (String name : Collections.list(request.getHeaderNames())) {
+			if (!TRANSPORT_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+				headers.put(name, List.copyOf(Collections.list(request.getHeaders(name))));
+			}
+		}
+		return McpTransportContext.create(
+				Map.of(TRANSPORT_CONTEXT_KEY, new McpCallerContext(Collections.unmodifiableMap(headers))));
+	}
+
+	public static McpCallerContext from(McpSyncServerExchange exchange) {
+		if (exchange.transportContext() != null
+				&& exchange.transportContext().get(TRANSPORT_CONTEXT_KEY) instanceof McpCallerContext caller) {
+			return caller;
+		}
+		return EMPTY;
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return a request for the FHIR servlet carrying the caller's headers
+	 */
+	public MockHttpServletRequest newServletRequest(String method, String path) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+		applyTo(request);
+		return request;
+	}
+
+	public void applyTo(MockHttpServletRequest request) {
+		headers.forEach((name, values) -> values.forEach(value -> request.addHeader(name, value)));
+	}
+}
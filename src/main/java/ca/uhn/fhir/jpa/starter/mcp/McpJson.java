@@ -0,0 +1,77 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IJsonLikeParser;
+import ca.uhn.fhir.parser.json.jackson.JacksonStructure;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.util.Map;
+
+/**
+ * Shared serialization helpers for the MCP tools.
+ * <p>
+ * Jackson mappers and writers are thread-safe once configured, so a single instance is reused for every tool
+ * call instead of allocating a new {@link ObjectMapper} (or Gson) per request. HAPI parsers are not thread-safe
+ * and are still created per call; they are cheap, as the model definitions they need are cached by the
+ * {@link FhirContext}.
+ */
+public final class McpJson {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final ObjectWriter WRITER = MAPPER.writer();
+
+	private McpJson() {}
+
+	public static ObjectMapper mapper() {
+		return MAPPER;
+	}
+
+	public static String writeValueAsString(Object value) {
+		try {
+			return WRITER.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static byte[] writeValueAsBytes(Object value) {
+		try {
+			return WRITER.writeValueAsBytes(value);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Converts a tool argument into a HAPI resource. Maps (the usual shape of a JSON object in MCP arguments) are
+	 * turned into a Jackson tree and handed to the HAPI parser directly, without an intermediate JSON string.
+	 *
+	 * @throws IllegalArgumentException if the argument is not a resource, a JSON object or a JSON string
+	 */
+	public static IBaseResource toResource(FhirContext fhirContext, Object body) {
+		if (body instanceof IBaseResource resource) {
+			return resource;
+		} else if (body instanceof String json) {
+			return fhirContext.newJsonParser().parseResource(json);
+		} else if (body instanceof Map<?, ?> || body instanceof JsonNode) {
+			JsonNode tree = body instanceof JsonNode node ? node : MAPPER.valueToTree(body);
+			if (!(tree instanceof ObjectNode objectNode)) {
+				throw new IllegalArgumentException("Resource body must be a JSON object");
+			}
+			JacksonStructure structure = new JacksonStructure();
+			structure.setNativeObject(objectNode);
+			return ((IJsonLikeParser) fhirContext.newJsonParser()).parseResource(structure);
+		}
+		throw new IllegalArgumentException(
+				"Unsupported resource body type: " + (body == null ? "null" : body.getClass().getName()));
+	}
+
+	public static String encode(FhirContext fhirContext, IBaseResource resource) {
+		return fhirContext.newJsonParser().encodeResourceToString(resource);
+	}
+}
@@ -1,13 +1,15 @@
 package ca.uhn.fhir.jpa.starter.mcp;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.starter.AppProperties;
 import ca.uhn.fhir.rest.server.McpBridge;
 import ca.uhn.fhir.rest.server.McpCdsBridge;
 import ca.uhn.fhir.rest.server.McpFhirBridge;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
 import ca.uhn.hapi.fhir.cdshooks.module.CdsHooksObjectMapperFactory;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.modelcontextprotocol.json.jackson.JacksonMcpJsonMapper;
 import io.modelcontextprotocol.server.McpServerFeatures;
 import io.modelcontextprotocol.server.transport.HttpServletStreamableServerTransportProvider;
@@ -38,6 +40,11 @@ public class McpServerConfig {
 	private static final String SSE_MESSAGE_ENDPOINT = "/mcp/message";
 
 	@Bean
+	@ConditionalOnProperty(
+			prefix = "spring.ai.mcp.server",
+			name = {"type"},
+			havingValue = "SYNC",
+			matchIfMissing = true)
 	public List<McpServerFeatures.SyncToolSpecification> syncServer(List<McpBridge> mcpBridges) {
 		return mcpBridges.stream()
 				.flatMap(bridge -> bridge.generateTools().stream())
@@ -45,8 +52,55 @@ public class McpServerConfig {
 	}
 
 	@Bean
-	public McpFhirBridge mcpFhirBridge(RestfulServer restfulServer) {
-		return new McpFhirBridge(restfulServer);
+	@ConditionalOnProperty(
+			prefix = "spring.ai.mcp.server",
+			name = {"type"},
+			havingValue = "ASYNC")
+	public McpToolExecutor mcpToolExecutor(AppProperties appProperties) {
+		AppProperties.Mcp mcp = appProperties.getMcp();
+		return new McpToolExecutor(
+				mcp.getMax_concurrent_tool_calls(),
+				mcp.getTool_call_queue_size(),
+				mcp.getTool_call_timeout_seconds(),
+				mcp.getTool_call_timeouts_seconds());
+	}
+
+	@Bean
+	@ConditionalOnProperty(
+			prefix = "spring.ai.mcp.server",
+			name = {"type"},
+			havingValue = "ASYNC")
+	public List<McpServerFeatures.AsyncToolSpecification> asyncServer(
+			List<McpBridge> mcpBridges, McpToolExecutor mcpToolExecutor) {
+		return mcpBridges.stream()
+				.flatMap(bridge -> bridge.generateAsyncTools(mcpToolExecutor).stream())
+				.toList();
+	}
+
+	@Bean
+	public McpFhirBridge mcpFhirBridge(
+			RestfulServer restfulServer,
+			DaoRegistry daoRegistry,
+			MatchUrlService matchUrlService,
+			AppProperties appProperties) {
+
+		if (!appProperties.getMcp().getDirect_dispatch_enabled()) {
+			return new McpFhirBridge(restfulServer);
+		}
+		// mirrors PartitionModeConfigurer, which only installs the URL based tenant strategy in this mode
+		AppProperties.Partitioning partitioning = appProperties.getPartitioning();
+		boolean urlBasedTenants = partitioning != null
+				&& !Boolean.TRUE.equals(partitioning.getPatient_id_partitioning_mode())
+				&& partitioning.isRequest_tenant_partitioning_mode();
+		return new McpFhirBridge(
+				restfulServer,
+				new DaoToolDispatcher(
+						restfulServer.getFhirContext(),
+						daoRegistry,
+						matchUrlService,
+						restfulServer,
+						appProperties.getServer_address(),
+						urlBasedTenants));
 	}
 
 	@Bean
@@ -67,8 +121,8 @@ public class McpServerConfig {
 		return HttpServletStreamableServerTransportProvider.builder()
 				.disallowDelete(false)
 				.mcpEndpoint(properties.getMcpEndpoint())
-				.jsonMapper(new JacksonMcpJsonMapper(new ObjectMapper()))
-				// .contextExtractor((serverRequest, context) -> context)
+				.jsonMapper(new JacksonMcpJsonMapper(McpJson.mapper()))
+				.contextExtractor(McpCallerContext::extract)
 				.build();
 	}
 
@@ -0,0 +1,102 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.server.McpSyncServerExchange;
+import io.modelcontextprotocol.spec.McpSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs MCP tool calls off the transport thread for the asynchronous MCP server. Calls are executed on a bounded
+ * pool of {@code maxConcurrentCalls} threads with a bounded backlog; once both are full further calls are
+ * rejected with an error result rather than queueing without limit. Each call is given up on after the timeout
+ * configured for its tool, or the default timeout.
+ */
+public class McpToolExecutor implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(McpToolExecutor.class);
+
+	private final ThreadPoolExecutor executor;
+	private final Scheduler scheduler;
+	private final Duration defaultTimeout;
+	private final Map<String, Integer> toolTimeoutsSeconds;
+
+	public McpToolExecutor(
+			int maxConcurrentCalls, int queueSize, int defaultTimeoutSeconds, Map<String, Integer> toolTimeoutsSeconds) {
+		this.executor = new ThreadPoolExecutor(
+				maxConcurrentCalls,
+				maxConcurrentCalls,
+				60,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(queueSize),
+				new ToolThreadFactory(),
+				new ThreadPoolExecutor.AbortPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+		this.scheduler = Schedulers.fromExecutorService(executor, "mcp-tool");
+		this.defaultTimeout = Duration.ofSeconds(defaultTimeoutSeconds);
+		this.toolTimeoutsSeconds = toolTimeoutsSeconds == null ? Map.of() : Map.copyOf(toolTimeoutsSeconds);
+	}
+
+	/**
+	 * Wraps a synchronous tool so that its handler runs on this executor.
+	 */
+	public McpServerFeatures.AsyncToolSpecification toAsync(McpServerFeatures.SyncToolSpecification syncTool) {
+		String toolName = syncTool.tool().name();
+		Duration timeout = timeoutFor(toolName);
+		return new McpServerFeatures.AsyncToolSpecification.Builder()
+				.tool(syncTool.tool())
+				.callHandler((exchange, request) -> Mono.fromCallable(() -> syncTool.callHandler()
+								.apply(new McpSyncServerExchange(exchange), request))
+						.subscribeOn(scheduler)
+						.timeout(timeout)
+						.onErrorResume(TimeoutException.class, e -> {
+							logger.warn("MCP tool {} did not complete within {}", toolName, timeout);
+							return Mono.just(CallToolResultFactory.failure(
+									"Tool " + toolName + " timed out after " + timeout.toSeconds() + "s"));
+						})
+						.onErrorResume(RejectedExecutionException.class, e -> {
+							logger.warn(
+									"Rejected MCP tool call {}: {} calls in progress",
+									toolName,
+									executor.getActiveCount());
+							return Mono.just(CallToolResultFactory.failure(
+									"Server is busy, too many concurrent tool calls. Please retry later"));
+						}))
+				.build();
+	}
+
+	Duration timeoutFor(String toolName) {
+		Integer seconds = toolTimeoutsSeconds.get(toolName);
+		return seconds != null ? Duration.ofSeconds(seconds) : defaultTimeout;
+	}
+
+	@Override
+	public void close() {
+		scheduler.dispose();
+		executor.shutdownNow();
+	}
+
+	private static class ToolThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "mcp-tool-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
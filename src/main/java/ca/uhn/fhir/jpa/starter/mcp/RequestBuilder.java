@@ -1,7 +1,7 @@
 package ca.uhn.fhir.jpa.starter.mcp;
 
 import ca.uhn.fhir.context.FhirContext;
-import com.google.gson.Gson;
+import ca.uhn.fhir.util.UrlUtil;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.mock.web.MockHttpServletRequest;
 
@@ -23,7 +23,7 @@ public class RequestBuilder {
 	 */
 	public RequestBuilder(FhirContext fhirContext, Map<String, Object> contextMap, Interaction interaction) {
 		this.config = contextMap;
-		if (interaction == Interaction.TRANSACTION) this.resourceType = "";
+		if (interaction == Interaction.TRANSACTION || interaction == Interaction.BATCH) this.resourceType = "";
 		else if (contextMap.get("resourceType") instanceof String rt && !rt.isBlank()) this.resourceType = rt;
 		else throw new IllegalArgumentException("Missing or invalid 'resourceType' in contextMap");
 
@@ -45,6 +45,10 @@ public class RequestBuilder {
 					sp = q;
 				} else if (config.get("searchParams") instanceof Map<?, ?> s) {
 					sp = s;
+				} else if (config.get("query") instanceof String q && !q.isBlank()) {
+					String queryString = q.startsWith("?") ? q.substring(1) : q;
+					req.setQueryString(queryString);
+					UrlUtil.parseQueryString(queryString).forEach(req::addParameter);
 				}
 				if (sp != null) {
 					sp.forEach((k, v) -> req.addParameter(k.toString(), v.toString()));
@@ -60,6 +64,11 @@ public class RequestBuilder {
 				req = new MockHttpServletRequest(method, basePath);
 				applyResourceBody(req);
 			}
+			case BATCH -> {
+				method = "POST";
+				req = new MockHttpServletRequest(method, basePath);
+				req.setContent(McpJson.writeValueAsBytes(BatchBundleFactory.toBatchBundle(config.get("operations"))));
+			}
 			case UPDATE -> {
 				method = "PUT";
 				String id = requireString();
@@ -87,11 +96,15 @@ public class RequestBuilder {
 
 	private void applyResourceBody(MockHttpServletRequest req) {
 		Object resourceObj = config.get("resource");
-		String json;
-		if (resourceObj instanceof Map<?, ?>) json = new Gson().toJson(resourceObj, Map.class);
-		else if (resourceObj instanceof String) json = resourceObj.toString();
-		else throw new IllegalArgumentException("Unsupported resource body type: " + resourceObj.getClass());
-		req.setContent(json.getBytes(StandardCharsets.UTF_8));
+		byte[] content;
+		if (resourceObj instanceof Map<?, ?>) content = McpJson.writeValueAsBytes(resourceObj);
+		else if (resourceObj instanceof String json) content = json.getBytes(StandardCharsets.UTF_8);
+		else if (resourceObj instanceof IBaseResource r)
+			content = McpJson.encode(fhirContext, r).getBytes(StandardCharsets.UTF_8);
+		else
+			throw new IllegalArgumentException("Unsupported resource body type: "
+					+ (resourceObj == null ? "null" : resourceObj.getClass().getName()));
+		req.setContent(content);
 	}
 
 	private void applyPatchBody(MockHttpServletRequest req) {
@@ -103,7 +116,7 @@ public class RequestBuilder {
 		if (patchBody instanceof String s) {
 			content = s;
 		} else if (patchBody instanceof IBaseResource r) {
-			content = fhirContext.newJsonParser().encodeResourceToString(r);
+			content = McpJson.encode(fhirContext, r);
 		} else {
 			throw new IllegalArgumentException("Unsupported patch body type: " + patchBody.getClass());
 		}
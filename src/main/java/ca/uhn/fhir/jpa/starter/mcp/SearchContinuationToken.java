@@ -0,0 +1,65 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursor handed to MCP clients by the paged search tool. It points at a search persisted by the
+ * paging provider (the search UUID) together with the offset and page size of the next page to fetch.
+ */
+public class SearchContinuationToken {
+
+	private static final String SEPARATOR = "|";
+
+	private final String resourceType;
+	private final String searchId;
+	private final int offset;
+	private final int count;
+
+	public SearchContinuationToken(String resourceType, String searchId, int offset, int count) {
+		this.resourceType = resourceType;
+		this.searchId = searchId;
+		this.offset = offset;
+		this.count = count;
+	}
+
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	public String getSearchId() {
+		return searchId;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public String encode() {
+		String raw = String.join(SEPARATOR, resourceType, searchId, Integer.toString(offset), Integer.toString(count));
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static SearchContinuationToken decode(String token) {
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			String[] parts = raw.split("\\|", -1);
+			if (parts.length != 4 || parts[0].isBlank() || parts[1].isBlank()) {
+				throw new IllegalArgumentException("Invalid continuation token");
+			}
+			int offset = Integer.parseInt(parts[2]);
+			int count = Integer.parseInt(parts[3]);
+			if (offset < 0 || count <= 0) {
+				throw new IllegalArgumentException("Invalid continuation token");
+			}
+			return new SearchContinuationToken(parts[0], parts[1], offset, count);
+		} catch (IllegalArgumentException e) {
+			// also covers malformed Base64 and NumberFormatException
+			throw new IllegalArgumentException("Invalid continuation token", e);
+		}
+	}
+}
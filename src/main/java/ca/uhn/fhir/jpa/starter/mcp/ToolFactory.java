@@ -199,6 +199,78 @@ public class ToolFactory {
 		}
 		""";
 
+	private static final String SEARCH_FHIR_RESOURCES_PAGED_SCHEMA =
+			"""
+		{
+		"type": "object",
+		"properties": {
+			"resourceType": {
+			"type": "string",
+			"description": "Type of the resource to search"
+			},
+			"query": {
+			"type": "string",
+			"description": "Search parameters in URL query string format, e.g. family=Smith&birthdate=gt2000-01-01"
+			},
+			"count": {
+			"type": "integer",
+			"description": "Number of resources per page. Capped by the server's maximum page size"
+			}
+		},
+		"required": ["resourceType"]
+		}
+		""";
+
+	private static final String NEXT_PAGE_FHIR_SEARCH_SCHEMA =
+			"""
+		{
+		"type": "object",
+		"properties": {
+			"continuationToken": {
+			"type": "string",
+			"description": "The continuationToken returned by a previous search-fhir-resources-paged or next-page-fhir-search call"
+			}
+		},
+		"required": ["continuationToken"]
+		}
+		""";
+
+	private static final String BATCH_FHIR_OPERATIONS_SCHEMA =
+			"""
+		{
+		"type": "object",
+		"properties": {
+			"operations": {
+			"type": "array",
+			"description": "Independent read and search operations, executed in parallel. At most 100 per call",
+			"items": {
+				"type": "object",
+				"properties": {
+					"operation": {
+					"type": "string",
+					"enum": ["read", "search"]
+					},
+					"resourceType": {
+					"type": "string",
+					"description": "Type of the resource to read or search"
+					},
+					"id": {
+					"type": "string",
+					"description": "id of the resource to read, required for 'read'"
+					},
+					"query": {
+					"type": "string",
+					"description": "Search parameters in URL query string format, for 'search'"
+					}
+				},
+				"required": ["operation", "resourceType"]
+			}
+			}
+		},
+		"required": ["operations"]
+		}
+		""";
+
 	// TODO Add a tool for the CDS Hooks discovery endpoint
 	// Alternatively, should each service be a separate tool?
 
@@ -312,6 +384,24 @@ public class ToolFactory {
 				.build();
 	}
 
+	public static Tool searchFhirResourcesPaged() throws JsonProcessingException {
+		return new Tool.Builder()
+				.name("search-fhir-resources-paged")
+				.description(
+						"Search FHIR resources one page at a time. Returns the first page and a continuationToken "
+								+ "to pass to next-page-fhir-search while more results are available")
+				.inputSchema(mapper.readValue(SEARCH_FHIR_RESOURCES_PAGED_SCHEMA, McpSchema.JsonSchema.class))
+				.build();
+	}
+
+	public static Tool nextPageFhirSearch() throws JsonProcessingException {
+		return new Tool.Builder()
+				.name("next-page-fhir-search")
+				.description("Fetch the next page of a search started with search-fhir-resources-paged")
+				.inputSchema(mapper.readValue(NEXT_PAGE_FHIR_SEARCH_SCHEMA, McpSchema.JsonSchema.class))
+				.build();
+	}
+
 	public static Tool createFhirTransaction() throws JsonProcessingException {
 		return new Tool.Builder()
 				.name("create-fhir-transaction")
@@ -320,6 +410,15 @@ public class ToolFactory {
 				.build();
 	}
 
+	public static Tool batchFhirOperations() throws JsonProcessingException {
+		return new Tool.Builder()
+				.name("batch-fhir-operations")
+				.description("Execute several independent FHIR reads and searches in one call. Returns a batch-response "
+						+ "Bundle with one entry per operation, in the order given")
+				.inputSchema(mapper.readValue(BATCH_FHIR_OPERATIONS_SCHEMA, McpSchema.JsonSchema.class))
+				.build();
+	}
+
 	public static Tool callCdsHook() throws JsonProcessingException {
 		return new Tool.Builder()
 				.name("call-cds-hook")
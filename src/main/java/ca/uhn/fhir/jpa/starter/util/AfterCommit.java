@@ -0,0 +1,30 @@
+package ca.uhn.fhir.jpa.starter.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers work, typically dropping cache entries, from a {@code STORAGE_PRECOMMIT_*} hook until the transaction that
+ * wrote the resource has committed. Running it before the commit would let a concurrent reader, which still sees
+ * the old content, fill the cache with it again; after a rollback nothing runs.
+ */
+public final class AfterCommit {
+
+	private AfterCommit() {}
+
+	/**
+	 * Runs {@code theAction} once the current transaction commits, or right away outside of a transaction.
+	 */
+	public static void run(Runnable theAction) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					theAction.run();
+				}
+			});
+		} else {
+			theAction.run();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package ca.uhn.fhir.jpa.starter.validation;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
 import org.hl7.fhir.common.hapi.validation.support.ValidationSupportChain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,9 +22,15 @@ public class VersionedUrlFallbackConfig {
 
 	private static final Logger ourLog = LoggerFactory.getLogger(VersionedUrlFallbackConfig.class);
 
-	public VersionedUrlFallbackConfig(FhirContext theFhirContext, ValidationSupportChain theValidationSupportChain) {
+	public VersionedUrlFallbackConfig(
+			FhirContext theFhirContext,
+			ValidationSupportChain theValidationSupportChain,
+			IInterceptorService theInterceptorService) {
 		ourLog.info("Adding VersionedUrlFallbackValidationSupport to validation chain");
-		theValidationSupportChain.addValidationSupport(
-				0, new VersionedUrlFallbackValidationSupport(theFhirContext, theValidationSupportChain));
+		VersionedUrlFallbackValidationSupport fallbackSupport =
+				new VersionedUrlFallbackValidationSupport(theFhirContext, theValidationSupportChain);
+		theValidationSupportChain.addValidationSupport(0, fallbackSupport);
+		// drops the memoized lookups whenever a StructureDefinition changes
+		theInterceptorService.registerInterceptor(fallbackSupport);
 	}
 }
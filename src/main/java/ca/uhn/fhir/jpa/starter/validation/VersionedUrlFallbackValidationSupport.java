@@ -2,11 +2,23 @@ package ca.uhn.fhir.jpa.starter.validation;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.support.IValidationSupport;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.starter.util.AfterCommit;
+import ca.uhn.fhir.sl.cache.Cache;
+import ca.uhn.fhir.sl.cache.CacheFactory;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -21,15 +33,31 @@ import java.util.function.Function;
  *
  * This addresses issues where profiles reference versioned base FHIR resources that
  * aren't available with exact version matching in the validation context.
+ *
+ * Results, including misses, are memoized per versioned URL, since large bundles resolve the
+ * same canonicals over and over. The cache is dropped by {@link #invalidateCaches()} and, when
+ * registered as an interceptor, whenever a canonical resource (any resource with a {@code url},
+ * as {@link #fetchResource} serves all of them) is stored or deleted. The drop happens once the
+ * write has committed, see {@link AfterCommit}. A lookup that was already running when the cache
+ * was dropped does not store its result, which may predate the write. A fallback is only logged
+ * at WARN the first time for each URL.
  */
 // TODO: this should be fixed in core
+@Interceptor
 public class VersionedUrlFallbackValidationSupport implements IValidationSupport {
 
 	private static final Logger ourLog = LoggerFactory.getLogger(VersionedUrlFallbackValidationSupport.class);
 
+	static final int MAX_CACHED_URLS = 10_000;
+	private static final Duration CACHE_TIME_TO_LIVE = Duration.ofHours(1);
+
 	private final FhirContext myFhirContext;
 	private final IValidationSupport myChain;
-	private final Set<String> myUrlPrefixes;
+	private final PrefixTrie myUrlPrefixes;
+	private final Cache<Key, Optional<IBaseResource>> myCache;
+	private final Set<String> myWarnedUrls = ConcurrentHashMap.newKeySet();
+	/** incremented by every invalidation, before the cache is dropped */
+	private final AtomicLong myGeneration = new AtomicLong();
 
 	/**
 	 * Creates a fallback validation support that only applies to URLs starting with the default prefix
@@ -51,7 +79,8 @@ public class VersionedUrlFallbackValidationSupport implements IValidationSupport
 			FhirContext theFhirContext, IValidationSupport theChain, Set<String> theUrlPrefixes) {
 		myFhirContext = theFhirContext;
 		myChain = theChain;
-		myUrlPrefixes = theUrlPrefixes;
+		myUrlPrefixes = new PrefixTrie(theUrlPrefixes);
+		myCache = CacheFactory.build(CACHE_TIME_TO_LIVE.toMillis(), MAX_CACHED_URLS);
 	}
 
 	@Override
@@ -61,15 +90,22 @@ public class VersionedUrlFallbackValidationSupport implements IValidationSupport
 
 	@Override
 	public <T extends IBaseResource> T fetchResource(Class<T> theClass, String theUri) {
-		return doFetchWithFallback(theUri, uri -> myChain.fetchResource(theClass, uri));
+		String type = theClass != null ? theClass.getName() : "";
+		return doFetchWithFallback(type, theUri, uri -> myChain.fetchResource(theClass, uri));
 	}
 
 	@Override
 	public IBaseResource fetchStructureDefinition(String theUrl) {
-		return doFetchWithFallback(theUrl, myChain::fetchStructureDefinition);
+		return doFetchWithFallback("StructureDefinition", theUrl, myChain::fetchStructureDefinition);
 	}
 
-	private <T extends IBaseResource> T doFetchWithFallback(String theUrl, Function<String, T> theFetcher) {
+	@SuppressWarnings("unchecked")
+	private <T extends IBaseResource> T doFetchWithFallback(
+			String theType, String theUrl, Function<String, T> theFetcher) {
+		if (theUrl == null) {
+			return null;
+		}
+
 		// Check if this is a versioned URL (contains |)
 		int pipeIndex = theUrl.indexOf('|');
 		if (pipeIndex <= 0) {
@@ -84,6 +120,26 @@ public class VersionedUrlFallbackValidationSupport implements IValidationSupport
 			return null;
 		}
 
+		// Not loaded through the cache: the chain may call back into this support while resolving
+		Key key = new Key(theType, theUrl);
+		Optional<IBaseResource> cached = myCache.getIfPresent(key);
+		if (cached != null) {
+			return (T) cached.orElse(null);
+		}
+		long generation = myGeneration.get();
+		T result = fetchWithFallback(theUrl, baseUrl, theFetcher);
+		if (myGeneration.get() == generation) {
+			myCache.put(key, Optional.ofNullable(result));
+			// an invalidation running concurrently may have missed the entry just written
+			if (myGeneration.get() != generation) {
+				myCache.invalidate(key);
+			}
+		}
+		return result;
+	}
+
+	private <T extends IBaseResource> T fetchWithFallback(
+			String theUrl, String baseUrl, Function<String, T> theFetcher) {
 		// Try exact versioned URL first
 		T result = theFetcher.apply(theUrl);
 		if (result != null) {
@@ -93,10 +149,14 @@ public class VersionedUrlFallbackValidationSupport implements IValidationSupport
 		// Try non-versioned URL fallback
 		result = theFetcher.apply(baseUrl);
 		if (result != null) {
-			ourLog.warn(
-					"Requested versioned canonical '{}' not found, falling back to non-versioned '{}'",
-					theUrl,
-					baseUrl);
+			if (myWarnedUrls.size() < MAX_CACHED_URLS && myWarnedUrls.add(theUrl)) {
+				ourLog.warn(
+						"Requested versioned canonical '{}' not found, falling back to non-versioned '{}'",
+						theUrl,
+						baseUrl);
+			} else {
+				ourLog.debug("Falling back from '{}' to non-versioned '{}'", theUrl, baseUrl);
+			}
 			return result;
 		}
 
@@ -104,19 +164,77 @@ public class VersionedUrlFallbackValidationSupport implements IValidationSupport
 	}
 
 	private boolean matchesPrefix(String theUrl) {
-		if (myUrlPrefixes.isEmpty()) {
-			return true;
-		}
-		for (String prefix : myUrlPrefixes) {
-			if (theUrl.startsWith(prefix)) {
-				return true;
-			}
+		return myUrlPrefixes.matches(theUrl);
+	}
+
+	@Override
+	public void invalidateCaches() {
+		myGeneration.incrementAndGet();
+		myCache.invalidateAll();
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		invalidateIfCanonical(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		invalidateIfCanonical(theOldResource);
+		invalidateIfCanonical(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		invalidateIfCanonical(theResource);
+	}
+
+	private void invalidateIfCanonical(IBaseResource theResource) {
+		if (theResource != null && myFhirContext.getResourceDefinition(theResource).getChildByName("url") != null) {
+			AfterCommit.run(this::invalidateCaches);
 		}
-		return false;
 	}
 
 	@Override
 	public String getName() {
 		return "VersionedUrlFallbackValidationSupport";
 	}
+
+	private record Key(String type, String url) {}
+
+	/**
+	 * Character trie of the configured URL prefixes, so that a lookup costs the length of the matched prefix rather
+	 * than one {@code startsWith} per prefix. An empty set of prefixes matches every URL.
+	 */
+	static final class PrefixTrie {
+		private final Node myRoot = new Node();
+
+		PrefixTrie(Set<String> thePrefixes) {
+			if (thePrefixes.isEmpty()) {
+				myRoot.myTerminal = true;
+			}
+			for (String prefix : thePrefixes) {
+				Node node = myRoot;
+				for (int i = 0; i < prefix.length(); i++) {
+					node = node.myChildren.computeIfAbsent(prefix.charAt(i), c -> new Node());
+				}
+				node.myTerminal = true;
+			}
+		}
+
+		boolean matches(String theUrl) {
+			Node node = myRoot;
+			for (int i = 0; !node.myTerminal; i++) {
+				if (i == theUrl.length() || (node = node.myChildren.get(theUrl.charAt(i))) == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static final class Node {
+			private final Map<Character, Node> myChildren = new HashMap<>();
+			private boolean myTerminal;
+		}
+	}
 }
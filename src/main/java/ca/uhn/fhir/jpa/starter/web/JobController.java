@@ -5,6 +5,8 @@ import ca.uhn.fhir.batch2.api.JobOperationResultJson;
 import ca.uhn.fhir.batch2.model.JobInstance;
 import ca.uhn.fhir.batch2.model.StatusEnum;
 import ca.uhn.fhir.batch2.models.JobInstanceFetchRequest;
+import ca.uhn.fhir.jpa.starter.cr.AsyncMeasureEvaluationInterceptor;
+import ca.uhn.fhir.jpa.starter.cr.MeasureEvaluationJobConfig;
 import jakarta.validation.constraints.Min;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.MediaType;
@@ -32,7 +34,18 @@ public class JobController {
 		jobInstanceFetchRequest.setJobStatus(jobStatus != null ? jobStatus.toString() : "");
 		jobInstanceFetchRequest.setSort(Sort.by(Sort.Direction.DESC, JobController.MY_CREATE_TIME));
 
-		return theJobCoordinator.fetchAllJobInstances(jobInstanceFetchRequest).getContent();
+		List<JobInstance> instances =
+				theJobCoordinator.fetchAllJobInstances(jobInstanceFetchRequest).getContent();
+		instances.forEach(JobController::redact);
+		return instances;
+	}
+
+	@RequestMapping(
+			value = JobController.JOBS + "/{instanceId}",
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobInstance getJob(@PathVariable(name = "instanceId") String instanceId) {
+		return redact(theJobCoordinator.getInstance(instanceId));
 	}
 
 	@RequestMapping(
@@ -43,6 +56,20 @@ public class JobController {
 		return theJobCoordinator.cancelInstance(instanceId);
 	}
 
+	/**
+	 * The parameters of measure evaluation jobs list the patients evaluated, and their report is patient data. Neither
+	 * is shown here: the report is served through the FHIR endpoint, where authorization applies, see
+	 * {@link AsyncMeasureEvaluationInterceptor}.
+	 */
+	private static JobInstance redact(JobInstance theInstance) {
+		if (theInstance != null
+				&& MeasureEvaluationJobConfig.JOB_EVALUATE_MEASURE.equals(theInstance.getJobDefinitionId())) {
+			theInstance.setParameters((String) null);
+			theInstance.setReport(null);
+		}
+		return theInstance;
+	}
+
 	public static final String JOBS = "jobs";
 	public static final String MY_CREATE_TIME = "myCreateTime";
 }
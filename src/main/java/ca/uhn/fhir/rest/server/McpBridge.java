@@ -1,9 +1,14 @@
 package ca.uhn.fhir.rest.server;
 
+import ca.uhn.fhir.jpa.starter.mcp.McpToolExecutor;
 import io.modelcontextprotocol.server.McpServerFeatures;
 
 import java.util.List;
 
 public interface McpBridge {
 	List<McpServerFeatures.SyncToolSpecification> generateTools();
+
+	default List<McpServerFeatures.AsyncToolSpecification> generateAsyncTools(McpToolExecutor toolExecutor) {
+		return generateTools().stream().map(toolExecutor::toAsync).toList();
+	}
 }
@@ -3,12 +3,12 @@ package ca.uhn.fhir.rest.server;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.starter.cdshooks.CdsHooksRequest;
 import ca.uhn.fhir.jpa.starter.mcp.Interaction;
+import ca.uhn.fhir.jpa.starter.mcp.McpJson;
 import ca.uhn.fhir.jpa.starter.mcp.ToolFactory;
 import ca.uhn.fhir.rest.api.server.cdshooks.CdsServiceRequestContextJson;
 import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceRegistry;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.Gson;
 import io.modelcontextprotocol.server.McpServerFeatures;
 import io.modelcontextprotocol.spec.McpSchema;
 import org.jetbrains.annotations.NotNull;
@@ -101,8 +101,7 @@ public class McpCdsBridge implements McpBridge {
 					var value = entry.getValue();
 
 					// Object is a String -> Object map
-					// Use a standard JSON library to convert it
-					var resource = fhirContext.newJsonParser().parseResource(new Gson().toJson(value));
+					var resource = McpJson.toResource(fhirContext, value);
 					request.addPrefetch(key, resource);
 				}
 			} else {
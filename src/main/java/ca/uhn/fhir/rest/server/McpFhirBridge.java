@@ -2,17 +2,21 @@ package ca.uhn.fhir.rest.server;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.starter.mcp.CallToolResultFactory;
+import ca.uhn.fhir.jpa.starter.mcp.DaoToolDispatcher;
 import ca.uhn.fhir.jpa.starter.mcp.Interaction;
+import ca.uhn.fhir.jpa.starter.mcp.McpCallerContext;
 import ca.uhn.fhir.jpa.starter.mcp.RequestBuilder;
 import ca.uhn.fhir.jpa.starter.mcp.ToolFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.server.McpSyncServerExchange;
 import io.modelcontextprotocol.spec.McpSchema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @Component
@@ -22,61 +26,99 @@ public class McpFhirBridge implements McpBridge {
 
 	private final RestfulServer restfulServer;
 	private final FhirContext fhirContext;
+	private final DaoToolDispatcher daoToolDispatcher;
 
 	public McpFhirBridge(RestfulServer restfulServer) {
+		this(restfulServer, null);
+	}
+
+	/**
+	 * @param daoToolDispatcher if not null, interactions it supports are executed directly against the DAO
+	 *                          layer rather than being routed through {@link RestfulServer#handleRequest}
+	 */
+	public McpFhirBridge(RestfulServer restfulServer, DaoToolDispatcher daoToolDispatcher) {
 		this.restfulServer = restfulServer;
 		this.fhirContext = restfulServer.getFhirContext();
+		this.daoToolDispatcher = daoToolDispatcher;
 	}
 
 	public List<McpServerFeatures.SyncToolSpecification> generateTools() {
 
 		try {
-			return List.of(
+			List<McpServerFeatures.SyncToolSpecification> tools = new ArrayList<>(List.of(
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.createFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.CREATE))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.CREATE))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.readFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.READ))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.READ))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.updateFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.UPDATE))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.UPDATE))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.deleteFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.DELETE))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.DELETE))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.conditionalPatchFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.PATCH))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.PATCH))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.searchFhirResources())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.SEARCH))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.SEARCH))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.conditionalUpdateFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.UPDATE))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.UPDATE))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.patchFhirResource())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.PATCH))
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.PATCH))
 							.build(),
 					new McpServerFeatures.SyncToolSpecification.Builder()
 							.tool(ToolFactory.createFhirTransaction())
-							.callHandler((exchange, request) -> getToolResult(request, Interaction.TRANSACTION))
-							.build());
+							.callHandler((exchange, request) ->
+									getToolResult(exchange, request, Interaction.TRANSACTION))
+							.build(),
+					new McpServerFeatures.SyncToolSpecification.Builder()
+							.tool(ToolFactory.batchFhirOperations())
+							.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.BATCH))
+							.build()));
+			if (daoToolDispatcher != null) {
+				// paging needs the search to be persisted by the paging provider, which only the DAO path exposes
+				tools.add(new McpServerFeatures.SyncToolSpecification.Builder()
+						.tool(ToolFactory.searchFhirResourcesPaged())
+						.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.SEARCH_PAGED))
+						.build());
+				tools.add(new McpServerFeatures.SyncToolSpecification.Builder()
+						.tool(ToolFactory.nextPageFhirSearch())
+						.callHandler((exchange, request) -> getToolResult(exchange, request, Interaction.NEXT_PAGE))
+						.build());
+			}
+			return tools;
 		} catch (JsonProcessingException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private McpSchema.CallToolResult getToolResult(McpSchema.CallToolRequest contextMap, Interaction interaction) {
+	private McpSchema.CallToolResult getToolResult(
+			McpSyncServerExchange exchange, McpSchema.CallToolRequest contextMap, Interaction interaction) {
+		return getToolResult(McpCallerContext.from(exchange), contextMap, interaction);
+	}
+
+	McpSchema.CallToolResult getToolResult(
+			McpCallerContext caller, McpSchema.CallToolRequest contextMap, Interaction interaction) {
+
+		if (daoToolDispatcher != null && daoToolDispatcher.supports(interaction)) {
+			return daoToolDispatcher.dispatch(caller, contextMap.arguments(), interaction);
+		}
 
 		var response = new MockHttpServletResponse();
 		var request = new RequestBuilder(fhirContext, contextMap.arguments(), interaction).buildRequest();
+		caller.applyTo(request);
 
 		try {
 			restfulServer.handleRequest(interaction.asRequestType(), request, response);
@@ -88,8 +130,10 @@ public class McpFhirBridge implements McpBridge {
 					return CallToolResultFactory.failure("Empty successful response for " + interaction);
 				}
 
-				return CallToolResultFactory.success(
-						contextMap.arguments().get("resourceType").toString(), interaction, body, status);
+				String resourceType = interaction == Interaction.BATCH
+						? "Bundle"
+						: contextMap.arguments().get("resourceType").toString();
+				return CallToolResultFactory.success(resourceType, interaction, body, status);
 			} else {
 				return CallToolResultFactory.failure(String.format("FHIR server error %d: %s", status, body));
 			}
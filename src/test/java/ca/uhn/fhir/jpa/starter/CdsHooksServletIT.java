@@ -115,6 +115,29 @@ class CdsHooksServletIT implements IServerSupport {
 		assertEquals(200, response.getStatusLine().getStatusCode());
 	}
 
+	@Test
+	void testGetCdsServicesConditional() throws IOException {
+		try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+			String etag;
+			try (CloseableHttpResponse response = httpClient.execute(new HttpGet(ourCdsBase))) {
+				assertEquals(200, response.getStatusLine().getStatusCode());
+				etag = response.getFirstHeader("ETag").getValue();
+			}
+
+			HttpGet conditional = new HttpGet(ourCdsBase);
+			conditional.addHeader("If-None-Match", etag);
+			try (CloseableHttpResponse response = httpClient.execute(conditional)) {
+				assertEquals(304, response.getStatusLine().getStatusCode());
+			}
+
+			loadBundle("r4/HelloWorld-Bundle.json", ourCtx, ourClient);
+			await().atMost(10000, TimeUnit.MILLISECONDS).until(this::hasCdsServices);
+			try (CloseableHttpResponse response = httpClient.execute(conditional)) {
+				assertEquals(200, response.getStatusLine().getStatusCode());
+			}
+		}
+	}
+
 	@Test
 	void testCdsHooks() throws IOException {
 		loadBundle("r4/HelloWorld-Bundle.json", ourCtx, ourClient);
@@ -0,0 +1,141 @@
+package ca.uhn.fhir.jpa.starter;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.jpa.cache.ResourceChangeListenerRegistryInterceptor;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.cr.CrCacheInvalidationInterceptor;
+import ca.uhn.fhir.jpa.starter.cr.CrCacheVersionEntity;
+import ca.uhn.fhir.jpa.starter.cr.CrCacheVersionSvc;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import jakarta.persistence.EntityManagerFactory;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Library;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cql.EvaluationSettings;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that Library writes are announced through the CR cache version row, and that a change made on another node,
+ * which runs none of the local storage hooks, is dropped from the library cache long before the fallback polling.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+	classes = {
+		Application.class,
+		NicknameServiceConfig.class,
+		RepositoryConfig.class
+	}, properties = {
+	"spring.datasource.url=jdbc:h2:mem:dbr4-cr-cache-invalidation",
+	"spring.ai.mcp.server.enabled=false",
+	"hapi.fhir.fhir_version=r4",
+	"hapi.fhir.cr.enabled=true",
+	"hapi.fhir.cr.cql.runtime.cache_event_invalidation_enabled=true",
+	"hapi.fhir.cr.cql.runtime.cache_version_poll_interval_ms=500",
+	"spring.main.allow-bean-definition-overriding=true",
+	"spring.jpa.properties.hibernate.search.backend.directory.type=local-heap"
+})
+class CrCacheInvalidationR4IT {
+
+	private IGenericClient ourClient;
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private IInterceptorService myInterceptorService;
+
+	@Autowired
+	private CrCacheInvalidationInterceptor myCacheInvalidationInterceptor;
+
+	@Autowired
+	private ResourceChangeListenerRegistryInterceptor myResourceChangeListenerRegistryInterceptor;
+
+	@Autowired
+	private CrCacheVersionSvc myCacheVersionSvc;
+
+	@Autowired
+	private EvaluationSettings myEvaluationSettings;
+
+	@Autowired
+	private EntityManagerFactory myEntityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager myTransactionManager;
+
+	@Test
+	void libraryWrite_raisesTheCacheVersion() {
+		long before = cacheVersion();
+
+		ourClient.create().resource(library("Raised", "1.0.0")).execute();
+
+		assertTrue(cacheVersion() > before);
+	}
+
+	@Test
+	void libraryChangedOnAnotherNode_isDroppedFromTheCache() {
+		Library library = (Library) ourClient.create().resource(library("Remote", "1.0.0")).execute().getResource();
+		VersionedIdentifier identifier = new VersionedIdentifier().withId("Remote").withVersion("1.0.0");
+		// the Library listener learns about the new Library as well, wait for it before the Library is changed
+		myEvaluationSettings.getLibraryCache().put(identifier, new CompiledLibrary());
+		await().atMost(Duration.ofSeconds(15))
+			.until(() -> !myEvaluationSettings.getLibraryCache().containsKey(identifier));
+		myEvaluationSettings.getLibraryCache().put(identifier, new CompiledLibrary());
+
+		// another node runs none of the local storage hooks, it only raises the version
+		myInterceptorService.unregisterInterceptor(myCacheInvalidationInterceptor);
+		myInterceptorService.unregisterInterceptor(myResourceChangeListenerRegistryInterceptor);
+		try {
+			library.setDescription("changed elsewhere");
+			ourClient.update().resource(library).execute();
+			new TransactionTemplate(myTransactionManager).executeWithoutResult(status -> myCacheVersionSvc.versionChanged());
+		} finally {
+			myInterceptorService.registerInterceptor(myCacheInvalidationInterceptor);
+			myInterceptorService.registerInterceptor(myResourceChangeListenerRegistryInterceptor);
+		}
+
+		// the fallback polling runs every ten minutes
+		await().atMost(Duration.ofSeconds(5))
+			.until(() -> !myEvaluationSettings.getLibraryCache().containsKey(identifier));
+	}
+
+	private long cacheVersion() {
+		return new TransactionTemplate(myTransactionManager).execute(status -> SharedEntityManagerCreator
+			.createSharedEntityManager(myEntityManagerFactory)
+			.find(CrCacheVersionEntity.class, "cql")
+			.getVersion());
+	}
+
+	private static Library library(String theName, String theVersion) {
+		Library library = new Library();
+		library.setName(theName);
+		library.setVersion(theVersion);
+		library.setUrl("http://example.org/Library/" + theName);
+		library.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		return library;
+	}
+
+	@BeforeEach
+	void beforeEach() {
+		FhirContext ctx = FhirContext.forR4();
+		ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		ctx.getRestfulClientFactory().setSocketTimeout(1200 * 1000);
+		ourClient = ctx.newRestfulGenericClient("http://localhost:" + port + "/fhir/");
+	}
+}
@@ -34,6 +34,7 @@ import org.testcontainers.elasticsearch.ElasticsearchContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @Testcontainers
@@ -101,5 +102,8 @@ class ElasticsearchLastNR4IT {
 		ctx.getRestfulClientFactory().setSocketTimeout((int) Duration.ofMinutes(20).toMillis());
 		ourClient = ctx.newRestfulGenericClient("http://localhost:" + port + "/fhir/");
 		ourClient.registerInterceptor(new LoggingInterceptor(true));
+
+		// indexes are created in the background at startup
+		await().atMost(Duration.ofSeconds(30)).until(myElasticsearchSvc::isIndexesReady);
 	}
 }
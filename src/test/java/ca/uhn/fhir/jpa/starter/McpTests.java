@@ -10,6 +10,7 @@ import io.modelcontextprotocol.client.McpClient;
 import io.modelcontextprotocol.client.transport.HttpClientStreamableHttpTransport;
 import io.modelcontextprotocol.spec.McpSchema;
 import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
 import org.junit.jupiter.api.Test;
 import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -18,6 +19,7 @@ import org.springframework.test.context.ActiveProfiles;
 
 import java.time.Duration;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -61,7 +63,16 @@ public class McpTests {
 			    }
 			  ]
 			}""")).name(createToolName).build();
-		assertThat(client.callTool(createMcpRequest).isError()).isFalse();
+		var createResult = client.callTool(createMcpRequest);
+		assertThat(createResult.isError()).isFalse();
+
+		var createdBody = new Gson().fromJson(((McpSchema.TextContent) createResult.content().get(0)).text(), LinkedHashMap.class).get("response");
+		var createdPatient = fhirContext.newJsonParser().parseResource(Patient.class, createdBody.toString());
+		var readToolName = ToolFactory.readFhirResource().name();
+		var readMcpRequest = new McpSchema.CallToolRequest.Builder().arguments(Map.of("resourceType", "Patient", "id", createdPatient.getIdElement().getIdPart())).name(readToolName).build();
+		var readResult = client.callTool(readMcpRequest);
+		assertThat(readResult.isError()).isFalse();
+		assertThat(((McpSchema.TextContent) readResult.content().get(0)).text()).contains("uncleScrooge");
 
 		var searchMcpRequest = new McpSchema.CallToolRequest.Builder().arguments(Map.of("operation", "search", "resourceType", "Patient", "query", "identifier=urn:something|uncleScrooge")).name(searchToolName).build();
 
@@ -75,6 +86,46 @@ public class McpTests {
 		var entries = BundleUtil.toListOfEntries(fhirContext, responseBundle);
 		assertThat(entries.size()).isEqualTo(1);
 
+		for (int i = 0; i < 3; i++) {
+			var pagedPatient = "{\"resourceType\": \"Patient\", \"identifier\": [{\"system\": \"urn:paged\", \"value\": \"" + i + "\"}]}";
+			assertThat(client.callTool(new McpSchema.CallToolRequest.Builder().arguments(Map.of("resourceType", "Patient", "resource", pagedPatient)).name(createToolName).build()).isError()).isFalse();
+		}
+
+		var pagedSearchRequest = new McpSchema.CallToolRequest.Builder().arguments(Map.of("resourceType", "Patient", "query", "identifier=urn:paged|", "count", 2)).name(ToolFactory.searchFhirResourcesPaged().name()).build();
+		var firstPage = client.callTool(pagedSearchRequest);
+		assertThat(firstPage.isError()).isFalse();
+		var firstPagePayload = new Gson().fromJson(((McpSchema.TextContent) firstPage.content().get(0)).text(), LinkedHashMap.class);
+		assertThat(BundleUtil.toListOfEntries(fhirContext, fhirContext.newJsonParser().parseResource(Bundle.class, firstPagePayload.get("response").toString()))).hasSize(2);
+		assertThat(firstPagePayload.get("continuationToken")).isNotNull();
+
+		var searchWithCountRequest = new McpSchema.CallToolRequest.Builder().arguments(Map.of("operation", "search", "resourceType", "Patient", "query", "identifier=urn:paged|&_count=2")).name(searchToolName).build();
+		var searchWithCountResult = client.callTool(searchWithCountRequest);
+		assertThat(searchWithCountResult.isError()).isFalse();
+		var searchWithCountBundle = fhirContext.newJsonParser().parseResource(Bundle.class, new Gson().fromJson(((McpSchema.TextContent) searchWithCountResult.content().get(0)).text(), LinkedHashMap.class).get("response").toString());
+		assertThat(searchWithCountBundle.getEntry()).hasSize(2);
+		assertThat(searchWithCountBundle.getLink(Bundle.LINK_SELF)).isNotNull();
+		assertThat(searchWithCountBundle.getLink(Bundle.LINK_NEXT)).isNotNull();
+		assertThat(searchWithCountBundle.getLink(Bundle.LINK_NEXT).getUrl()).contains("_getpages=").contains("_getpagesoffset=2");
+
+		var nextPageRequest = new McpSchema.CallToolRequest.Builder().arguments(Map.of("continuationToken", firstPagePayload.get("continuationToken"))).name(ToolFactory.nextPageFhirSearch().name()).build();
+		var secondPage = client.callTool(nextPageRequest);
+		assertThat(secondPage.isError()).isFalse();
+		var secondPagePayload = new Gson().fromJson(((McpSchema.TextContent) secondPage.content().get(0)).text(), LinkedHashMap.class);
+		assertThat(BundleUtil.toListOfEntries(fhirContext, fhirContext.newJsonParser().parseResource(Bundle.class, secondPagePayload.get("response").toString()))).hasSize(1);
+		assertThat(secondPagePayload.get("continuationToken")).isNull();
+
+		var batchRequest = new McpSchema.CallToolRequest.Builder().arguments(Map.of("operations", List.of(
+			Map.of("operation", "read", "resourceType", "Patient", "id", createdPatient.getIdElement().getIdPart()),
+			Map.of("operation", "search", "resourceType", "Patient", "query", "identifier=urn:paged|")))).name(ToolFactory.batchFhirOperations().name()).build();
+		var batchResult = client.callTool(batchRequest);
+		assertThat(batchResult.isError()).isFalse();
+		var batchPayload = new Gson().fromJson(((McpSchema.TextContent) batchResult.content().get(0)).text(), LinkedHashMap.class);
+		var batchResponse = fhirContext.newJsonParser().parseResource(Bundle.class, batchPayload.get("response").toString());
+		assertThat(batchResponse.getType()).isEqualTo(Bundle.BundleType.BATCHRESPONSE);
+		assertThat(batchResponse.getEntry()).hasSize(2);
+		assertThat(batchResponse.getEntry().get(0).getResource()).isInstanceOf(Patient.class);
+		assertThat(((Bundle) batchResponse.getEntry().get(1).getResource()).getEntry()).hasSize(3);
+
 		client.closeGracefully();
 	}
 }
@@ -0,0 +1,337 @@
+package ca.uhn.fhir.jpa.starter;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.api.IJobMaintenanceService;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.rest.api.CacheControlDirective;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Group;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the report of the parallel evaluation of a Group with the report the CR module itself produces for the
+ * same patients, using the EXM104 measure with its supplemental data elements, and polls the asynchronous evaluation
+ * of the Group for the same report.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+	classes = {
+		Application.class,
+		NicknameServiceConfig.class,
+		RepositoryConfig.class
+	}, properties = {
+	"spring.datasource.url=jdbc:h2:mem:dbr4-parallel-measure",
+	"spring.ai.mcp.server.enabled=false",
+	"hapi.fhir.fhir_version=r4",
+	"hapi.fhir.cr.enabled=true",
+	"hapi.fhir.cr.cql.data.search_parameter_mode=USE_SEARCH_PARAMETERS",
+	"hapi.fhir.cr.cql.terminology.valueset_preexpansion_mode=IGNORE",
+	"hapi.fhir.cr.cql.terminology.valueset_expansion_mode=PERFORM_NAIVE_EXPANSION",
+	"hapi.fhir.cr.parallel_evaluation.enabled=true",
+	"hapi.fhir.cr.parallel_evaluation.min_subjects=1",
+	"hapi.fhir.cr.parallel_evaluation.chunk_size=1",
+	"hapi.fhir.cr.parallel_evaluation.async_enabled=true",
+	"spring.main.allow-bean-definition-overriding=true",
+	"spring.jpa.properties.hibernate.search.backend.directory.type=local-heap"
+})
+class ParallelMeasureEvaluationR4IT implements IServerSupport {
+
+	private static final String MEASURE_ID = "measure-EXM104-8.2.000";
+	private static final List<String> PATIENTS =
+		List.of("Patient/numer-EXM104", "Patient/denom-EXM104", "Patient/denomexcl-EXM104");
+
+	private IGenericClient ourClient;
+	private FhirContext ourCtx;
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private RestfulServer myRestfulServer;
+
+	@Autowired
+	private IJobCoordinator myJobCoordinator;
+
+	@Autowired
+	private IJobMaintenanceService myJobMaintenanceService;
+
+	private final HttpClient ourHttpClient = HttpClient.newHttpClient();
+
+	@Test
+	void parallelGroupEvaluation_matchesCrEvaluation() throws IOException {
+		loadMeasure();
+
+		// all patients, which the parallel evaluation leaves to the CR module
+		MeasureReport expected = evaluate(null);
+		ResponseRecorder recorder = new ResponseRecorder();
+		myRestfulServer.registerInterceptor(recorder);
+		MeasureReport parallel;
+		try {
+			parallel = evaluate("Group/exm104-patients");
+			// the server may complete the request after the client has read the response
+			await().until(() -> recorder.myCompletedNormally.get() > 0);
+		} finally {
+			myRestfulServer.unregisterInterceptor(recorder);
+		}
+		assertEquals(List.of("MeasureReport"), recorder.myOutgoing, "the report should pass the outgoing response hooks");
+		assertEquals(1, recorder.myCompletedNormally.get());
+
+		assertEquals("Group/exm104-patients", parallel.getSubject().getReference());
+		assertEquals(3, parallel.getGroupFirstRep().getPopulationFirstRep().getCount());
+		assertEquals(summary(expected), summary(parallel));
+		assertFalse(supplementalData(parallel).isEmpty(), "the supplemental data should be kept");
+	}
+
+	@Test
+	void asyncEvaluation_isPolledForTheReport() throws Exception {
+		loadMeasure();
+		MeasureReport expected = evaluate("Group/exm104-patients");
+
+		ResponseRecorder recorder = new ResponseRecorder();
+		myRestfulServer.registerInterceptor(recorder);
+		try {
+			HttpResponse<String> kickOff = get(
+				"Measure/" + MEASURE_ID + "/$evaluate-measure?periodStart=2019-01-01&periodEnd=2019-12-31"
+					+ "&subject=Group/exm104-patients",
+				"Prefer", "respond-async",
+				"Authorization", "Bearer secret-token");
+			assertEquals(202, kickOff.statusCode());
+			String pollLocation = kickOff.headers().firstValue("Content-Location").orElseThrow();
+			String jobId = pollLocation.substring(pollLocation.indexOf("_jobId=") + "_jobId=".length());
+
+			String jobParameters = myJobCoordinator.getInstance(jobId).getParameters();
+			assertFalse(jobParameters.contains("secret-token"), "the job must not store the caller's credentials");
+			assertFalse(jobParameters.contains("Patient/"), "the job should resolve the subjects itself");
+
+			assertEquals(
+				404,
+				get("Measure/another-measure/$evaluate-measure?_jobId=" + jobId).statusCode(),
+				"a job can only be polled for the Measure it was started for");
+
+			HttpResponse<String> report = await().atMost(Duration.ofMinutes(2)).until(() -> {
+				myJobMaintenanceService.runMaintenancePass();
+				return get(pollLocation);
+			}, response -> response.statusCode() != 202);
+			assertEquals(200, report.statusCode(), report.body());
+			MeasureReport async = ourCtx.newJsonParser().parseResource(MeasureReport.class, report.body());
+			assertEquals(3, async.getGroupFirstRep().getPopulationFirstRep().getCount());
+			assertEquals(summary(expected), summary(async));
+
+			await().until(() -> recorder.myCompletedNormally.get() == recorder.myOutgoing.size());
+		} finally {
+			myRestfulServer.unregisterInterceptor(recorder);
+		}
+		assertEquals("OperationOutcome", recorder.myOutgoing.get(0), "the 202 should pass the outgoing response hooks");
+		assertEquals(
+			"MeasureReport",
+			recorder.myOutgoing.get(recorder.myOutgoing.size() - 1),
+			"the report should pass the outgoing response hooks");
+	}
+
+	@Test
+	void asyncEvaluationOfAllPatients_resolvesThemInTheJob() throws Exception {
+		loadMeasure();
+		MeasureReport expected = evaluate(null);
+
+		HttpResponse<String> kickOff = get(
+			"Measure/" + MEASURE_ID + "/$evaluate-measure?periodStart=2019-01-01&periodEnd=2019-12-31",
+			"Prefer", "respond-async");
+		assertEquals(202, kickOff.statusCode());
+		String pollLocation = kickOff.headers().firstValue("Content-Location").orElseThrow();
+
+		HttpResponse<String> report = await().atMost(Duration.ofMinutes(2)).until(() -> {
+			myJobMaintenanceService.runMaintenancePass();
+			return get(pollLocation);
+		}, response -> response.statusCode() != 202);
+		assertEquals(200, report.statusCode(), report.body());
+		MeasureReport async = ourCtx.newJsonParser().parseResource(MeasureReport.class, report.body());
+		assertEquals(summary(expected), summary(async));
+	}
+
+	private void loadMeasure() throws IOException {
+		loadBundle("r4/EXM104/EXM104-8.2.000-bundle.json", ourCtx, ourClient);
+		// the CR module requires a canonical library, the population basis and ids on populations and supplemental
+		// data, which the bundle predates
+		Measure measure = ourClient.read().resource(Measure.class).withId(MEASURE_ID).execute();
+		measure.getLibrary().clear();
+		measure.addLibrary("http://fhir.org/guides/dbcg/connectathon/Library/EXM104|8.2.000");
+		measure.getGroup().forEach(group -> {
+			group.addExtension(
+				"http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-populationBasis", new CodeType("Encounter"));
+			group.getPopulation().forEach(population -> population.setId(
+				population.getCode().getCodingFirstRep().getCode()));
+			for (int i = 0; i < group.getStratifier().size(); i++) {
+				group.getStratifier().get(i).setId("stratifier-" + (i + 1));
+			}
+		});
+		measure.getSupplementalData().forEach(sde -> sde.setId(sde.getCode().getText()));
+		ourClient.update().resource(measure).execute();
+		Group group = new Group();
+		group.setId("exm104-patients");
+		PATIENTS.forEach(patient -> group.addMember().setEntity(new Reference(patient)));
+		ourClient.update().resource(group).execute();
+	}
+
+	private HttpResponse<String> get(String theUrl, String... theHeaders) throws IOException, InterruptedException {
+		String url = theUrl.startsWith("http") ? theUrl : "http://localhost:" + port + "/fhir/" + theUrl;
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).header("Accept", "application/fhir+json");
+		for (int i = 0; i < theHeaders.length; i += 2) {
+			request.header(theHeaders[i], theHeaders[i + 1]);
+		}
+		return ourHttpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private MeasureReport evaluate(String theSubject) {
+		Parameters parameters = new Parameters();
+		parameters.addParameter().setName("periodStart").setValue(new StringType("2019-01-01"));
+		parameters.addParameter().setName("periodEnd").setValue(new StringType("2019-12-31"));
+		parameters.addParameter().setName("reportType").setValue(new StringType("population"));
+		if (theSubject != null) {
+			parameters.addParameter().setName("subject").setValue(new StringType(theSubject));
+		}
+		return ourClient
+			.operation()
+			.onInstance(new IdType("Measure", MEASURE_ID))
+			.named("$evaluate-measure")
+			.withParameters(parameters)
+			.returnResourceType(MeasureReport.class)
+			.cacheControl(new CacheControlDirective().setNoCache(true))
+			.useHttpGet()
+			.execute();
+	}
+
+	/**
+	 * The parts of a report that do not depend on how the evaluation was split up: ids of contained resources are
+	 * left out, references to them are followed.
+	 */
+	private Map<String, Object> summary(MeasureReport theReport) {
+		Map<String, Object> summary = new TreeMap<>();
+		for (MeasureReport.MeasureReportGroupComponent group : theReport.getGroup()) {
+			for (MeasureReport.MeasureReportGroupPopulationComponent population : group.getPopulation()) {
+				String code = population.getCode().getCodingFirstRep().getCode();
+				summary.put(group.getId() + "/" + code, population.getCount());
+				if (contained(theReport, population.getSubjectResults()) instanceof ListResource subjects) {
+					summary.put(group.getId() + "/" + code + "/subjects", new TreeSet<>(subjects.getEntry().stream()
+						.map(entry -> entry.getItem().getReference())
+						.toList()));
+				}
+			}
+			if (group.hasMeasureScore()) {
+				summary.put(group.getId() + "/score", group.getMeasureScore().getValue().doubleValue());
+			}
+		}
+		summary.put("evaluatedResource", new TreeSet<>(theReport.getEvaluatedResource().stream()
+			.map(Reference::getReference)
+			.toList()));
+		summary.put("supplementalData", supplementalData(theReport));
+		summary.put("extensions", theReport.getExtension().size());
+		return summary;
+	}
+
+	/**
+	 * @return count per supplemental data value, keyed by the Observation without its id and count
+	 */
+	private Map<String, Integer> supplementalData(MeasureReport theReport) {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (Resource contained : theReport.getContained()) {
+			if (contained instanceof Observation observation && observation.getValue() instanceof IntegerType count) {
+				Observation key = observation.copy();
+				key.setId((String) null);
+				key.setValue(null);
+				counts.merge(ourCtx.newJsonParser().encodeResourceToString(key), count.getValue(), Integer::sum);
+			}
+		}
+		return counts;
+	}
+
+	private static Resource contained(MeasureReport theReport, Reference theReference) {
+		String reference = theReference.getReference();
+		if (reference == null || !reference.startsWith("#")) {
+			return null;
+		}
+		return theReport.getContained().stream()
+			.filter(resource -> reference.substring(1).equals(resource.getIdElement().getIdPart().replace("#", "")))
+			.findFirst()
+			.orElse(null);
+	}
+
+	/**
+	 * Records the response hooks called for evaluations of a subject and for polls of asynchronous evaluations, i.e.
+	 * for the requests the parallel and asynchronous evaluations take over.
+	 */
+	@Interceptor
+	public static class ResponseRecorder {
+		private final List<String> myOutgoing = new CopyOnWriteArrayList<>();
+		private final AtomicInteger myCompletedNormally = new AtomicInteger();
+
+		@Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+		public void outgoingResponse(RequestDetails theRequestDetails, IBaseResource theResource) {
+			if (takenOver(theRequestDetails)) {
+				myOutgoing.add(theResource.fhirType());
+			}
+		}
+
+		@Hook(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY)
+		public void completedNormally(RequestDetails theRequestDetails) {
+			if (takenOver(theRequestDetails)) {
+				myCompletedNormally.incrementAndGet();
+			}
+		}
+
+		private static boolean takenOver(RequestDetails theRequestDetails) {
+			return theRequestDetails.getParameters().containsKey("subject")
+				|| theRequestDetails.getParameters().containsKey("_jobId");
+		}
+	}
+
+	@BeforeEach
+	void beforeEach() {
+		ourCtx = FhirContext.forR4();
+		ourCtx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		ourCtx.getRestfulClientFactory().setSocketTimeout(1200 * 1000);
+		ourClient = ourCtx.newRestfulGenericClient("http://localhost:" + port + "/fhir/");
+	}
+}
@@ -0,0 +1,299 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.api.server.cdshooks.CdsServiceRequestJson;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsHooksDaoAuthorizationSvc;
+import ca.uhn.hapi.fhir.cdshooks.api.ICdsServiceMethod;
+import ca.uhn.hapi.fhir.cdshooks.api.json.CdsServiceJson;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchDaoSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsPrefetchFhirClientSvc;
+import ca.uhn.hapi.fhir.cdshooks.svc.prefetch.CdsResolutionStrategySvc;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ModuleConfigurationPrefetchSvcTest {
+
+    private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+    private HttpServer myServer;
+    private final List<String> myRequests = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> myDelaysMillis = new ConcurrentHashMap<>();
+    /** status the stub answers code:in searches with, 200 serves the labs */
+    private volatile int myValueSetFilterStatus = 200;
+    private final CdsHooksProperties myProperties = new CdsHooksProperties();
+    private PrefetchClientCache myClientCache;
+    private ModuleConfigurationPrefetchSvc mySvc;
+
+    @BeforeEach
+    void startStubServer() throws IOException {
+        myServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        myServer.setExecutor(Executors.newCachedThreadPool());
+        myServer.createContext("/", this::handle);
+        myServer.start();
+        myClientCache = new PrefetchClientCache(ourCtx, new SimpleMeterRegistry(), Duration.ofSeconds(5));
+        // generous, so that only the test about the deadline depends on timing
+        myProperties.setPrefetchDeadlineMillis(5_000);
+    }
+
+    @AfterEach
+    void stopStubServer() throws IOException {
+        if (mySvc != null) {
+            mySvc.close();
+        }
+        myClientCache.close();
+        myServer.stop(0);
+    }
+
+    @Test
+    void omitsPrefetchThatMissesTheDeadline() {
+        myProperties.setPrefetchDeadlineMillis(300);
+        myDelaysMillis.put("/Encounter", 2_000L);
+
+        CdsServiceRequestJson request = augment(newSvc(null));
+
+        assertNotNull(request.getPrefetch("item1"));
+        assertNotNull(request.getPrefetch("item3"));
+        assertNotNull(request.getPrefetch("item6"));
+        assertNull(request.getPrefetch("item4"), "the slow Encounter search should be left out");
+    }
+
+    @Test
+    void requestsTimeOutWithTheDeadline() throws IOException {
+        myDelaysMillis.put("/Patient/123", 2_000L);
+
+        try (PrefetchClientCache clientCache =
+                new PrefetchClientCache(ourCtx, new SimpleMeterRegistry(), Duration.ofMillis(300))) {
+            IGenericClient client = clientCache.getClient("http://localhost:" + myServer.getAddress().getPort());
+            long start = System.nanoTime();
+            assertThrows(FhirClientConnectionException.class, () -> client.read()
+                    .resource(Patient.class)
+                    .withId("123")
+                    .execute());
+            assertTrue(
+                    Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_500,
+                    "a slow server should not hold the prefetch thread past the deadline");
+        }
+    }
+
+    @Test
+    void mergesLabChunksIntoOneSearchset() {
+        CdsServiceRequestJson request = augment(newSvc(null));
+
+        long chunks = myRequests.stream().filter("POST /Observation/_search"::equals).count();
+        assertTrue(chunks > 1, "the lab codes should be split into several searches");
+        Bundle labs = (Bundle) request.getPrefetch("item6");
+        // one lab per chunk plus one returned by every chunk, which is only kept once
+        assertEquals(chunks + 1, labs.getEntry().size());
+    }
+
+    @Test
+    void followsNextLinks() {
+        CdsServiceRequestJson request = augment(newSvc(null));
+
+        Bundle conditions = (Bundle) request.getPrefetch("item3");
+        assertEquals(2, conditions.getEntry().size());
+        assertTrue(myRequests.contains("GET /?_getpages=conditions"));
+    }
+
+    @Test
+    void repeatedHookIsServedFromTheResultCache() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PrefetchResultCache resultCache = new PrefetchResultCache(ourCtx, Duration.ofMinutes(1), 100, meterRegistry);
+        ModuleConfigurationPrefetchSvc svc = newSvc(resultCache);
+
+        CdsServiceRequestJson first = augment(svc);
+        int requestsAfterFirstHook = myRequests.size();
+        CdsServiceRequestJson second = augment(svc);
+
+        assertEquals(requestsAfterFirstHook, myRequests.size(), "the second hook should not reach the FHIR server");
+        assertTrue(meterRegistry.get("cds.prefetch.cache.requests").tag("result", "hit").counter().count() > 0);
+        Patient firstPatient = (Patient) first.getPrefetch("item1");
+        Patient secondPatient = (Patient) second.getPrefetch("item1");
+        assertEquals("123", secondPatient.getIdElement().getIdPart());
+        assertNotSame(firstPatient, secondPatient);
+        firstPatient.setActive(false);
+        assertNull(secondPatient.getActiveElement().getValue(), "hook calls must not share cached instances");
+    }
+
+    @Test
+    void searchesLabsByValueSet() {
+        myProperties.setPrefetchLabsValueSetUrl("http://example.org/ValueSet/uds-labs");
+
+        CdsServiceRequestJson request = augment(newSvc(null));
+
+        assertTrue(myRequests.contains("GET /Observation?code:in"));
+        assertFalse(myRequests.contains("POST /Observation/_search"));
+        Bundle labs = (Bundle) request.getPrefetch("item6");
+        assertEquals("lab-in-valueset", labs.getEntryFirstRep().getResource().getIdElement().getIdPart());
+    }
+
+    @Test
+    void fallsBackToChunkedSearchesWhenValueSetFilterIsRejected() {
+        myProperties.setPrefetchLabsValueSetUrl("http://example.org/ValueSet/uds-labs");
+        myValueSetFilterStatus = 400;
+        ModuleConfigurationPrefetchSvc svc = newSvc(null);
+
+        CdsServiceRequestJson request = augment(svc);
+
+        assertTrue(myRequests.contains("GET /Observation?code:in"));
+        assertTrue(myRequests.contains("POST /Observation/_search"));
+        assertNotNull(request.getPrefetch("item6"));
+
+        // the server is remembered, later hooks go straight to the code lists
+        myRequests.clear();
+        augment(svc);
+        assertFalse(myRequests.contains("GET /Observation?code:in"));
+        assertTrue(myRequests.contains("POST /Observation/_search"));
+    }
+
+    @Test
+    void keepsValueSetFilterAfterTransientFailure() {
+        myProperties.setPrefetchLabsValueSetUrl("http://example.org/ValueSet/uds-labs");
+        myValueSetFilterStatus = 503;
+        ModuleConfigurationPrefetchSvc svc = newSvc(null);
+
+        CdsServiceRequestJson request = augment(svc);
+
+        assertTrue(myRequests.contains("GET /Observation?code:in"));
+        assertFalse(myRequests.contains("POST /Observation/_search"));
+        assertNull(request.getPrefetch("item6"));
+
+        // a 503 says nothing about code:in support, the next hook uses the ValueSet again
+        myValueSetFilterStatus = 200;
+        myRequests.clear();
+        request = augment(svc);
+        assertTrue(myRequests.contains("GET /Observation?code:in"));
+        assertFalse(myRequests.contains("POST /Observation/_search"));
+        assertNotNull(request.getPrefetch("item6"));
+    }
+
+    ModuleConfigurationPrefetchSvc newSvc(PrefetchResultCache theResultCache) {
+        CdsPrefetchDaoSvc daoSvc = mock(CdsPrefetchDaoSvc.class);
+        when(daoSvc.getFhirContext()).thenReturn(ourCtx);
+        mySvc = new ModuleConfigurationPrefetchSvc(
+                mock(CdsResolutionStrategySvc.class),
+                daoSvc,
+                mock(CdsPrefetchFhirClientSvc.class),
+                mock(ICdsHooksDaoAuthorizationSvc.class),
+                mock(IInterceptorBroadcaster.class),
+                myProperties,
+                myClientCache,
+                theResultCache);
+        return mySvc;
+    }
+
+    CdsServiceRequestJson augment(ModuleConfigurationPrefetchSvc theSvc) {
+        CdsServiceJson spec = new CdsServiceJson();
+        for (int i = 1; i <= 6; i++) {
+            spec.addPrefetch("item" + i, "Patient/{{context.patientId}}");
+        }
+        ICdsServiceMethod method = mock(ICdsServiceMethod.class);
+        when(method.getCdsServiceJson()).thenReturn(spec);
+
+        CdsServiceRequestJson request = new CdsServiceRequestJson();
+        request.setFhirServer("http://localhost:" + myServer.getAddress().getPort());
+        request.getContext().put("patientId", "123");
+        theSvc.augmentRequest(request, method);
+        return request;
+    }
+
+    private void handle(HttpExchange theExchange) throws IOException {
+        String path = theExchange.getRequestURI().getPath();
+        String query = theExchange.getRequestURI().getQuery();
+        String body = new String(theExchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        boolean valueSetFilter = query != null && query.contains("code:in=");
+        String marker = valueSetFilter ? "?code:in" : query != null && query.startsWith("_getpages") ? "?" + query : "";
+        myRequests.add(theExchange.getRequestMethod() + " " + path + marker);
+
+        Long delay = myDelaysMillis.get(path);
+        if (delay != null) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String base = "http://localhost:" + myServer.getAddress().getPort();
+        if (valueSetFilter && myValueSetFilterStatus != 200) {
+            OperationOutcome outcome = new OperationOutcome();
+            outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR).setDiagnostics("Unknown modifier :in");
+            send(theExchange, myValueSetFilterStatus, outcome);
+            return;
+        }
+
+        IBaseResource response;
+        if (valueSetFilter) {
+            response = searchset(new Observation().setId("Observation/lab-in-valueset"));
+        } else if (path.equals("/Patient/123")) {
+            response = new Patient().setId("123");
+        } else if (query != null && query.equals("_getpages=conditions")) {
+            response = searchset(new Condition().setId("Condition/2"));
+        } else if (path.equals("/Condition")) {
+            Bundle bundle = searchset(new Condition().setId("Condition/1"));
+            bundle.addLink().setRelation("next").setUrl(base + "/?_getpages=conditions");
+            response = bundle;
+        } else if (path.equals("/Observation/_search")) {
+            String firstCode = body.replaceAll("(?s).*code=([^%&,]+).*", "$1");
+            response = searchset(
+                    new Observation().setId("Observation/lab-" + firstCode),
+                    new Observation().setId("Observation/lab-shared"));
+        } else {
+            String resourceType = path.substring(1).replace("/_search", "");
+            Resource resource = (Resource) ourCtx.getResourceDefinition(resourceType).newInstance();
+            response = searchset(resource.setId(resourceType + "/1"));
+        }
+
+        send(theExchange, 200, response);
+    }
+
+    private static void send(HttpExchange theExchange, int theStatus, IBaseResource theResource) throws IOException {
+        byte[] bytes = ourCtx.newJsonParser().encodeResourceToString(theResource).getBytes(StandardCharsets.UTF_8);
+        theExchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+        theExchange.sendResponseHeaders(theStatus, bytes.length);
+        theExchange.getResponseBody().write(bytes);
+        theExchange.close();
+    }
+
+    static Bundle searchset(Resource... theResources) {
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+        for (Resource resource : theResources) {
+            bundle.addEntry().setResource(resource);
+        }
+        return bundle;
+    }
+}
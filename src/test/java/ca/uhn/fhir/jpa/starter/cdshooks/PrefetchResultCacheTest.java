@@ -0,0 +1,87 @@
+package ca.uhn.fhir.jpa.starter.cdshooks;
+
+import ca.uhn.fhir.context.FhirContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefetchResultCacheTest {
+
+    private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+    private final PrefetchResultCache cache =
+            new PrefetchResultCache(ourCtx, Duration.ofMinutes(1), 100, new SimpleMeterRegistry());
+
+    @Test
+    void put_cachesResultFetchedSinceLastInvalidation() {
+        cache.invalidatePatient("Patient/123");
+        PrefetchResultCache.Key key = key("123");
+        long generation = cache.generation();
+
+        cache.put(key, generation, bundle());
+
+        assertNotNull(cache.getIfPresent(key));
+    }
+
+    @Test
+    void put_dropsResultFetchedBeforePatientWasInvalidated() {
+        PrefetchResultCache.Key key = key("123");
+        long generation = cache.generation();
+
+        // the write commits while the prefetch is still running
+        cache.invalidatePatient("Patient/123");
+        cache.put(key, generation, bundle());
+
+        assertNull(cache.getIfPresent(key));
+    }
+
+    @Test
+    void put_keepsResultWhenAnotherPatientWasInvalidated() {
+        PrefetchResultCache.Key key = key("123");
+        long generation = cache.generation();
+
+        cache.invalidatePatient("Patient/456");
+        cache.put(key, generation, bundle());
+
+        assertNotNull(cache.getIfPresent(key));
+    }
+
+    @Test
+    void put_dropsResultFetchedBeforeInvalidateAll() {
+        PrefetchResultCache.Key key = key("123");
+        long generation = cache.generation();
+
+        cache.invalidateAll();
+        cache.put(key, generation, bundle());
+
+        assertNull(cache.getIfPresent(key));
+    }
+
+    @Test
+    void invalidatePatient_dropsCachedEntries() {
+        PrefetchResultCache.Key key = key("123");
+        cache.put(key, cache.generation(), bundle());
+
+        cache.invalidatePatient("123");
+
+        assertNull(cache.getIfPresent(key));
+    }
+
+    private PrefetchResultCache.Key key(String thePatientId) {
+        return cache.key(
+                "http://fhir.example/fhir",
+                "Patient/" + thePatientId,
+                "Observation?patient={{context.patientId}}",
+                "token");
+    }
+
+    private static Bundle bundle() {
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.SEARCHSET);
+        return bundle;
+    }
+}
@@ -0,0 +1,70 @@
+package ca.uhn.fhir.jpa.starter.common;
+
+import ca.uhn.fhir.jpa.starter.AppProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StarterJpaConfigIndexingSettingsTest {
+
+	@Test
+	void syncKeepsTheHibernateSearchDefaults() {
+		Map<String, String> properties = apply(new HashMap<>(), AppProperties.Elasticsearch.IndexingMode.SYNC);
+
+		assertThat(properties)
+				.containsEntry("hibernate.search.backend.indexing.max_bulk_size", "100")
+				.containsEntry("hibernate.search.backend.indexing.queue_size", "1000")
+				.containsEntry("hibernate.search.backend.indexing.queue_count", "10")
+				.doesNotContainKey("hibernate.search.indexing.plan.synchronization.strategy")
+				.doesNotContainKey("hibernate.search.coordination.strategy");
+	}
+
+	@Test
+	void asyncIndexesAfterTheCommit() {
+		Map<String, String> properties = apply(new HashMap<>(), AppProperties.Elasticsearch.IndexingMode.ASYNC);
+
+		assertThat(properties)
+				.containsEntry("hibernate.search.indexing.plan.synchronization.strategy", "async")
+				.doesNotContainKey("hibernate.search.coordination.strategy");
+	}
+
+	@Test
+	void outboxUsesOutboxPollingCoordination() {
+		Map<String, String> properties = apply(new HashMap<>(), AppProperties.Elasticsearch.IndexingMode.OUTBOX);
+
+		assertThat(properties)
+				.containsEntry("hibernate.search.coordination.strategy", "outbox-polling")
+				.containsEntry("hibernate.search.coordination.event_processor.batch_size", "50")
+				.containsEntry("hibernate.search.coordination.event_processor.polling_interval", "100")
+				.doesNotContainKey("hibernate.search.indexing.plan.synchronization.strategy");
+	}
+
+	@Test
+	void explicitHibernateSearchPropertiesWin() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("hibernate.search.backend.indexing.max_bulk_size", "5");
+		properties.put("hibernate.search.indexing.plan.synchronization.strategy", "read-sync");
+		properties.put("hibernate.search.coordination.event_processor.batch_size", "7");
+
+		apply(properties, AppProperties.Elasticsearch.IndexingMode.ASYNC);
+		assertThat(properties)
+				.containsEntry("hibernate.search.backend.indexing.max_bulk_size", "5")
+				.containsEntry("hibernate.search.indexing.plan.synchronization.strategy", "read-sync");
+
+		apply(properties, AppProperties.Elasticsearch.IndexingMode.OUTBOX);
+		assertThat(properties)
+				.containsEntry("hibernate.search.coordination.strategy", "outbox-polling")
+				.containsEntry("hibernate.search.coordination.event_processor.batch_size", "7");
+	}
+
+	private static Map<String, String> apply(
+			Map<String, String> theProperties, AppProperties.Elasticsearch.IndexingMode theMode) {
+		AppProperties.Elasticsearch settings = new AppProperties.Elasticsearch();
+		settings.setIndexing_mode(theMode);
+		StarterJpaConfig.applyElasticsearchIndexingSettings(theProperties, settings);
+		return theProperties;
+	}
+}
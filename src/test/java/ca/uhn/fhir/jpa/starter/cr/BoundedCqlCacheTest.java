@@ -0,0 +1,55 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCqlCacheTest {
+
+    private final SimpleMeterRegistry myMeterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void mapLookupsAreCountedAsHitsAndMisses() {
+        Map<String, String> cache =
+                CrCommonConfig.boundedCache("cql.test", 10, (key, value) -> 1, new CqlRuntimeProperties(), myMeterRegistry);
+
+        assertNull(cache.get("library"));
+        cache.put("library", "elm");
+        assertEquals("elm", cache.get("library"));
+        assertEquals("elm", cache.get("library"));
+
+        assertEquals(1, gets("miss"));
+        assertEquals(2, gets("hit"));
+    }
+
+    @Test
+    void containsKeyIsNotCounted() {
+        Map<String, String> cache =
+                CrCommonConfig.boundedCache("cql.test", 10, (key, value) -> 1, new CqlRuntimeProperties(), myMeterRegistry);
+
+        // the library manager's containsKey-then-get counts as one lookup
+        assertFalse(cache.containsKey("library"));
+        cache.put("library", "elm");
+        assertTrue(cache.containsKey("library"));
+        assertEquals("elm", cache.get("library"));
+        assertFalse(cache.containsKey(null));
+
+        assertEquals(0, gets("miss"));
+        assertEquals(1, gets("hit"));
+    }
+
+    private double gets(String theResult) {
+        return myMeterRegistry
+                .get("cache.gets")
+                .tag("cache", "cql.test")
+                .tag("result", theResult)
+                .functionCounter()
+                .count();
+    }
+}
@@ -0,0 +1,135 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.opencds.cqf.fhir.cr.hapi.common.ILibraryProcessorFactory;
+import org.opencds.cqf.fhir.cr.hapi.r4.R4MeasureEvaluatorSingleFactory;
+import org.opencds.cqf.fhir.cr.measure.r4.R4MeasureEvaluatorSingle;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CqlCacheWarmerTest {
+
+    private final DaoRegistry myDaoRegistry = mock(DaoRegistry.class);
+    private final R4MeasureEvaluatorSingleFactory myMeasureServiceFactory = mock(R4MeasureEvaluatorSingleFactory.class);
+    private final R4MeasureEvaluatorSingle myMeasureService = mock(R4MeasureEvaluatorSingle.class);
+    private final CountDownLatch myEvaluationReleased = new CountDownLatch(1);
+    private CqlCacheWarmer myWarmer;
+
+    @BeforeEach
+    void setUp() {
+        Measure measure = new Measure();
+        measure.setId("Measure/measure-1");
+        measure.setUrl("http://example.org/Measure/measure-1");
+        mockSearch("Measure", new SimpleBundleProvider(List.of(measure)));
+        mockSearch("Library", new SimpleBundleProvider());
+
+        when(myMeasureServiceFactory.create(any())).thenReturn(myMeasureService);
+        when(myMeasureService.evaluate(
+                        any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    myEvaluationReleased.await(10, TimeUnit.SECONDS);
+                    return new MeasureReport();
+                });
+
+        CqlWarmupProperties properties = new CqlWarmupProperties();
+        properties.setParallelism(2);
+        myWarmer = new CqlCacheWarmer(
+                myDaoRegistry, myMeasureServiceFactory, mock(ILibraryProcessorFactory.class), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        myEvaluationReleased.countDown();
+        myWarmer.close();
+    }
+
+    @Test
+    void healthIsOutOfServiceUntilStartupWarmupFinished() {
+        assertEquals(Status.OUT_OF_SERVICE, myWarmer.health().getStatus());
+
+        myWarmer.onApplicationReady();
+        verify(myMeasureService, timeout(5_000))
+                .evaluate(any(), any(), any(), eq("subject"), eq(CqlCacheWarmer.WARMUP_SUBJECT), any(), any(), any(),
+                        any(), any(), any(), any(), any());
+        assertEquals(Status.OUT_OF_SERVICE, myWarmer.health().getStatus());
+
+        myEvaluationReleased.countDown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> Status.UP.equals(myWarmer.health().getStatus()));
+        assertEquals(1, myWarmer.health().getDetails().get("completed"));
+        assertEquals(0, myWarmer.health().getDetails().get("failed"));
+    }
+
+    @Test
+    void warmupRunsAsSystemRequest() {
+        myEvaluationReleased.countDown();
+
+        myWarmer.warmUp().join();
+
+        ArgumentCaptor<RequestDetails> requestDetails = ArgumentCaptor.forClass(RequestDetails.class);
+        verify(myMeasureServiceFactory).create(requestDetails.capture());
+        assertInstanceOf(SystemRequestDetails.class, requestDetails.getValue());
+    }
+
+    @Test
+    void implementationGuideInstallTriggersWarmup() {
+        myEvaluationReleased.countDown();
+        RequestDetails install = mock(RequestDetails.class);
+        when(install.getResourceName()).thenReturn("ImplementationGuide");
+        when(install.getOperation()).thenReturn("$install");
+        RequestDetails read = mock(RequestDetails.class);
+        when(read.getResourceName()).thenReturn("ImplementationGuide");
+
+        myWarmer.onImplementationGuideInstalled(read);
+        verify(myMeasureServiceFactory, timeout(500).times(0)).create(any());
+
+        myWarmer.onImplementationGuideInstalled(install);
+        verify(myMeasureServiceFactory, timeout(5_000).times(1)).create(any());
+    }
+
+    @Test
+    void failedWarmupRequestsAreCounted() {
+        when(myMeasureServiceFactory.create(any())).thenThrow(new IllegalStateException("boom"));
+
+        myWarmer.onApplicationReady();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> Status.UP.equals(myWarmer.health().getStatus()));
+        assertEquals(1, myWarmer.health().getDetails().get("failed"));
+        verify(myMeasureService, never())
+                .evaluate(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any());
+        verify(myMeasureServiceFactory, times(1)).create(any());
+    }
+
+    private void mockSearch(String theResourceType, SimpleBundleProvider theResults) {
+        IFhirResourceDao<?> dao = mock(IFhirResourceDao.class);
+        when(dao.search(any(SearchParameterMap.class), any(RequestDetails.class))).thenReturn(theResults);
+        doReturn(dao).when(myDaoRegistry).getResourceDao(theResourceType);
+    }
+}
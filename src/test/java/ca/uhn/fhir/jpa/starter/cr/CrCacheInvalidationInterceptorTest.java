@@ -0,0 +1,105 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class CrCacheInvalidationInterceptorTest {
+
+    private static final FhirContext ourFhirContext = FhirContext.forR4Cached();
+    private static final String VALUE_SET_URL = "http://example.org/ValueSet/diabetes";
+
+    private final Map<VersionedIdentifier, CompiledLibrary> myLibraryCache = new HashMap<>();
+    private final Map<String, List<Code>> myValueSetCache = new HashMap<>();
+    private final CrCacheVersionSvc myCacheVersionSvc = mock(CrCacheVersionSvc.class);
+    private final CrCacheInvalidationInterceptor myInterceptor =
+            new CrCacheInvalidationInterceptor(ourFhirContext, myLibraryCache, myValueSetCache, myCacheVersionSvc);
+
+    @BeforeEach
+    void fillCaches() {
+        myLibraryCache.put(new VersionedIdentifier().withId("Diabetes").withVersion("1.0.0"), new CompiledLibrary());
+        myLibraryCache.put(new VersionedIdentifier().withId("Diabetes").withVersion("2.0.0"), new CompiledLibrary());
+        myLibraryCache.put(new VersionedIdentifier().withId("FHIRHelpers").withVersion("4.0.1"), new CompiledLibrary());
+        myValueSetCache.put(VALUE_SET_URL, List.of());
+        myValueSetCache.put(VALUE_SET_URL + "|1.0.0", List.of());
+        myValueSetCache.put(VALUE_SET_URL + "-type-2", List.of());
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void libraryWriteDropsOnlyThatLibraryOnceCommitted() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        myInterceptor.resourceUpdated(library("Diabetes"), library("Diabetes"));
+        assertEquals(3, myLibraryCache.size());
+
+        commit();
+        assertEquals(1, myLibraryCache.size());
+        assertTrue(myLibraryCache.keySet().stream().allMatch(id -> "FHIRHelpers".equals(id.getId())));
+        assertEquals(3, myValueSetCache.size());
+        verify(myCacheVersionSvc, times(2)).versionChanged();
+    }
+
+    @Test
+    void valueSetDeleteDropsAllVersionsOfThatValueSet() {
+        myInterceptor.resourceDeleted(new ValueSet().setUrl(VALUE_SET_URL));
+
+        assertEquals(Map.of(VALUE_SET_URL + "-type-2", List.of()), myValueSetCache);
+        assertEquals(3, myLibraryCache.size());
+        verify(myCacheVersionSvc).versionChanged();
+    }
+
+    @Test
+    void rolledBackWriteKeepsTheCaches() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        myInterceptor.resourceCreated(library("Diabetes"));
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertEquals(3, myLibraryCache.size());
+    }
+
+    @Test
+    void otherResourcesAreIgnored() {
+        myInterceptor.resourceCreated(new Patient());
+
+        assertEquals(3, myLibraryCache.size());
+        assertEquals(3, myValueSetCache.size());
+        verify(myCacheVersionSvc, never()).versionChanged();
+    }
+
+    private static Library library(String theName) {
+        return new Library().setName(theName);
+    }
+
+    private static void commit() {
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    }
+}
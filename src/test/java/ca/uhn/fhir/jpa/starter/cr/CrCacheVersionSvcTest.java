@@ -0,0 +1,71 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.jpa.cache.IResourceChangeListenerCache;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class CrCacheVersionSvcTest {
+
+    private final EntityManager myEntityManager = mock(EntityManager.class);
+    private final IResourceChangeListenerCache myListenerCache = mock(IResourceChangeListenerCache.class);
+    private final CrCacheVersionSvc mySvc = new CrCacheVersionSvc(
+            myEntityManager, new TransactionTemplate(mock(PlatformTransactionManager.class)), 1000);
+
+    @Test
+    void listenersAreRefreshedOnlyOnceTheVersionHasMoved() {
+        when(myEntityManager.find(CrCacheVersionEntity.class, CrCacheVersionSvc.ROW_ID))
+                .thenReturn(row(3), row(3), row(4), row(4));
+        mySvc.start();
+        mySvc.refreshOnChange(myListenerCache);
+
+        mySvc.pollForChanges();
+        verify(myListenerCache, never()).forceRefresh();
+
+        mySvc.pollForChanges();
+        mySvc.pollForChanges();
+        verify(myListenerCache, times(1)).forceRefresh();
+    }
+
+    @Test
+    void missingRowIsCreated() {
+        mySvc.start();
+
+        assertTrue(mySvc.isEnabled());
+        verify(myEntityManager).persist(any(CrCacheVersionEntity.class));
+    }
+
+    @Test
+    void nothingIsRaisedOrPolledWithoutTheTable() {
+        when(myEntityManager.find(CrCacheVersionEntity.class, CrCacheVersionSvc.ROW_ID))
+                .thenThrow(new IllegalStateException("Table \"CR_CACHE_VERSION\" not found"));
+        mySvc.start();
+        mySvc.refreshOnChange(myListenerCache);
+
+        mySvc.versionChanged();
+        mySvc.pollForChanges();
+
+        assertFalse(mySvc.isEnabled());
+        verify(myEntityManager, never()).createQuery(anyString());
+        verifyNoInteractions(myListenerCache);
+    }
+
+    private static CrCacheVersionEntity row(long theVersion) {
+        CrCacheVersionEntity entity = new CrCacheVersionEntity();
+        entity.setId(CrCacheVersionSvc.ROW_ID);
+        entity.setVersion(theVersion);
+        return entity;
+    }
+}
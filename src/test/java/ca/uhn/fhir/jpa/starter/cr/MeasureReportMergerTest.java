@@ -0,0 +1,110 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeasureReportMergerTest {
+
+    private static final String SDE_URL = "http://hl7.org/fhir/us/davinci-deqm/StructureDefinition/extension-supplementalData";
+
+    @Test
+    void noReport_returnsNull() {
+        assertNull(new MeasureReportMerger().getReport());
+    }
+
+    @Test
+    void add_keepsMergingIntoTheSameReport() {
+        MeasureReportMerger merger = new MeasureReportMerger();
+
+        for (int i = 0; i < 5; i++) {
+            merger.add(report("Patient/" + i, i % 2 == 0 ? "female" : "male"));
+        }
+
+        MeasureReport report = merger.getReport();
+        MeasureReport.MeasureReportGroupPopulationComponent population =
+                report.getGroupFirstRep().getPopulationFirstRep();
+        assertEquals(5, population.getCount());
+        assertEquals(5, report.getEvaluatedResource().size());
+        assertEquals(1, report.getEvaluatedResourceFirstRep().getExtension().size());
+
+        // one subject list holding all subjects, one supplemental data Observation per value
+        ListResource subjects = (ListResource) contained(report, population.getSubjectResults());
+        assertEquals(5, subjects.getEntry().size());
+        assertEquals(3, report.getContained().size());
+        assertEquals(3, count(report, "female"));
+        assertEquals(2, count(report, "male"));
+
+        // the report extensions point at the merged Observations and are not duplicated
+        assertEquals(2, report.getExtension().size());
+        for (Extension extension : report.getExtension()) {
+            assertNotNull(contained(report, (Reference) extension.getValue()));
+        }
+    }
+
+    @Test
+    void add_doesNotModifyTheSource() {
+        MeasureReportMerger merger = new MeasureReportMerger();
+        MeasureReport first = report("Patient/1", "female");
+        MeasureReport second = report("Patient/2", "female");
+
+        merger.add(first);
+        merger.add(second);
+
+        assertEquals(2, merger.getReport().getGroupFirstRep().getPopulationFirstRep().getCount());
+        assertEquals(1, first.getGroupFirstRep().getPopulationFirstRep().getCount());
+        assertEquals(1, second.getGroupFirstRep().getPopulationFirstRep().getCount());
+    }
+
+    private static MeasureReport report(String theSubject, String theGender) {
+        MeasureReport report = new MeasureReport();
+
+        ListResource subjects = new ListResource();
+        subjects.setId("subjects");
+        subjects.addEntry().setItem(new Reference(theSubject));
+        report.addContained(subjects);
+
+        Observation observation = new Observation();
+        observation.setId("sde");
+        observation.setCode(new CodeableConcept().setText(theGender));
+        observation.setValue(new IntegerType(1));
+        report.addContained(observation);
+        report.addExtension(SDE_URL, new Reference("#sde"));
+
+        MeasureReport.MeasureReportGroupComponent group = report.addGroup();
+        group.setId("group-1");
+        group.addPopulation()
+                .setCode(new CodeableConcept(new Coding(
+                        "http://terminology.hl7.org/CodeSystem/measure-population", "initial-population", null)))
+                .setCount(1)
+                .setSubjectResults(new Reference("#subjects"));
+        report.addEvaluatedResource().setReference(theSubject).addExtension(SDE_URL, new StringType("sde"));
+        return report;
+    }
+
+    private static int count(MeasureReport theReport, String theGender) {
+        return theReport.getContained().stream()
+                .filter(Observation.class::isInstance)
+                .map(Observation.class::cast)
+                .filter(o -> o.getCode().getText().equals(theGender))
+                .mapToInt(o -> o.getValueIntegerType().getValue())
+                .sum();
+    }
+
+    private static Object contained(MeasureReport theReport, Reference theReference) {
+        String id = theReference.getReference().substring(1);
+        return theReport.getContained().stream()
+                .filter(r -> r.getIdElement().getIdPart().replace("#", "").equals(id))
+                .findFirst()
+                .orElse(null);
+    }
+}
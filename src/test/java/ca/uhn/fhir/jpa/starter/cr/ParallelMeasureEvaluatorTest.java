@@ -0,0 +1,66 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelMeasureEvaluatorTest {
+
+    private final ParallelMeasureEvaluator myEvaluator = new ParallelMeasureEvaluator(4, 7);
+
+    @AfterEach
+    void tearDown() {
+        myEvaluator.close();
+    }
+
+    @Test
+    void emptySubjectList_returnsNull() {
+        assertNull(myEvaluator.evaluate(List.of(), subject -> fail("no subject expected")));
+    }
+
+    @Test
+    void failingSubject_failsEvaluation() {
+        List<String> subjects = List.of("Patient/1", "Patient/2", "Patient/3");
+
+        assertThrows(IllegalStateException.class, () -> myEvaluator.evaluate(subjects, subject -> {
+            if (subject.equals("Patient/2")) {
+                throw new IllegalStateException("boom");
+            }
+            return report(subject);
+        }));
+    }
+
+    @Test
+    void chunkReports_areMergedInSubjectOrder() {
+        List<String> subjects = IntStream.range(0, 20).mapToObj(i -> "Patient/" + i).toList();
+
+        MeasureReport report = myEvaluator.evaluate(subjects, ParallelMeasureEvaluatorTest::report);
+
+        assertEquals(20, report.getGroupFirstRep().getPopulationFirstRep().getCount());
+        assertEquals(subjects, report.getEvaluatedResource().stream().map(Reference::getReference).toList());
+    }
+
+    /**
+     * A single-subject report counting the subject in the initial population. The equivalence of merged and
+     * single-pass reports is covered against the CR module by {@code ParallelMeasureEvaluationR4IT}.
+     */
+    private static MeasureReport report(String theSubject) {
+        MeasureReport report = new MeasureReport();
+        MeasureReport.MeasureReportGroupComponent group = report.addGroup();
+        group.setId("group-1");
+        group.addPopulation()
+                .setCode(new CodeableConcept(new Coding(
+                        "http://terminology.hl7.org/CodeSystem/measure-population", "initial-population", null)))
+                .setCount(1);
+        report.addEvaluatedResource(new Reference(theSubject));
+        return report;
+    }
+}
@@ -0,0 +1,178 @@
+package ca.uhn.fhir.jpa.starter.cr;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+import org.cqframework.cql.cql2elm.LibraryContentType;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r4.model.Library;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PersistentElmCacheTest {
+
+    private static final FhirContext ourCtx = FhirContext.forR4Cached();
+    private static final VersionedIdentifier IDENTIFIER =
+            new VersionedIdentifier().withSystem("http://example.org").withId("Lib").withVersion("1.0");
+
+    @TempDir
+    Path myDirectory;
+
+    private final DaoRegistry myDaoRegistry = mock(DaoRegistry.class);
+    private final ExecutorService myWriter = Executors.newSingleThreadExecutor();
+    private PersistentElmCache myCache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        myCache = new PersistentElmCache(myDirectory, ourCtx, myDaoRegistry, myWriter);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        myWriter.shutdownNow();
+    }
+
+    @Test
+    void put_writesElmThroughToDisk() throws Exception {
+        mockLibraries(library("lib", "define A: 1"));
+
+        myCache.writeThrough(new HashMap<>()).put(IDENTIFIER, compiled());
+        awaitWrites();
+
+        assertEquals(1, files().size());
+        assertNotNull(myCache.getLibraryContent(IDENTIFIER, LibraryContentType.JSON));
+        assertNull(myCache.getLibraryContent(IDENTIFIER, LibraryContentType.XML));
+    }
+
+    @Test
+    void put_skipsWriteWhenLibraryChangedBeforeTheWrite() throws Exception {
+        Library library = library("lib", "define A: 1");
+        mockLibraries(library);
+        CountDownLatch release = blockWriter();
+
+        // the ELM was compiled from the old content, the Library is updated before the writer gets to it
+        myCache.writeThrough(new HashMap<>()).put(IDENTIFIER, compiled());
+        myCache.resourceUpdated(library, library("lib", "define A: 2"));
+        release.countDown();
+        awaitWrites();
+
+        assertEquals(List.of(), files());
+        assertNull(myCache.getLibraryContent(IDENTIFIER, LibraryContentType.JSON));
+    }
+
+    @Test
+    void rolledBackUpdate_servesTheOldFileAgain() throws Exception {
+        Library library = library("lib", "define A: 1");
+        mockLibraries(library);
+        myCache.writeThrough(new HashMap<>()).put(IDENTIFIER, compiled());
+        awaitWrites();
+
+        TransactionSynchronizationManager.initSynchronization();
+        myCache.resourceUpdated(library, library("lib", "define A: 2"));
+        assertNull(myCache.getLibraryContent(IDENTIFIER, LibraryContentType.JSON), "not served while pending");
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        awaitWrites();
+
+        assertEquals(1, files().size());
+        assertNotNull(myCache.getLibraryContent(IDENTIFIER, LibraryContentType.JSON));
+    }
+
+    @Test
+    void ambiguousKey_isNotWrittenUntilResolved() throws Exception {
+        Library other = library("other", "define A: 2");
+        mockLibraries(library("lib", "define A: 1"), other);
+        Map<VersionedIdentifier, CompiledLibrary> cache = myCache.writeThrough(new HashMap<>());
+
+        cache.put(IDENTIFIER, compiled());
+        awaitWrites();
+        assertEquals(List.of(), files());
+
+        myCache.resourceDeleted(other);
+        cache.put(IDENTIFIER, compiled());
+        awaitWrites();
+        assertEquals(1, files().size());
+        assertNotNull(myCache.getLibraryContent(IDENTIFIER, LibraryContentType.JSON));
+    }
+
+    private CountDownLatch blockWriter() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        myWriter.execute(() -> {
+            running.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void awaitWrites() throws Exception {
+        myWriter.submit(() -> {}).get(10, TimeUnit.SECONDS);
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(myDirectory)) {
+            return files.filter(file -> file.toString().endsWith(".json")).toList();
+        }
+    }
+
+    private void mockLibraries(Library... theLibraries) {
+        IFhirResourceDao<?> dao = mock(IFhirResourceDao.class);
+        when(dao.search(any(SearchParameterMap.class), any(RequestDetails.class)))
+                .thenReturn(new SimpleBundleProvider(List.of(theLibraries)));
+        doReturn(dao).when(myDaoRegistry).getResourceDao("Library");
+    }
+
+    private static Library library(String theId, String theCql) {
+        Library library = new Library();
+        library.setId("Library/" + theId);
+        library.setUrl("http://example.org/Library/Lib");
+        library.setName("Lib");
+        library.setVersion("1.0");
+        library.addContent().setContentType("text/cql").setData(theCql.getBytes(StandardCharsets.UTF_8));
+        return library;
+    }
+
+    private static CompiledLibrary compiled() {
+        CompiledLibrary compiled = new CompiledLibrary();
+        compiled.setLibrary(new org.hl7.elm.r1.Library().withIdentifier(IDENTIFIER));
+        return compiled;
+    }
+}
@@ -0,0 +1,140 @@
+package ca.uhn.fhir.jpa.starter.elastic;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.dao.JpaPid;
+import ca.uhn.fhir.jpa.starter.AppProperties;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.elasticsearch.client.RestClient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Observation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchProperties;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Calls {@link ElasticsearchBootSvcImpl#getObservationResources} directly against a stub of the search endpoint, since
+ * HAPI FHIR's own {@code $lastn} does not go through it.
+ */
+class ElasticsearchBootSvcImplTest {
+
+    private static final ObjectMapper ourMapper = new ObjectMapper();
+    private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+    private HttpServer myServer;
+    private RestClient myRestClient;
+    private ElasticsearchBootSvcImpl mySvc;
+    private final List<List<String>> mySearchedIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        myServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        myServer.createContext("/", this::handle);
+        myServer.start();
+
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.setUris(List.of("http://localhost:" + myServer.getAddress().getPort()));
+        AppProperties.Elasticsearch elasticsearch = new AppProperties.Elasticsearch();
+        elasticsearch.setFetch_chunk_size(2);
+        elasticsearch.setFetch_threads(2);
+        elasticsearch.setCompression_enabled(false);
+        AppProperties appProperties = new AppProperties();
+        appProperties.setElasticsearch(elasticsearch);
+        myRestClient = ElasticsearchConfig.restClientBuilder(properties, elasticsearch).build();
+        ElasticsearchClient client =
+                new ElasticsearchClient(new RestClientTransport(myRestClient, new JacksonJsonpMapper()));
+
+        mySvc = new ElasticsearchBootSvcImpl(client, ourCtx, appProperties);
+        await().until(mySvc::isIndexesReady);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mySvc.close();
+        myRestClient.close();
+        myServer.stop(0);
+    }
+
+    @Test
+    void getObservationResources_loadsChunksOfFetchChunkSize() {
+        List<JpaPid> pids = LongStream.rangeClosed(1, 5).mapToObj(JpaPid::fromId).toList();
+
+        List<IBaseResource> resources = mySvc.getObservationResources(pids);
+
+        assertEquals(
+                List.of("1", "2", "3", "4", "5"),
+                resources.stream().map(r -> r.getIdElement().getIdPart()).toList(),
+                "the chunks should be returned in the order of the ids");
+        synchronized (mySearchedIds) {
+            assertEquals(3, mySearchedIds.size());
+            assertTrue(mySearchedIds.stream().allMatch(ids -> ids.size() <= 2));
+        }
+    }
+
+    @Test
+    void getObservationResources_withoutIds_doesNotSearch() {
+        assertEquals(List.of(), mySvc.getObservationResources(List.of()));
+        synchronized (mySearchedIds) {
+            assertEquals(List.of(), mySearchedIds);
+        }
+    }
+
+    /**
+     * Answers index existence checks, and searches with one observation document per requested identifier
+     */
+    private void handle(HttpExchange theExchange) throws IOException {
+        byte[] body = new byte[0];
+        int status = 200;
+        if (theExchange.getRequestURI().getPath().endsWith("/_search")) {
+            JsonNode request = ourMapper.readTree(theExchange.getRequestBody());
+            List<String> ids = new ArrayList<>();
+            request.at("/query/bool/must/0/terms/identifier").forEach(id -> ids.add(id.asText()));
+            synchronized (mySearchedIds) {
+                mySearchedIds.add(ids);
+            }
+            body = ourMapper.writeValueAsBytes(searchResponse(ids));
+        } else if (!"HEAD".equals(theExchange.getRequestMethod())) {
+            status = 404;
+        }
+        theExchange.getResponseHeaders().add("Content-Type", "application/json");
+        theExchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        theExchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        theExchange.getResponseBody().write(body);
+        theExchange.close();
+    }
+
+    private static ObjectNode searchResponse(List<String> theIds) {
+        ObjectNode response = ourMapper.createObjectNode();
+        response.put("took", 1).put("timed_out", false);
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("failed", 0);
+        ObjectNode hits = response.putObject("hits");
+        hits.putObject("total").put("value", theIds.size()).put("relation", "eq");
+        ArrayNode hitList = hits.putArray("hits");
+        for (String id : theIds) {
+            Observation observation = new Observation();
+            observation.setId(id);
+            ObjectNode hit = hitList.addObject();
+            hit.put("_index", "observation_index").put("_id", id).put("_score", 1.0);
+            hit.putObject("_source").put("resource", ourCtx.newJsonParser().encodeResourceToString(observation));
+        }
+        return response;
+    }
+}
@@ -0,0 +1,103 @@
+package ca.uhn.fhir.jpa.starter.elastic;
+
+import ca.uhn.fhir.jpa.starter.AppProperties;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ElasticsearchConfigTest {
+
+    private static final String RESPONSE = "{\"hits\":{\"hits\":[]}}";
+
+    private HttpServer myServer;
+    private final Set<Integer> myClientPorts = ConcurrentHashMap.newKeySet();
+    private final Set<String> myAcceptEncodings = ConcurrentHashMap.newKeySet();
+    private final Set<String> myRequestBodies = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void startStubServer() throws IOException {
+        myServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        myServer.createContext("/", exchange -> {
+            myClientPorts.add(exchange.getRemoteAddress().getPort());
+            myAcceptEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+            // read the whole chunked body, the gzip stream stops short of the last chunk and the server would then
+            // close the connection
+            InputStream body = new ByteArrayInputStream(exchange.getRequestBody().readAllBytes());
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            myRequestBodies.add(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(RESPONSE.getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            exchange.sendResponseHeaders(200, compressed.size());
+            exchange.getResponseBody().write(compressed.toByteArray());
+            exchange.close();
+        });
+        myServer.start();
+    }
+
+    @AfterEach
+    void stopStubServer() {
+        myServer.stop(0);
+    }
+
+    @Test
+    void reusesConnectionsAndNegotiatesGzip() throws IOException {
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.setUris(List.of("http://localhost:" + myServer.getAddress().getPort()));
+
+        try (RestClient client = ElasticsearchConfig.restClientBuilder(properties, new AppProperties.Elasticsearch())
+                .build()) {
+            for (int i = 0; i < 5; i++) {
+                Request request = new Request("POST", "/observation_index/_search");
+                request.setJsonEntity("{\"size\":" + i + "}");
+                Response response = client.performRequest(request);
+                assertEquals(RESPONSE, EntityUtils.toString(response.getEntity()));
+            }
+        }
+
+        assertEquals(1, myClientPorts.size(), "all requests should share one keep-alive connection");
+        assertEquals(Set.of("gzip"), myAcceptEncodings);
+        assertEquals(5, myRequestBodies.size());
+    }
+
+    @Test
+    void compressionCanBeDisabled() throws IOException {
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.setUris(List.of("http://localhost:" + myServer.getAddress().getPort()));
+        AppProperties.Elasticsearch transport = new AppProperties.Elasticsearch();
+        transport.setCompression_enabled(false);
+
+        try (RestClient client = ElasticsearchConfig.restClientBuilder(properties, transport).build()) {
+            client.performRequest(new Request("GET", "/"));
+        }
+
+        assertEquals(Set.of("null"), myAcceptEncodings);
+    }
+}
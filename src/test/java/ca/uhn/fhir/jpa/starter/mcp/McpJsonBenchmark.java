@@ -0,0 +1,88 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation profile of the per-call MCP serialization work: turning the tool's resource argument into a HAPI
+ * resource and wrapping the encoded response into the tool result payload.
+ * <p>
+ * {@code legacy} reproduces what the MCP tools did before {@link McpJson}: a new {@link Gson} to serialize the
+ * argument map to a string which HAPI then parses again, and a new {@link ObjectMapper} for the payload.
+ * {@code shared} walks the argument map as a Jackson tree and reuses the shared writer. Compare the
+ * {@code gc.alloc.rate.norm} (bytes per call) columns of the output; run {@link #main}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class McpJsonBenchmark {
+
+    private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+    private final Map<String, Object> resourceArgument = Map.of(
+            "resourceType", "Patient",
+            "active", true,
+            "identifier", List.of(Map.of("system", "urn:something", "value", "uncleScrooge")),
+            "name", List.of(Map.of("family", "Duck", "given", List.of("Scrooge", "McDuck"))),
+            "address", List.of(Map.of("city", "Duckburg", "country", "Calisota")),
+            "birthDate", "1867-01-01");
+
+    private final String encodedResponse = McpJson.encode(ourCtx, McpJson.toResource(ourCtx, resourceArgument));
+
+    @Benchmark
+    public IBaseResource legacyParse() {
+        String json = new Gson().toJson(resourceArgument);
+        return ourCtx.newJsonParser().parseResource(json);
+    }
+
+    @Benchmark
+    public IBaseResource sharedParse() {
+        return McpJson.toResource(ourCtx, resourceArgument);
+    }
+
+    @Benchmark
+    public String legacyPayload() throws JsonProcessingException {
+        return new ObjectMapper().writeValueAsString(payload());
+    }
+
+    @Benchmark
+    public String sharedPayload() {
+        return McpJson.writeValueAsString(payload());
+    }
+
+    private Map<String, Object> payload() {
+        return Map.of(
+                "resourceType", "Patient", "interaction", Interaction.CREATE, "response", encodedResponse, "status", 201);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                        .include(McpJsonBenchmark.class.getSimpleName())
+                        .addProfiler(GCProfiler.class)
+                        .build())
+                .run();
+    }
+}
@@ -0,0 +1,49 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class McpJsonTest {
+
+    private static final FhirContext ourCtx = FhirContext.forR4Cached();
+
+    @Test
+    void toResource_parsesMapWithoutIntermediateString() {
+        Map<String, Object> body = Map.of(
+                "resourceType", "Patient",
+                "id", "example",
+                "active", true,
+                "multipleBirthInteger", 2,
+                "name", List.of(Map.of("family", "Duck", "given", List.of("Scrooge"))));
+
+        Patient patient = (Patient) McpJson.toResource(ourCtx, body);
+
+        assertEquals("example", patient.getIdElement().getIdPart());
+        assertTrue(patient.getActive());
+        assertEquals(2, patient.getMultipleBirthIntegerType().getValue());
+        assertEquals("Duck", patient.getNameFirstRep().getFamily());
+        assertEquals("Scrooge", patient.getNameFirstRep().getGivenAsSingleString());
+    }
+
+    @Test
+    void toResource_matchesStringParsing() {
+        Map<String, Object> body = Map.of("resourceType", "Patient", "gender", "female", "birthDate", "1990-01-01");
+
+        Patient fromMap = (Patient) McpJson.toResource(ourCtx, body);
+        Patient fromString = (Patient) McpJson.toResource(ourCtx, McpJson.writeValueAsString(body));
+
+        assertTrue(fromMap.equalsDeep(fromString));
+    }
+
+    @Test
+    void toResource_rejectsUnsupportedBodies() {
+        assertThrows(IllegalArgumentException.class, () -> McpJson.toResource(ourCtx, null));
+        assertThrows(IllegalArgumentException.class, () -> McpJson.toResource(ourCtx, 42));
+    }
+}
@@ -0,0 +1,118 @@
+package ca.uhn.fhir.jpa.starter.mcp;
+
+import io.modelcontextprotocol.server.McpServerFeatures;
+import io.modelcontextprotocol.spec.McpSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class McpToolExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private McpToolExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Test
+    void call_returnsToolResult() {
+        executor = new McpToolExecutor(2, 2, 10, Map.of());
+
+        McpSchema.CallToolResult result = call(tool("echo", () -> CallToolResultFactory.failure("done")));
+
+        assertEquals("done", text(result));
+    }
+
+    @Test
+    void call_timesOutWithPerToolTimeout() {
+        executor = new McpToolExecutor(2, 2, 60, Map.of("slow", 1));
+        McpServerFeatures.SyncToolSpecification slow = tool("slow", this::awaitRelease);
+
+        long start = System.nanoTime();
+        McpSchema.CallToolResult result = call(slow);
+
+        assertTrue(result.isError());
+        assertEquals("Tool slow timed out after 1s", text(result));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toSeconds() < 10);
+    }
+
+    @Test
+    void timeoutFor_fallsBackToDefault() {
+        executor = new McpToolExecutor(1, 1, 42, Map.of("slow", 5));
+
+        assertEquals(Duration.ofSeconds(5), executor.timeoutFor("slow"));
+        assertEquals(Duration.ofSeconds(42), executor.timeoutFor("other"));
+    }
+
+    @Test
+    void call_rejectedWhenPoolAndQueueAreFull() throws Exception {
+        executor = new McpToolExecutor(1, 1, 60, Map.of());
+        CountDownLatch running = new CountDownLatch(1);
+        McpServerFeatures.SyncToolSpecification blocking = tool("blocking", () -> {
+            running.countDown();
+            return awaitRelease();
+        });
+
+        // one call occupies the only thread, the next one fills the queue
+        CompletableFuture<McpSchema.CallToolResult> first = callAsync(blocking);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        CompletableFuture<McpSchema.CallToolResult> queued = callAsync(blocking);
+
+        McpSchema.CallToolResult rejected = call(blocking);
+
+        assertTrue(rejected.isError());
+        assertEquals("Server is busy, too many concurrent tool calls. Please retry later", text(rejected));
+
+        release.countDown();
+        assertEquals("released", text(first.get(10, TimeUnit.SECONDS)));
+        assertEquals("released", text(queued.get(10, TimeUnit.SECONDS)));
+    }
+
+    private McpSchema.CallToolResult awaitRelease() {
+        try {
+            release.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return CallToolResultFactory.failure("released");
+    }
+
+    private McpSchema.CallToolResult call(McpServerFeatures.SyncToolSpecification theTool) {
+        return callAsync(theTool).join();
+    }
+
+    private CompletableFuture<McpSchema.CallToolResult> callAsync(McpServerFeatures.SyncToolSpecification theTool) {
+        return executor.toAsync(theTool)
+                .callHandler()
+                .apply(null, new McpSchema.CallToolRequest(theTool.tool().name(), Map.of()))
+                .toFuture();
+    }
+
+    private static McpServerFeatures.SyncToolSpecification tool(
+            String theName, Supplier<McpSchema.CallToolResult> theHandler) {
+        return new McpServerFeatures.SyncToolSpecification.Builder()
+                .tool(new McpSchema.Tool.Builder()
+                        .name(theName)
+                        .inputSchema(new McpSchema.JsonSchema("object", Map.of(), null, null, null, null))
+                        .build())
+                .callHandler((exchange, request) -> theHandler.get())
+                .build();
+    }
+
+    private static String text(McpSchema.CallToolResult theResult) {
+        return ((McpSchema.TextContent) theResult.content().get(0)).text();
+    }
+}
@@ -0,0 +1,51 @@
+package ca.uhn.fhir.jpa.starter.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AfterCommitTest {
+
+    private final AtomicInteger myRuns = new AtomicInteger();
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void runsRightAwayOutsideOfATransaction() {
+        AfterCommit.run(myRuns::incrementAndGet);
+
+        assertEquals(1, myRuns.get());
+    }
+
+    @Test
+    void runsOnceTheTransactionCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        AfterCommit.run(myRuns::incrementAndGet);
+        assertEquals(0, myRuns.get());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertEquals(1, myRuns.get());
+    }
+
+    @Test
+    void doesNotRunWhenTheTransactionRollsBack() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        AfterCommit.run(myRuns::incrementAndGet);
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertEquals(0, myRuns.get());
+    }
+}
@@ -11,12 +11,15 @@ import org.hl7.fhir.common.hapi.validation.support.ValidationSupportChain;
 import org.hl7.fhir.common.hapi.validation.validator.FhirInstanceValidator;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.StructureDefinition;
+import org.hl7.fhir.r4.model.ValueSet;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Set;
 
@@ -34,6 +37,9 @@ class VersionedUrlFallbackValidationSupportTest {
     private static final String CUSTOM_SD_URL = "http://example.com/StructureDefinition/MyProfile";
     private static final String CUSTOM_SD_URL_VERSIONED = CUSTOM_SD_URL + "|1.0.0";
 
+    private static final String VALUE_SET_URL = "http://example.com/ValueSet/my-codes";
+    private static final String VALUE_SET_URL_VERSIONED = VALUE_SET_URL + "|1.0.0";
+
     private FhirContext myFhirContext;
 
     @Mock
@@ -196,6 +202,159 @@ class VersionedUrlFallbackValidationSupportTest {
         verify(myChain).fetchStructureDefinition(ORGANIZATION_URL);
     }
 
+    @Test
+    void testFallbackIsMemoized() {
+        StructureDefinition sd = new StructureDefinition();
+        sd.setUrl(ORGANIZATION_URL);
+
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL)).thenReturn(sd);
+
+        for (int i = 0; i < 5; i++) {
+            assertSame(sd, mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+        }
+
+        // Verify: the chain is only consulted for the first lookup
+        verify(myChain, times(1)).fetchStructureDefinition(ORGANIZATION_URL_VERSIONED);
+        verify(myChain, times(1)).fetchStructureDefinition(ORGANIZATION_URL);
+    }
+
+    @Test
+    void testMissIsMemoized() {
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL)).thenReturn(null);
+
+        assertNull(mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+        assertNull(mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+
+        verify(myChain, times(1)).fetchStructureDefinition(ORGANIZATION_URL_VERSIONED);
+        verify(myChain, times(1)).fetchStructureDefinition(ORGANIZATION_URL);
+    }
+
+    @Test
+    void testStructureDefinitionChangeInvalidatesCache() {
+        StructureDefinition sd = new StructureDefinition();
+        sd.setUrl(ORGANIZATION_URL);
+
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL)).thenReturn(null, sd);
+
+        assertNull(mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+
+        // Execute: a StructureDefinition is stored
+        mySvc.resourceCreated(sd);
+
+        // Verify: the next lookup goes to the chain again and finds it
+        assertSame(sd, mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+    }
+
+    @Test
+    void testOtherResourceChangeKeepsCache() {
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL)).thenReturn(null);
+
+        mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED);
+        mySvc.resourceCreated(new Observation());
+        mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED);
+
+        verify(myChain, times(1)).fetchStructureDefinition(ORGANIZATION_URL);
+    }
+
+    @Test
+    void testValueSetChangeInvalidatesCache() {
+        mySvc = new VersionedUrlFallbackValidationSupport(myFhirContext, myChain, Set.of());
+        ValueSet vs = new ValueSet();
+        vs.setUrl(VALUE_SET_URL);
+
+        when(myChain.fetchResource(ValueSet.class, VALUE_SET_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchResource(ValueSet.class, VALUE_SET_URL)).thenReturn(null, vs);
+
+        assertNull(mySvc.fetchResource(ValueSet.class, VALUE_SET_URL_VERSIONED));
+
+        mySvc.resourceCreated(vs);
+
+        assertSame(vs, mySvc.fetchResource(ValueSet.class, VALUE_SET_URL_VERSIONED));
+    }
+
+    @Test
+    void testCacheIsInvalidatedOnlyOnceTheTransactionCommits() {
+        StructureDefinition sd = new StructureDefinition();
+        sd.setUrl(ORGANIZATION_URL);
+
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL)).thenReturn(null, sd);
+
+        assertNull(mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            mySvc.resourceCreated(sd);
+
+            // a lookup before the commit must not see the change, nor drop the cached miss
+            assertNull(mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertSame(sd, mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+    }
+
+    @Test
+    void testLookupRunningDuringInvalidationIsNotCached() {
+        StructureDefinition sd = new StructureDefinition();
+        sd.setUrl(ORGANIZATION_URL);
+
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        // the StructureDefinition is committed while the first lookup is still running, after it missed
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL))
+                .thenAnswer(invocation -> {
+                    mySvc.invalidateCaches();
+                    return null;
+                })
+                .thenReturn(sd);
+
+        assertNull(mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+
+        // Verify: the stale miss was not cached, the next lookup finds the StructureDefinition
+        assertSame(sd, mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED));
+        verify(myChain, times(2)).fetchStructureDefinition(ORGANIZATION_URL);
+    }
+
+    @Test
+    void testFetchResourceAndStructureDefinitionCachedSeparately() {
+        StructureDefinition sd = new StructureDefinition();
+        sd.setUrl(ORGANIZATION_URL);
+
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchStructureDefinition(ORGANIZATION_URL)).thenReturn(sd);
+        when(myChain.fetchResource(StructureDefinition.class, ORGANIZATION_URL_VERSIONED)).thenReturn(null);
+        when(myChain.fetchResource(StructureDefinition.class, ORGANIZATION_URL)).thenReturn(sd);
+
+        mySvc.fetchStructureDefinition(ORGANIZATION_URL_VERSIONED);
+        mySvc.fetchResource(StructureDefinition.class, ORGANIZATION_URL_VERSIONED);
+
+        verify(myChain).fetchStructureDefinition(ORGANIZATION_URL);
+        verify(myChain).fetchResource(StructureDefinition.class, ORGANIZATION_URL);
+    }
+
+    @Test
+    void testPrefixTrie() {
+        var trie = new VersionedUrlFallbackValidationSupport.PrefixTrie(
+                Set.of("http://hl7.org/fhir/", "http://hl7.org/fhir/StructureDefinition/", "http://example.com/"));
+
+        assertTrue(trie.matches("http://hl7.org/fhir/StructureDefinition/Patient"));
+        assertTrue(trie.matches("http://hl7.org/fhir/ValueSet/x"));
+        assertTrue(trie.matches("http://example.com/"));
+        assertFalse(trie.matches("http://example.co"));
+        assertFalse(trie.matches("http://hl7.org/fhi"));
+        assertFalse(trie.matches(""));
+
+        var matchAll = new VersionedUrlFallbackValidationSupport.PrefixTrie(Set.of());
+        assertTrue(matchAll.matches("urn:uuid:1234"));
+    }
+
     @Test
     void testGetName() {
         assertEquals("VersionedUrlFallbackValidationSupport", mySvc.getName());
@@ -0,0 +1,134 @@
+package ca.uhn.fhir.rest.server;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.config.NicknameServiceConfig;
+import ca.uhn.fhir.jpa.starter.Application;
+import ca.uhn.fhir.jpa.starter.mcp.DaoToolDispatcher;
+import ca.uhn.fhir.jpa.starter.mcp.Interaction;
+import ca.uhn.fhir.jpa.starter.mcp.McpCallerContext;
+import ca.uhn.fhir.jpa.starter.mcp.McpJson;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.modelcontextprotocol.spec.McpSchema;
+import org.opencds.cqf.fhir.cr.hapi.config.RepositoryConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ways {@link McpFhirBridge} executes read, search and create tool calls: the servlet path, which
+ * pushes a mock request through {@link RestfulServer#handleRequest} and re-reads the buffered response, and the
+ * direct DAO path of {@link DaoToolDispatcher}.
+ * <p>
+ * Boots the server against an in-memory H2 database. Run {@link #main} from the IDE, or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=<this class>}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class McpDispatchBenchmark {
+
+    private static final String SEARCHED_PATIENT = """
+            {"resourceType": "Patient", "identifier": [{"system": "urn:bench", "value": "search"}]}""";
+    private static final String CREATED_PATIENT = """
+            {"resourceType": "Patient", "identifier": [{"system": "urn:bench", "value": "create"}]}""";
+
+    @Param({"servlet", "direct"})
+    public String path;
+
+    private ConfigurableApplicationContext context;
+    private McpFhirBridge bridge;
+    private String patientId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+        context = new SpringApplicationBuilder(Application.class, NicknameServiceConfig.class, RepositoryConfig.class)
+                .profiles("test")
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:mcpbench",
+                        "hapi.fhir.fhir_version=r4")
+                .run();
+
+        RestfulServer restfulServer = context.getBean(RestfulServer.class);
+        bridge = "direct".equals(path)
+                ? new McpFhirBridge(
+                        restfulServer,
+                        new DaoToolDispatcher(
+                                restfulServer.getFhirContext(),
+                                context.getBean(DaoRegistry.class),
+                                context.getBean(MatchUrlService.class),
+                                restfulServer,
+                                "http://localhost/fhir",
+                                false))
+                : new McpFhirBridge(restfulServer);
+
+        McpSchema.CallToolResult created =
+                call(Interaction.CREATE, Map.of("resourceType", "Patient", "resource", SEARCHED_PATIENT));
+        JsonNode payload = McpJson.mapper().readTree(((McpSchema.TextContent) created.content().get(0)).text());
+        patientId = restfulServer.getFhirContext().newJsonParser()
+                .parseResource(payload.get("response").asText())
+                .getIdElement()
+                .getIdPart();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public McpSchema.CallToolResult read() {
+        return call(Interaction.READ, Map.of("resourceType", "Patient", "id", patientId));
+    }
+
+    @Benchmark
+    public McpSchema.CallToolResult search() {
+        return call(Interaction.SEARCH, Map.of("resourceType", "Patient", "query", "identifier=urn:bench|search"));
+    }
+
+    @Benchmark
+    public McpSchema.CallToolResult create() {
+        return call(Interaction.CREATE, Map.of("resourceType", "Patient", "resource", CREATED_PATIENT));
+    }
+
+    private McpSchema.CallToolResult call(Interaction interaction, Map<String, Object> arguments) {
+        McpSchema.CallToolResult result = bridge.getToolResult(
+                McpCallerContext.EMPTY, new McpSchema.CallToolRequest("bench", arguments), interaction);
+        if (Boolean.TRUE.equals(result.isError())) {
+            throw new IllegalStateException(result.content().toString());
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                        .include(McpDispatchBenchmark.class.getSimpleName())
+                        .addProfiler(GCProfiler.class)
+                        .build())
+                .run();
+    }
+}